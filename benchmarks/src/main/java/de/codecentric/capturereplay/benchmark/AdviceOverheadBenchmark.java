@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.CaptureReplayAdvice;
+import de.codecentric.capturereplay.annotation.EnableCaptureReplay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdviceOverheadBenchmark {
+
+	@Param({"OFF", "DISABLED", "CAPTURE", "REPLAY"})
+	public String mode;
+
+	@Param({"1", "1000"})
+	public int customers;
+
+	private AnnotationConfigApplicationContext applicationContext;
+
+	private CustomerRepository proxiedRepository;
+
+	private CustomerRepository plainRepository;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// The advice is not registered at all in OFF mode, so it needs a configuration of its own.
+		if ("OFF".equals(mode)) {
+			applicationContext = new AnnotationConfigApplicationContext(OffConfiguration.class);
+		} else {
+			applicationContext = new AnnotationConfigApplicationContext(SwitchableConfiguration.class);
+		}
+		proxiedRepository = applicationContext.getBean(CustomerRepository.class);
+		plainRepository = new CustomerRepository();
+
+		if (!"OFF".equals(mode)) {
+			CaptureReplayAdvice captureReplayAdvice = applicationContext.getBean(CaptureReplayAdvice.class);
+			if ("REPLAY".equals(mode)) {
+				captureReplayAdvice.setMode(de.codecentric.capturereplay.Mode.CAPTURE);
+				proxiedRepository.findCustomers(customers);
+				proxiedRepository.countCustomers(customers);
+			}
+			captureReplayAdvice.setMode(de.codecentric.capturereplay.Mode.valueOf(mode));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		applicationContext.close();
+	}
+
+	@Benchmark
+	public List<Customer> unproxied() {
+		return plainRepository.findCustomers(customers);
+	}
+
+	@Benchmark
+	public List<Customer> intercepted() {
+		return proxiedRepository.findCustomers(customers);
+	}
+
+	@Benchmark
+	public int unproxiedCount() {
+		return plainRepository.countCustomers(customers);
+	}
+
+	@Benchmark
+	public int interceptedCount() {
+		return proxiedRepository.countCustomers(customers);
+	}
+
+	@Configuration
+	@EnableCaptureReplay(mode = de.codecentric.capturereplay.Mode.DISABLED, dataMapper = "dataMapper")
+	@Import(AdviceBenchmarkConfiguration.class)
+	public static class SwitchableConfiguration {
+	}
+
+	@Configuration
+	@EnableCaptureReplay(mode = de.codecentric.capturereplay.Mode.OFF, dataMapper = "dataMapper")
+	@Import(AdviceBenchmarkConfiguration.class)
+	public static class OffConfiguration {
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureFileProvider;
+import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.DefaultCaptureFileProvider;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import de.codecentric.capturereplay.data.TemporaryCaptureFileProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureFileProviderBenchmark {
+
+	@Param({"default", "temporary"})
+	public String provider;
+
+	private File captureFilesDirectory;
+
+	private CaptureFileProvider captureFileProvider;
+
+	private DataMapper dataMapper;
+
+	private Method method;
+
+	private Object[] arguments;
+
+	private List<Customer> returnValue;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if ("temporary".equals(provider)) {
+			captureFileProvider = new TemporaryCaptureFileProvider();
+		} else {
+			captureFilesDirectory = Files.createTempDirectory("capture-replay-benchmark").toFile();
+			DefaultCaptureFileProvider defaultCaptureFileProvider = new DefaultCaptureFileProvider();
+			defaultCaptureFileProvider.setCaptureFilesPath(captureFilesDirectory.getPath());
+			defaultCaptureFileProvider.afterPropertiesSet();
+			captureFileProvider = defaultCaptureFileProvider;
+		}
+		JsonDataMapper jsonDataMapper = new JsonDataMapper(captureFileProvider);
+		jsonDataMapper.afterPropertiesSet();
+		dataMapper = jsonDataMapper;
+		method = CustomerRepository.findCustomersMethod();
+		arguments = new Object[]{CustomerRepository.SMALL};
+		returnValue = new CustomerRepository().findCustomers(CustomerRepository.SMALL);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		if (captureFileProvider instanceof TemporaryCaptureFileProvider) {
+			((TemporaryCaptureFileProvider) captureFileProvider).destroy();
+		} else {
+			File[] captureFiles = captureFilesDirectory.listFiles();
+			if (captureFiles != null) {
+				for (File captureFile : captureFiles) {
+					captureFile.delete();
+				}
+			}
+			captureFilesDirectory.delete();
+		}
+	}
+
+	@Benchmark
+	public File captureFile() throws Exception {
+		return captureFileProvider.getCaptureFile("CustomerRepository.findCustomers");
+	}
+
+	@Benchmark
+	public void capture() throws Exception {
+		dataMapper.writeCapturedData(method, returnValue, arguments);
+	}
+}
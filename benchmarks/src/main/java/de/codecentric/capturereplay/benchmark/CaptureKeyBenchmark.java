@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureKeyStrategy;
+import de.codecentric.capturereplay.data.HashCodeCaptureKeyStrategy;
+import de.codecentric.capturereplay.data.StructuralHashCaptureKeyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureKeyBenchmark {
+
+	@Param({"structural", "hashCode"})
+	public String strategy;
+
+	@Param({"1", "1000"})
+	public int customers;
+
+	private CaptureKeyStrategy captureKeyStrategy;
+
+	private Method method;
+
+	private Object[] arguments;
+
+	@Setup
+	public void setUp() {
+		captureKeyStrategy = "hashCode".equals(strategy)
+				? new HashCodeCaptureKeyStrategy()
+				: new StructuralHashCaptureKeyStrategy();
+		method = CustomerRepository.findCustomersMethod();
+		// The customers are used as argument to measure the cost of hashing large arguments.
+		arguments = new Object[]{new CustomerRepository().findCustomers(customers)};
+	}
+
+	@Benchmark
+	public String captureKey() {
+		return captureKeyStrategy.getCaptureKey(method, arguments);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureStore;
+import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.FileCaptureStore;
+import de.codecentric.capturereplay.data.StructuralHashCaptureKeyStrategy;
+import de.codecentric.capturereplay.data.TemporaryCaptureFileProvider;
+
+import java.io.File;
+import java.lang.reflect.Method;
+
+public class CaptureSizeReport {
+
+	public static void main(String[] args) throws Exception {
+		System.out.println("format,compression,customers,bytes");
+		for (String format : new String[]{"json", "smile"}) {
+			for (String compression : CompressionBenchmark.COMPRESSIONS) {
+				for (int customers : new int[]{CustomerRepository.SMALL, CustomerRepository.LARGE}) {
+					TemporaryCaptureFileProvider captureFileProvider = new TemporaryCaptureFileProvider();
+					try {
+						CaptureStore captureStore = CompressionBenchmark.createCaptureStore(compression, new FileCaptureStore(captureFileProvider));
+						DataMapper dataMapper = DataMapperFormatBenchmark.createDataMapper(format, captureStore);
+						Method method = CustomerRepository.findCustomersMethod();
+						Object[] arguments = new Object[]{customers};
+						dataMapper.writeCapturedData(method, new CustomerRepository().findCustomers(customers), arguments);
+						String captureKey = new StructuralHashCaptureKeyStrategy().getCaptureKey(method, arguments);
+						File captureFile = captureFileProvider.getCaptureFile(captureKey);
+						System.out.println(String.format("%s,%s,%d,%d", format, compression, customers, captureFile.length()));
+					} finally {
+						captureFileProvider.destroy();
+					}
+				}
+			}
+		}
+	}
+}
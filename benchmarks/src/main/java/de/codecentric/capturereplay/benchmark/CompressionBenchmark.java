@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureDictionaryTrainer;
+import de.codecentric.capturereplay.data.CaptureStore;
+import de.codecentric.capturereplay.data.CompressingCaptureStore;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import de.codecentric.capturereplay.data.StructuralHashCaptureKeyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Measures the CPU cost of compressing captures. CaptureSizeReport shows the sizes of the compressed captures.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+	static final String[] COMPRESSIONS = {"none", "deflate", "dictionary"};
+
+	@Param({"none", "deflate", "dictionary"})
+	public String compression;
+
+	@Param({"1", "1000"})
+	public int customers;
+
+	private JsonDataMapper dataMapper;
+
+	private Method method;
+
+	private Object[] arguments;
+
+	private List<Customer> returnValue;
+
+	@Setup
+	public void setUp() throws Exception {
+		dataMapper = new JsonDataMapper(createCaptureStore(compression, new InMemoryCaptureStore()));
+		dataMapper.afterPropertiesSet();
+		method = CustomerRepository.findCustomersMethod();
+		arguments = new Object[]{customers};
+		returnValue = new CustomerRepository().findCustomers(customers);
+		dataMapper.writeCapturedData(method, returnValue, arguments);
+	}
+
+	@Benchmark
+	public void capture() throws Exception {
+		dataMapper.writeCapturedData(method, returnValue, arguments);
+	}
+
+	@Benchmark
+	public Object replay() throws Exception {
+		return dataMapper.getCapturedData(method, arguments);
+	}
+
+	static CaptureStore createCaptureStore(String compression, CaptureStore captureStore) throws Exception {
+		if ("none".equals(compression)) {
+			return captureStore;
+		}
+		CompressingCaptureStore compressingCaptureStore = new CompressingCaptureStore(captureStore);
+		if ("dictionary".equals(compression)) {
+			compressingCaptureStore.setDictionary(trainDictionary());
+		}
+		return compressingCaptureStore;
+	}
+
+	// Trains the dictionary with customers that are never captured by the benchmarks, so it only contains what
+	// captures of other calls have in common.
+	private static byte[] trainDictionary() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		Method method = CustomerRepository.findCustomersMethod();
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for (int offset = 2000; offset < 2200; offset += 4) {
+			List<Customer> customers = new CustomerRepository().findCustomers(offset + 4);
+			Object[] arguments = new Object[]{offset};
+			dataMapper.writeCapturedData(method, new ArrayList<Customer>(customers.subList(offset, offset + 4)), arguments);
+			samples.add(read(captureStore.openCaptureInput(new StructuralHashCaptureKeyStrategy().getCaptureKey(method, arguments))));
+		}
+		return new CaptureDictionaryTrainer().train(samples);
+	}
+
+	private static byte[] read(InputStream inputStream) throws Exception {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.Capturable;
+import de.codecentric.capturereplay.data.ReplayInstances;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+public class CustomerRepository {
+
+	public static final int SMALL = 1;
+
+	public static final int LARGE = 1000;
+
+	@Capturable
+	public List<Customer> findCustomers(int count) {
+		List<Customer> customers = new ArrayList<Customer>(count);
+		for (int i = 0; i < count; i++) {
+			Address address = new Address();
+			address.setStreet("Kreuzstra\u00dfe " + i);
+			address.setZipCode(String.format("%05d", 40000 + i));
+			address.setCity("Solingen");
+
+			Customer customer = new Customer();
+			customer.setId(i);
+			customer.setName("Customer " + i);
+			customer.setEmail("customer" + i + "@example.com");
+			customer.setAddress(address);
+			customer.setTags(new ArrayList<String>(Arrays.asList("premium", "newsletter", "region-" + (i % 16))));
+			customers.add(customer);
+		}
+		return customers;
+	}
+
+	// Does next to nothing, so the cost of intercepting the call is all that is measured.
+	@Capturable
+	public int countCustomers(int count) {
+		return count;
+	}
+
+	// Replays copies of a single deserialized instance.
+	@Capturable(replayInstances = ReplayInstances.COPY)
+	public List<Customer> findCustomersCopied(int count) {
+		return findCustomers(count);
+	}
+
+	@Capturable
+	public Iterator<Customer> iterateCustomers(int count) {
+		return findCustomers(count).iterator();
+	}
+
+	public static Method findCustomersMethod() {
+		try {
+			return CustomerRepository.class.getMethod("findCustomers", int.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static Method findCustomersCopiedMethod() {
+		try {
+			return CustomerRepository.class.getMethod("findCustomersCopied", int.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static Method iterateCustomersMethod() {
+		try {
+			return CustomerRepository.class.getMethod("iterateCustomers", int.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureStore;
+import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.FileCaptureStore;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import de.codecentric.capturereplay.data.SmileDataMapper;
+import de.codecentric.capturereplay.data.TemporaryCaptureFileProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataMapperFormatBenchmark {
+
+	@Param({"json", "smile"})
+	public String format;
+
+	@Param({"1", "1000"})
+	public int customers;
+
+	private TemporaryCaptureFileProvider captureFileProvider;
+
+	private DataMapper dataMapper;
+
+	private Method method;
+
+	private Object[] arguments;
+
+	private List<Customer> returnValue;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		captureFileProvider = new TemporaryCaptureFileProvider();
+		dataMapper = createDataMapper(format, captureFileProvider);
+		method = CustomerRepository.findCustomersMethod();
+		arguments = new Object[]{customers};
+		returnValue = new CustomerRepository().findCustomers(customers);
+		dataMapper.writeCapturedData(method, returnValue, arguments);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		captureFileProvider.destroy();
+	}
+
+	@Benchmark
+	public void capture() throws Exception {
+		dataMapper.writeCapturedData(method, returnValue, arguments);
+	}
+
+	@Benchmark
+	public Object replay() throws Exception {
+		return dataMapper.getCapturedData(method, arguments);
+	}
+
+	static DataMapper createDataMapper(String format, TemporaryCaptureFileProvider captureFileProvider) throws Exception {
+		return createDataMapper(format, new FileCaptureStore(captureFileProvider));
+	}
+
+	static DataMapper createDataMapper(String format, CaptureStore captureStore) throws Exception {
+		JsonDataMapper dataMapper = "smile".equals(format)
+				? new SmileDataMapper(captureStore)
+				: new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.CaptureStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Keeps captures in memory, so benchmarks measure the framework and not the file system.
+public class InMemoryCaptureStore implements CaptureStore {
+
+	private final ConcurrentMap<String, byte[]> captures = new ConcurrentHashMap<String, byte[]>();
+
+	@Override
+	public OutputStream openCaptureOutput(final String captureKey) throws IOException {
+		return new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				captures.put(captureKey, toByteArray());
+			}
+		};
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		byte[] capturedData = captures.get(captureKey);
+		if (capturedData == null) {
+			throw new FileNotFoundException(captureKey);
+		}
+		return new ByteArrayInputStream(capturedData);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.benchmark;
+
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+// Replays large captured collections, either as a whole, as copies of a single deserialized instance or element
+// by element from an iterator. Run it with "-prof gc" to see the allocation rate per replayed call.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LargeReplayBenchmark {
+
+	@Param({"1000", "10000"})
+	public int customers;
+
+	@Param({"0", "16"})
+	public int replayCacheSize;
+
+	private JsonDataMapper dataMapper;
+
+	private Method method;
+
+	private Object[] arguments;
+
+	private Method iterateMethod;
+
+	private Method copiedMethod;
+
+	@Setup
+	public void setUp() throws Exception {
+		dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayCacheSize(replayCacheSize);
+		dataMapper.afterPropertiesSet();
+		method = CustomerRepository.findCustomersMethod();
+		arguments = new Object[]{customers};
+		dataMapper.writeCapturedData(method, new CustomerRepository().findCustomers(customers), arguments);
+		copiedMethod = CustomerRepository.findCustomersCopiedMethod();
+		dataMapper.writeCapturedData(copiedMethod, new CustomerRepository().findCustomers(customers), arguments);
+		iterateMethod = CustomerRepository.iterateCustomersMethod();
+		Iterator<?> iterator = (Iterator<?>) dataMapper.writeCapturedElements(iterateMethod, new CustomerRepository().iterateCustomers(customers), arguments, 0);
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+	}
+
+	@Benchmark
+	public Object replay() throws Exception {
+		return dataMapper.getCapturedData(method, arguments);
+	}
+
+	// The capture is deserialized once. Each replay copies the deserialized customers field by field.
+	@Benchmark
+	public Object replayCopied() throws Exception {
+		return dataMapper.getCapturedData(copiedMethod, arguments);
+	}
+
+	// Only one customer is kept in memory at a time.
+	@Benchmark
+	public void replayElements(Blackhole blackhole) throws Exception {
+		Iterator<?> iterator = (Iterator<?>) dataMapper.getCapturedData(iterateMethod, arguments);
+		while (iterator.hasNext()) {
+			blackhole.consume(iterator.next());
+		}
+	}
+}
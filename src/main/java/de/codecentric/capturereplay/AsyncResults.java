@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+// Futures returned by capturable methods are captured with the value they complete with and are replayed as futures
+// that are completed with the captured value. A future that fails is captured as a FailedFutureException with the
+// failure as its cause, so it can be told apart from an exception that the method has thrown itself.
+final class AsyncResults {
+
+	private AsyncResults() {
+	}
+
+	static boolean isCapturedAsync(Method method, Object returnValue) {
+		return (returnValue instanceof CompletionStage || returnValue instanceof ListenableFuture) && isReplayedAsync(method);
+	}
+
+	// Only futures whose type is known from the method signature can be replayed.
+	static boolean isReplayedAsync(Method method) {
+		Class<?> returnType = method.getReturnType();
+		if (!CompletionStage.class.isAssignableFrom(returnType) && !Future.class.isAssignableFrom(returnType)) {
+			return false;
+		}
+		return returnType.isAssignableFrom(CompletableFuture.class) || returnType.isAssignableFrom(ListenableFutureTask.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	static void whenComplete(Object future, final CompletionCallback callback) {
+		if (future instanceof CompletionStage) {
+			((CompletionStage<Object>) future).whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object value, Throwable failure) {
+					callback.completed(value, failure);
+				}
+			});
+		} else {
+			((ListenableFuture<Object>) future).addCallback(new ListenableFutureCallback<Object>() {
+				@Override
+				public void onSuccess(Object value) {
+					callback.completed(value, null);
+				}
+
+				@Override
+				public void onFailure(Throwable failure) {
+					callback.completed(null, failure);
+				}
+			});
+		}
+	}
+
+	// Stages that depend on a failed one fail with a CompletionException around the original failure, which is
+	// captured without it.
+	static Throwable wrapFailure(Throwable failure) {
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+		return new FailedFutureException(cause);
+	}
+
+	static boolean isWrappedFailure(Throwable throwable) {
+		return throwable instanceof FailedFutureException && throwable.getCause() != null;
+	}
+
+	// Adapts the future to the return type of the method. Futures of other types complete once the future has.
+	static Object adapt(Method method, final CompletableFuture<Object> future) {
+		if (method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+			return future;
+		}
+		final ListenableFutureTask<Object> task = new ListenableFutureTask<Object>(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				try {
+					return future.get();
+				} catch (ExecutionException e) {
+					Throwable failure = e.getCause();
+					if (failure instanceof Error) {
+						throw (Error) failure;
+					}
+					throw failure instanceof Exception ? (Exception) failure : e;
+				}
+			}
+		});
+		future.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object value, Throwable failure) {
+				task.run();
+			}
+		});
+		return task;
+	}
+
+	interface CompletionCallback {
+
+		// Either the value or the failure of the future. Called by the thread that completes the future.
+		void completed(Object value, Throwable failure);
+	}
+}
@@ -16,6 +16,8 @@
 
 package de.codecentric.capturereplay;
 
+import de.codecentric.capturereplay.data.ReplayInstances;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -24,4 +26,33 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
 public @interface Capturable {
+
+	// Share of the calls that are captured, between 0 and 1.
+	double sampleRate() default 1.0;
+
+	// Maximum number of captures per second. 0 means unlimited.
+	double maxCapturesPerSecond() default 0;
+
+	// Maximum number of captures of each capture key. 0 means unlimited.
+	int maxCapturesPerKey() default 0;
+
+	// Captures each capture key only once while the application is running.
+	boolean skipCapturedKeys() default false;
+
+	// Captures and replays collections element by element, so large collections are not buffered as a whole.
+	// Iterators and streams are always captured element by element.
+	boolean captureElements() default false;
+
+	// Property paths of the return value that are captured, e.g. "name" or "address.city". Paths lead through
+	// collections to the properties of their elements. Empty means all properties.
+	String[] includeProperties() default {};
+
+	// Property paths of the return value that are not captured, together with everything below them.
+	String[] excludeProperties() default {};
+
+	// Maximum depth of captured properties. The properties of the return value have depth 1. 0 means unlimited.
+	int maxDepth() default 0;
+
+	// Whether replays deserialize a new instance, copy a single deserialized instance or share it.
+	ReplayInstances replayInstances() default ReplayInstances.DESERIALIZE;
 }
@@ -17,45 +17,266 @@
 package de.codecentric.capturereplay;
 
 import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.DataMappingException;
+import de.codecentric.capturereplay.data.DelayedCapturedData;
+import de.codecentric.capturereplay.data.ReplayedThrowableException;
+import de.codecentric.capturereplay.metrics.CaptureReplayMetrics;
+import de.codecentric.capturereplay.metrics.NoOpCaptureReplayMetrics;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.lang3.Validate;
-import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.annotation.Around;
-import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.reflect.MethodSignature;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
-@Aspect
-public class CaptureReplayAdvice implements InitializingBean {
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
-	private Mode mode;
+public class CaptureReplayAdvice implements MethodInterceptor, InitializingBean, DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(CaptureReplayAdvice.class);
+
+	private static final long ASYNC_REPLAY_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+	// The mode can be switched at runtime while other threads are intercepted.
+	private volatile Mode mode;
 
 	private DataMapper dataMapper;
 
-	@Around("execution(@de.codecentric.capturereplay.Capturable * *(..))")
-	public Object aroundCapturableMethod(ProceedingJoinPoint pjp) throws Throwable {
-		MethodSignature signature = (MethodSignature) pjp.getSignature();
-		if (Mode.CAPTURE.equals(mode)) {
-			Object returnValue = pjp.proceed();
-			dataMapper.writeCapturedData(signature, returnValue, pjp.getArgs());
-			return returnValue;
-		} else if (Mode.REPLAY.equals(mode)) {
-			return dataMapper.getCapturedData(signature.getMethod().getName(), pjp.getArgs());
-		} else if (Mode.DISABLED.equals(mode)) {
-			return pjp.proceed();
+	private CaptureReplayMetrics metrics = NoOpCaptureReplayMetrics.INSTANCE;
+
+	// Reads the captures of replayed futures and completes them once their simulated latency has passed, so the caller
+	// neither reads the capture store nor waits for the latency. It is created by the first replayed future.
+	private ScheduledExecutorService asyncReplayExecutor;
+
+	private boolean destroyed;
+
+	// Proxies of capturable beans and the advisors they have been advised with. They are only advised while capturing
+	// or replaying. Prototypes must not be kept alive.
+	private final List<AdvisedProxy> proxies = new ArrayList<AdvisedProxy>();
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		switch (mode) {
+			case DISABLED:
+				// Calls that have been intercepted while the mode was switched are just passed through.
+				return invocation.proceed();
+			case CAPTURE:
+				return capture(invocation);
+			case REPLAY:
+				return replay(invocation);
+			default:
+				throw new IllegalCaptureReplayUsageException(String.format("Capturing/replaying is switched off. You should not use %s directly.", this.getClass().getSimpleName()));
+		}
+	}
+
+	private Object capture(MethodInvocation invocation) throws Throwable {
+		Object returnValue;
+		long proceedStart = System.nanoTime();
+		try {
+			returnValue = invocation.proceed();
+		} catch (Throwable throwable) {
+			captureException(invocation, throwable, System.nanoTime() - proceedStart);
+			throw throwable;
+		}
+		// Only the time after the captured method has returned is overhead.
+		long start = System.nanoTime();
+		Method method = invocation.getMethod();
+		if (AsyncResults.isCapturedAsync(method, returnValue)) {
+			captureAsync(method, returnValue, invocation.getArguments(), proceedStart);
+		} else if (returnValue instanceof Iterator || returnValue instanceof Stream) {
+			// The caller consumes a view that captures the elements on the way.
+			returnValue = dataMapper.writeCapturedElements(method, returnValue, invocation.getArguments(), start - proceedStart);
 		} else {
-			throw new IllegalCaptureReplayUsageException(String.format("Capturing/replaying is switched off. You should not use %s directly.", this.getClass().getSimpleName()));
+			dataMapper.writeCapturedData(method, returnValue, invocation.getArguments(), start - proceedStart);
+		}
+		metrics.recordAdviceOverhead(method, Mode.CAPTURE, System.nanoTime() - start);
+		return returnValue;
+	}
+
+	private void captureAsync(final Method method, Object future, final Object[] arguments, final long proceedStart) {
+		AsyncResults.whenComplete(future, new AsyncResults.CompletionCallback() {
+			@Override
+			public void completed(final Object value, final Throwable failure) {
+				// The duration is the time until the future has completed.
+				writeCompletedFuture(method, value, failure, arguments, System.nanoTime() - proceedStart);
+			}
+		});
+	}
+
+	// The value is serialized right away, before the caller can modify it. Only the bytes are left to a writer thread.
+	private void writeCompletedFuture(Method method, Object value, Throwable failure, Object[] arguments, long duration) {
+		try {
+			if (failure == null) {
+				dataMapper.writeCompletedFuture(method, value, null, arguments, duration);
+			} else {
+				dataMapper.writeCompletedFuture(method, null, AsyncResults.wrapFailure(failure), arguments, duration);
+			}
+		} catch (DataMappingException e) {
+			// Nobody waits for the capture anymore, so the exception can only be logged.
+			LOG.warn(String.format("Could not capture the result of the future returned by %s.", method), e);
+		}
+	}
+
+	private void captureException(MethodInvocation invocation, Throwable throwable, long duration) {
+		long start = System.nanoTime();
+		Method method = invocation.getMethod();
+		try {
+			dataMapper.writeCapturedException(method, throwable, invocation.getArguments(), duration);
+		} catch (DataMappingException e) {
+			// The caller gets the exception of the captured method, whether it could be captured or not.
+			LOG.warn(String.format("Could not capture the exception thrown by %s.", method), e);
+		}
+		metrics.recordAdviceOverhead(method, Mode.CAPTURE, System.nanoTime() - start);
+	}
+
+	private Object replay(MethodInvocation invocation) throws Throwable {
+		long start = System.nanoTime();
+		Method method = invocation.getMethod();
+		DelayedCapturedData capturedData;
+		try {
+			if (AsyncResults.isReplayedAsync(method)) {
+				return AsyncResults.adapt(method, replayAsync(method, invocation.getArguments()));
+			}
+			capturedData = dataMapper.getDelayedCapturedData(method, invocation.getArguments());
+		} finally {
+			// The simulated latency is not spent by the advice, so it is not part of its overhead.
+			metrics.recordAdviceOverhead(method, Mode.REPLAY, System.nanoTime() - start);
+		}
+		capturedData.awaitDelay();
+		try {
+			return capturedData.getCapturedData();
+		} catch (ReplayedThrowableException e) {
+			throw e.getReplayedThrowable();
+		}
+	}
+
+	// The returned future is completed by the replay executor. Captures of exceptions that the method has thrown
+	// itself fail the future as well, because they are only read after the method has returned.
+	private CompletableFuture<Object> replayAsync(final Method method, final Object[] arguments) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		final ScheduledExecutorService executor = getAsyncReplayExecutor();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final DelayedCapturedData capturedData = dataMapper.getDelayedCapturedData(method, arguments);
+						Runnable completion = new Runnable() {
+							@Override
+							public void run() {
+								completeReplayedFuture(future, capturedData);
+							}
+						};
+						if (capturedData.getDelay() > 0) {
+							executor.schedule(completion, capturedData.getDelay(), TimeUnit.NANOSECONDS);
+						} else {
+							completion.run();
+						}
+					} catch (Throwable throwable) {
+						future.completeExceptionally(throwable);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Calls that are replayed while the application context is closed are not replayed anymore.
+			future.completeExceptionally(e);
 		}
+		return future;
+	}
+
+	private static void completeReplayedFuture(CompletableFuture<Object> future, DelayedCapturedData capturedData) {
+		try {
+			future.complete(capturedData.getCapturedData());
+		} catch (ReplayedThrowableException e) {
+			Throwable replayedThrowable = e.getReplayedThrowable();
+			future.completeExceptionally(AsyncResults.isWrappedFailure(replayedThrowable) ? replayedThrowable.getCause() : replayedThrowable);
+		}
+	}
+
+	private synchronized ScheduledExecutorService getAsyncReplayExecutor() {
+		if (asyncReplayExecutor == null) {
+			// Threads only wait for the capture store. Waiting for the simulated latency does not take a thread.
+			asyncReplayExecutor = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "capture-replay-async-replay");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			if (destroyed) {
+				asyncReplayExecutor.shutdown();
+			}
+		}
+		return asyncReplayExecutor;
 	}
 
 	public void setMode(Mode mode) {
 		preventIllegalModeChange(mode);
-		this.mode = mode;
+		synchronized (proxies) {
+			Mode previousMode = this.mode;
+			this.mode = mode;
+			// In DISABLED mode, the advisor is removed from the proxies, so calls go straight to the target.
+			boolean enabled = Mode.DISABLED.equals(previousMode) && !Mode.DISABLED.equals(mode);
+			boolean disabled = previousMode != null && !Mode.DISABLED.equals(previousMode) && Mode.DISABLED.equals(mode);
+			if (!enabled && !disabled) {
+				return;
+			}
+			for (Iterator<AdvisedProxy> iterator = proxies.iterator(); iterator.hasNext(); ) {
+				AdvisedProxy advisedProxy = iterator.next();
+				Advised proxy = advisedProxy.proxy.get();
+				if (proxy == null) {
+					iterator.remove();
+				} else if (enabled) {
+					proxy.addAdvisor(0, advisedProxy.advisor);
+				} else {
+					proxy.removeAdvisor(advisedProxy.advisor);
+				}
+			}
+		}
+	}
+
+	// Called by the proxy creator for each proxy that it has advised with an advisor of this advice.
+	void addProxy(Advised proxy, Advisor advisor) {
+		synchronized (proxies) {
+			if (Mode.DISABLED.equals(mode)) {
+				proxy.removeAdvisor(advisor);
+			}
+			for (Iterator<AdvisedProxy> iterator = proxies.iterator(); iterator.hasNext(); ) {
+				Advised knownProxy = iterator.next().proxy.get();
+				if (knownProxy == null) {
+					iterator.remove();
+				} else if (knownProxy == proxy) {
+					return;
+				}
+			}
+			proxies.add(new AdvisedProxy(proxy, advisor));
+		}
 	}
 
 	public void setDataMapper(DataMapper dataMapper) {
 		this.dataMapper = dataMapper;
 	}
 
+	public void setMetrics(CaptureReplayMetrics metrics) {
+		Validate.notNull(metrics, "The metrics must not be null.");
+		this.metrics = metrics;
+	}
+
 	private void preventIllegalModeChange(Mode mode) throws IllegalCaptureReplayUsageException {
 		// The current mode cannot be changed if the it is set to OFF.
 		if (Mode.OFF.equals(this.mode) && !Mode.OFF.equals(mode)) {
@@ -71,9 +292,35 @@ public class CaptureReplayAdvice implements InitializingBean {
 		Validate.notNull(dataMapper, "<capture-replay /> is used but no data mapper has been set.");
 	}
 
+	@Override
+	public void destroy() throws Exception {
+		ScheduledExecutorService asyncReplayExecutor;
+		synchronized (this) {
+			destroyed = true;
+			asyncReplayExecutor = this.asyncReplayExecutor;
+		}
+		// Replayed futures whose latency has not passed yet are completed before the application context goes down.
+		if (asyncReplayExecutor != null) {
+			asyncReplayExecutor.shutdown();
+			asyncReplayExecutor.awaitTermination(ASYNC_REPLAY_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
 	public class IllegalCaptureReplayUsageException extends RuntimeException {
 		public IllegalCaptureReplayUsageException(String message) {
 			super(message);
 		}
 	}
+
+	private static class AdvisedProxy {
+
+		private final WeakReference<Advised> proxy;
+
+		private final Advisor advisor;
+
+		private AdvisedProxy(Advised proxy, Advisor advisor) {
+			this.proxy = new WeakReference<Advised>(proxy);
+			this.advisor = advisor;
+		}
+	}
 }
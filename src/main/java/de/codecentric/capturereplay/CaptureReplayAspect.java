@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.lang3.Validate;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+
+// The capture/replay advice used to be an AspectJ aspect, applied by the AspectJ auto proxy creator. Applications that
+// still configure it that way can declare this adapter with a reference to the advice instead, which needs AspectJ on
+// the class path. @EnableCaptureReplay and the namespace proxy only the beans with @Capturable methods and do not
+// need it. The adapter will be removed in the next release.
+@Deprecated
+@Aspect
+public class CaptureReplayAspect {
+
+	private CaptureReplayAdvice captureReplayAdvice;
+
+	@Around("execution(@de.codecentric.capturereplay.Capturable * *(..))")
+	public Object aroundCapturableMethod(ProceedingJoinPoint pjp) throws Throwable {
+		return captureReplayAdvice.invoke(new JoinPointInvocation(pjp));
+	}
+
+	public void setCaptureReplayAdvice(CaptureReplayAdvice captureReplayAdvice) {
+		Validate.notNull(captureReplayAdvice, "The capture/replay advice must not be null.");
+		this.captureReplayAdvice = captureReplayAdvice;
+	}
+
+	private static class JoinPointInvocation implements MethodInvocation {
+
+		private final ProceedingJoinPoint pjp;
+
+		private JoinPointInvocation(ProceedingJoinPoint pjp) {
+			this.pjp = pjp;
+		}
+
+		@Override
+		public Method getMethod() {
+			return ((MethodSignature) pjp.getSignature()).getMethod();
+		}
+
+		@Override
+		public Object[] getArguments() {
+			return pjp.getArgs();
+		}
+
+		@Override
+		public Object proceed() throws Throwable {
+			return pjp.proceed();
+		}
+
+		@Override
+		public Object getThis() {
+			return pjp.getThis();
+		}
+
+		@Override
+		public AccessibleObject getStaticPart() {
+			return getMethod();
+		}
+	}
+}
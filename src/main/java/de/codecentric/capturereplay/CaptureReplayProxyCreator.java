@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.framework.AbstractAdvisingBeanPostProcessor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AbstractBeanFactoryPointcutAdvisor;
+import org.springframework.aop.support.DefaultBeanFactoryPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+
+// Proxies the beans with @Capturable methods, and only those, with an advisor for the capture/replay advice. Unlike
+// the AspectJ auto proxy creator, no pointcut expression has to be matched against every bean of the context.
+public class CaptureReplayProxyCreator extends AbstractAdvisingBeanPostProcessor implements BeanFactoryAware {
+
+	// The advice is looked up by its bean name once a call is intercepted. Referring to the advice itself would create it
+	// together with this post processor, before other post processors could process it and its dependencies.
+	private final DefaultBeanFactoryPointcutAdvisor captureReplayAdvisor = new DefaultBeanFactoryPointcutAdvisor();
+
+	private BeanFactory beanFactory;
+
+	private String captureReplayAdviceBeanName;
+
+	public CaptureReplayProxyCreator() {
+		// Replayed calls must not reach the advice of other proxies, e.g. transactions.
+		setBeforeExistingAdvisors(true);
+		captureReplayAdvisor.setPointcut(AnnotationMatchingPointcut.forMethodAnnotation(Capturable.class));
+		this.advisor = captureReplayAdvisor;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (bean instanceof Advised && isAdvisedWithCaptureReplayAdvice((Advised) bean)) {
+			// Another proxy creator for the same advice has been here first.
+			return bean;
+		}
+		Object proxy = super.postProcessAfterInitialization(bean, beanName);
+		if (proxy instanceof Advised && ((Advised) proxy).indexOf(advisor) >= 0) {
+			// Capturable beans are created after all post processors, so the advice is processed like any other bean.
+			beanFactory.getBean(captureReplayAdviceBeanName, CaptureReplayAdvice.class).addProxy((Advised) proxy, advisor);
+		}
+		return proxy;
+	}
+
+	private boolean isAdvisedWithCaptureReplayAdvice(Advised advised) {
+		for (Advisor existingAdvisor : advised.getAdvisors()) {
+			if (existingAdvisor instanceof AbstractBeanFactoryPointcutAdvisor
+					&& captureReplayAdviceBeanName.equals(((AbstractBeanFactoryPointcutAdvisor) existingAdvisor).getAdviceBeanName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+		captureReplayAdvisor.setBeanFactory(beanFactory);
+	}
+
+	public void setCaptureReplayAdviceBeanName(String captureReplayAdviceBeanName) {
+		Validate.notBlank(captureReplayAdviceBeanName, "The bean name of the capture/replay advice must not be blank.");
+		this.captureReplayAdviceBeanName = captureReplayAdviceBeanName;
+		captureReplayAdvisor.setAdviceBeanName(captureReplayAdviceBeanName);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.DataMappingException;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Warms up the data mapper for all capturable methods of the application context when it has been refreshed, and
+// optionally preloads all captures, so the first calls are not slowed down by class loading, reflection and I/O. Only
+// replayed calls benefit from it, so in other modes nothing is done.
+public class CaptureReplayWarmUp implements SmartLifecycle, ApplicationContextAware {
+
+	private static final Log LOG = LogFactory.getLog(CaptureReplayWarmUp.class);
+
+	private ApplicationContext applicationContext;
+
+	private DataMapper dataMapper;
+
+	private Mode mode = Mode.REPLAY;
+
+	private boolean preloadCaptures;
+
+	private int preloadThreads = Runtime.getRuntime().availableProcessors();
+
+	private volatile boolean running;
+
+	private int warmedUpMethods;
+
+	private int preloadedCaptures;
+
+	private long warmUpTime;
+
+	@Override
+	public void start() {
+		Validate.notNull(dataMapper, "The data mapper must be set.");
+		if (!Mode.REPLAY.equals(mode)) {
+			running = true;
+			LOG.info(String.format("Skipped the warm-up of the capturable methods in mode %s.", mode));
+			return;
+		}
+		long start = System.nanoTime();
+		Set<Method> capturableMethods = findCapturableMethods();
+		for (Method method : capturableMethods) {
+			dataMapper.warmUp(method);
+		}
+		warmedUpMethods = capturableMethods.size();
+		if (preloadCaptures) {
+			preloadedCaptures = preloadCaptures();
+		}
+		warmUpTime = (System.nanoTime() - start) / 1000000;
+		running = true;
+		LOG.info(String.format("Warmed up %d capturable methods and preloaded %d captures in %d ms.", warmedUpMethods, preloadedCaptures, warmUpTime));
+	}
+
+	private Set<Method> findCapturableMethods() {
+		final Set<Method> capturableMethods = new LinkedHashSet<Method>();
+		for (String beanName : applicationContext.getBeanDefinitionNames()) {
+			Class<?> beanType = applicationContext.getType(beanName);
+			if (beanType == null) {
+				continue;
+			}
+			if (Proxy.isProxyClass(beanType)) {
+				// The proxy exists already, so the bean does as well.
+				beanType = AopUtils.getTargetClass(applicationContext.getBean(beanName));
+			}
+			ReflectionUtils.doWithMethods(ClassUtils.getUserClass(beanType), new ReflectionUtils.MethodCallback() {
+				@Override
+				public void doWith(Method method) {
+					if (AnnotationUtils.findAnnotation(method, Capturable.class) != null) {
+						capturableMethods.add(method);
+					}
+				}
+			});
+		}
+		return capturableMethods;
+	}
+
+	private int preloadCaptures() {
+		ExecutorService executorService = Executors.newFixedThreadPool(preloadThreads, new PreloadThreadFactory());
+		try {
+			return dataMapper.preloadCaptures(executorService);
+		} catch (DataMappingException e) {
+			// Captures that cannot be preloaded fail when they are replayed. The application is started anyway.
+			LOG.warn("Could not preload the captures.", e);
+			return 0;
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public int getPhase() {
+		// Warm up before any other lifecycle bean, e.g. a web server, starts to accept calls.
+		return Integer.MIN_VALUE;
+	}
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		this.applicationContext = applicationContext;
+	}
+
+	public void setDataMapper(DataMapper dataMapper) {
+		Validate.notNull(dataMapper, "The data mapper must not be null.");
+		this.dataMapper = dataMapper;
+	}
+
+	public void setMode(Mode mode) {
+		Validate.notNull(mode, "The mode must not be null.");
+		this.mode = mode;
+	}
+
+	public void setPreloadCaptures(boolean preloadCaptures) {
+		this.preloadCaptures = preloadCaptures;
+	}
+
+	public void setPreloadThreads(int preloadThreads) {
+		Validate.isTrue(preloadThreads > 0, "The number of preload threads must be positive.");
+		this.preloadThreads = preloadThreads;
+	}
+
+	public int getPreloadThreads() {
+		return preloadThreads;
+	}
+
+	public int getWarmedUpMethods() {
+		return warmedUpMethods;
+	}
+
+	public int getPreloadedCaptures() {
+		return preloadedCaptures;
+	}
+
+	// The time in milliseconds the last warm-up took.
+	public long getWarmUpTime() {
+		return warmUpTime;
+	}
+
+	private static class PreloadThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "capture-replay-preload-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
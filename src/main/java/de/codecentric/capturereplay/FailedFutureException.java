@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+// Captured in place of the failure of a future, which is its cause. It tells a failed future apart from an exception
+// that the method has thrown itself and, unlike a CompletionException, can be deserialized on any Java version.
+public class FailedFutureException extends RuntimeException {
+
+	// Used when the capture is deserialized. The cause is set afterwards.
+	public FailedFutureException(String message) {
+		super(message);
+	}
+
+	FailedFutureException(Throwable failure) {
+		super(failure);
+	}
+}
@@ -17,8 +17,10 @@
 package de.codecentric.capturereplay.annotation;
 
 import de.codecentric.capturereplay.CaptureReplayAdvice;
+import de.codecentric.capturereplay.CaptureReplayProxyCreator;
+import de.codecentric.capturereplay.CaptureReplayWarmUp;
 import de.codecentric.capturereplay.Mode;
-import org.springframework.aop.config.AopConfigUtils;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
@@ -29,6 +31,10 @@ public class CaptureReplayImportBeanDefinitionRegistrar implements ImportBeanDef
 
 	private static final String DEFAULT_CAPTURE_REPLAY_ADVICE_BEAN_ID = "captureReplayAdvice";
 
+	private static final String DEFAULT_CAPTURE_REPLAY_WARM_UP_BEAN_ID = "captureReplayWarmUp";
+
+	private static final String DEFAULT_CAPTURE_REPLAY_PROXY_CREATOR_BEAN_ID = "captureReplayProxyCreator";
+
 	@Override
 	public void registerBeanDefinitions(AnnotationMetadata importingClassMetadata, BeanDefinitionRegistry registry) {
 		MultiValueMap<String, Object> attributes = importingClassMetadata.getAllAnnotationAttributes(EnableCaptureReplay.class.getName());
@@ -38,10 +44,31 @@ public class CaptureReplayImportBeanDefinitionRegistrar implements ImportBeanDef
 		if (!Mode.OFF.equals(mode)) {
 			BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayAdvice.class);
 			builder.addPropertyValue("mode", mode);
-			builder.addPropertyReference("dataMapper", attributes.getFirst("dataMapper").toString());
+			String dataMapper = attributes.getFirst("dataMapper").toString();
+			builder.addPropertyReference("dataMapper", dataMapper);
+			String metrics = attributes.getFirst("metrics").toString();
+			if (!metrics.isEmpty()) {
+				builder.addPropertyReference("metrics", metrics);
+			}
 			registry.registerBeanDefinition(DEFAULT_CAPTURE_REPLAY_ADVICE_BEAN_ID, builder.getBeanDefinition());
 
-			AopConfigUtils.registerAspectJAnnotationAutoProxyCreatorIfNecessary(registry);
+			boolean preloadCaptures = (Boolean) attributes.getFirst("preloadCaptures");
+			if ((Boolean) attributes.getFirst("warmUp") || preloadCaptures) {
+				BeanDefinitionBuilder warmUpBuilder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayWarmUp.class);
+				warmUpBuilder.addPropertyReference("dataMapper", dataMapper);
+				warmUpBuilder.addPropertyValue("mode", mode);
+				warmUpBuilder.addPropertyValue("preloadCaptures", preloadCaptures);
+				int preloadThreads = (Integer) attributes.getFirst("preloadThreads");
+				if (preloadThreads > 0) {
+					warmUpBuilder.addPropertyValue("preloadThreads", preloadThreads);
+				}
+				registry.registerBeanDefinition(DEFAULT_CAPTURE_REPLAY_WARM_UP_BEAN_ID, warmUpBuilder.getBeanDefinition());
+			}
+
+			BeanDefinitionBuilder proxyCreatorBuilder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayProxyCreator.class);
+			proxyCreatorBuilder.addPropertyValue("captureReplayAdviceBeanName", DEFAULT_CAPTURE_REPLAY_ADVICE_BEAN_ID);
+			proxyCreatorBuilder.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+			registry.registerBeanDefinition(DEFAULT_CAPTURE_REPLAY_PROXY_CREATOR_BEAN_ID, proxyCreatorBuilder.getBeanDefinition());
 		}
 	}
 }
@@ -31,4 +31,16 @@ public @interface EnableCaptureReplay {
 	Mode mode();
 
 	String dataMapper();
+
+	// Name of a CaptureReplayMetrics bean that receives the measurements of the advice. No metrics are recorded by default.
+	String metrics() default "";
+
+	// Warms up the data mapper for all capturable methods when the application context has been refreshed.
+	boolean warmUp() default false;
+
+	// Preloads all captures of the data mapper's capture store when the application context has been refreshed.
+	boolean preloadCaptures() default false;
+
+	// Number of threads that preload the captures. 0 stands for the number of available processors.
+	int preloadThreads() default 0;
 }
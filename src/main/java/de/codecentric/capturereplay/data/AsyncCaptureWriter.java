@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class AsyncCaptureWriter {
+
+	private static final Log LOG = LogFactory.getLog(AsyncCaptureWriter.class);
+
+	// Queued by shutdown() after the last capture. The writer thread stops once it has written everything before it.
+	private static final PendingCapture SHUTDOWN = new PendingCapture(null, null, 0);
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private static final int CAPTURE_KEY_LOCK_STRIPES = 64;
+
+	private final CaptureStore captureStore;
+
+	private final BlockingQueue<PendingCapture> queue;
+
+	private final int batchSize;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final Object pendingMonitor = new Object();
+
+	// Writes hold the read lock while they are enqueued, so no capture can be queued after the shutdown element.
+	private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+	private final AtomicLong droppedCaptures = new AtomicLong();
+
+	private final AtomicLong failedCaptures = new AtomicLong();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	// Captures of the same key may be written by the writer thread and by callers that overflow the queue at the
+	// same time. The sequence of the last written capture of each key keeps an older capture from overwriting a newer
+	// one. The map is cleared whenever no capture is pending anymore.
+	private final ConcurrentMap<String, Long> writtenSequences = new ConcurrentHashMap<String, Long>();
+
+	private final StripedLocks captureKeyLocks = new StripedLocks(CAPTURE_KEY_LOCK_STRIPES);
+
+	private long pendingCaptures;
+
+	private volatile boolean running;
+
+	private volatile Thread writerThread;
+
+	public AsyncCaptureWriter(CaptureStore captureStore, int queueCapacity, int batchSize, OverflowPolicy overflowPolicy) {
+		Validate.notNull(captureStore, "The capture store must not be null.");
+		Validate.isTrue(queueCapacity > 0, "The queue capacity must be positive.");
+		Validate.isTrue(batchSize > 0, "The batch size must be positive.");
+		Validate.notNull(overflowPolicy, "The overflow policy must not be null.");
+		this.captureStore = captureStore;
+		this.queue = new ArrayBlockingQueue<PendingCapture>(queueCapacity);
+		this.batchSize = batchSize;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainQueue();
+			}
+		}, "capture-replay-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		running = true;
+	}
+
+	public void write(String captureKey, byte[] capturedData) throws IOException {
+		PendingCapture pendingCapture;
+		boolean enqueued;
+		runningLock.readLock().lock();
+		try {
+			if (!running) {
+				// Calls that are still running while the application context is closed are not captured anymore.
+				droppedCaptures.incrementAndGet();
+				return;
+			}
+			// The sequence is taken after the capture is counted as pending, so the written sequences are not cleared
+			// while it is on its way to the store.
+			incrementPendingCaptures();
+			pendingCapture = new PendingCapture(captureKey, capturedData, sequence.incrementAndGet());
+			enqueued = enqueue(pendingCapture);
+		} finally {
+			runningLock.readLock().unlock();
+		}
+		if (!enqueued) {
+			try {
+				if (OverflowPolicy.SYNC.equals(overflowPolicy)) {
+					store(pendingCapture);
+				} else {
+					droppedCaptures.incrementAndGet();
+				}
+			} finally {
+				decrementPendingCaptures(1);
+			}
+		}
+	}
+
+	private boolean enqueue(PendingCapture pendingCapture) {
+		if (!OverflowPolicy.BLOCK.equals(overflowPolicy)) {
+			return queue.offer(pendingCapture);
+		}
+		try {
+			while (!queue.offer(pendingCapture, 100, TimeUnit.MILLISECONDS)) {
+				if (!writerThread.isAlive()) {
+					// Nothing takes captures from the queue anymore, so blocking would never end.
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn(String.format("Dropped the test data for capture key %s, the capturing thread has been interrupted.", pendingCapture.captureKey));
+			return false;
+		}
+	}
+
+	public void flush() throws InterruptedException {
+		synchronized (pendingMonitor) {
+			while (pendingCaptures > 0 && writerThread != null && writerThread.isAlive()) {
+				pendingMonitor.wait(100);
+			}
+		}
+	}
+
+	// Writes everything that has been queued before and stops the writer thread. Later captures are dropped.
+	public synchronized void shutdown() throws InterruptedException {
+		runningLock.writeLock().lock();
+		try {
+			if (!running) {
+				return;
+			}
+			running = false;
+		} finally {
+			runningLock.writeLock().unlock();
+		}
+		// The writer thread is not interrupted, as an interrupt would close capture stores that write to channels.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+		while (!queue.offer(SHUTDOWN, 100, TimeUnit.MILLISECONDS)) {
+			if (!writerThread.isAlive() || System.nanoTime() - deadline > 0) {
+				LOG.warn(String.format("The capture writer did not take the remaining %d captures within %d seconds, they are not written.",
+						getPendingCaptures(), SHUTDOWN_TIMEOUT_SECONDS));
+				return;
+			}
+		}
+		writerThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		if (writerThread.isAlive()) {
+			LOG.warn(String.format("The capture writer did not write the remaining %d captures within %d seconds.",
+					getPendingCaptures(), SHUTDOWN_TIMEOUT_SECONDS));
+		}
+	}
+
+	public long getDroppedCaptures() {
+		return droppedCaptures.get();
+	}
+
+	public long getFailedCaptures() {
+		return failedCaptures.get();
+	}
+
+	private void drainQueue() {
+		List<PendingCapture> batch = new ArrayList<PendingCapture>(batchSize);
+		boolean shutdown = false;
+		while (!shutdown) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				// Only shutdown() stops the writer thread, so no queued capture is lost.
+				continue;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			// The shutdown element is the last one that is ever queued.
+			shutdown = batch.get(batch.size() - 1) == SHUTDOWN;
+			if (shutdown) {
+				batch.remove(batch.size() - 1);
+			}
+			writeBatch(batch);
+			decrementPendingCaptures(batch.size());
+			batch.clear();
+		}
+	}
+
+	private void writeBatch(List<PendingCapture> batch) {
+		// Only the most recent capture of a key survives, so older captures of the same key are not written at all.
+		Map<String, PendingCapture> coalescedCaptures = new LinkedHashMap<String, PendingCapture>();
+		for (PendingCapture pendingCapture : batch) {
+			PendingCapture coalescedCapture = coalescedCaptures.remove(pendingCapture.captureKey);
+			if (coalescedCapture != null && coalescedCapture.sequence > pendingCapture.sequence) {
+				// Concurrent callers may queue their captures in a different order than they have been taken.
+				pendingCapture = coalescedCapture;
+			}
+			coalescedCaptures.put(pendingCapture.captureKey, pendingCapture);
+		}
+		for (PendingCapture pendingCapture : coalescedCaptures.values()) {
+			try {
+				store(pendingCapture);
+			} catch (IOException e) {
+				failedCaptures.incrementAndGet();
+				LOG.warn(String.format("Could not write test data for capture key %s.", pendingCapture.captureKey), e);
+			} catch (RuntimeException e) {
+				// A failing store must not stop the only thread that takes captures from the queue.
+				failedCaptures.incrementAndGet();
+				LOG.warn(String.format("Could not write test data for capture key %s.", pendingCapture.captureKey), e);
+			}
+		}
+	}
+
+	private void store(PendingCapture pendingCapture) throws IOException {
+		synchronized (captureKeyLocks.get(pendingCapture.captureKey)) {
+			Long writtenSequence = writtenSequences.get(pendingCapture.captureKey);
+			if (writtenSequence != null && writtenSequence > pendingCapture.sequence) {
+				// A newer capture of the key has been written on a calling thread while this one was queued.
+				return;
+			}
+			OutputStream outputStream = captureStore.openCaptureOutput(pendingCapture.captureKey);
+			try {
+				outputStream.write(pendingCapture.capturedData);
+			} finally {
+				outputStream.close();
+			}
+			writtenSequences.put(pendingCapture.captureKey, pendingCapture.sequence);
+		}
+	}
+
+	private long getPendingCaptures() {
+		synchronized (pendingMonitor) {
+			return pendingCaptures;
+		}
+	}
+
+	private void incrementPendingCaptures() {
+		synchronized (pendingMonitor) {
+			pendingCaptures++;
+		}
+	}
+
+	private void decrementPendingCaptures(int count) {
+		synchronized (pendingMonitor) {
+			pendingCaptures -= count;
+			if (pendingCaptures == 0) {
+				// No capture that could be older than a written one is left.
+				writtenSequences.clear();
+				pendingMonitor.notifyAll();
+			}
+		}
+	}
+
+	private static class PendingCapture {
+
+		private final String captureKey;
+
+		private final byte[] capturedData;
+
+		private final long sequence;
+
+		private PendingCapture(String captureKey, byte[] capturedData, long sequence) {
+			this.captureKey = captureKey;
+			this.capturedData = capturedData;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A map that keeps at most a maximum number of entries and, with a weigher, at most a maximum total weight. Once it is
+// full, the least recently used entry is evicted, or the one that has been inserted first. All methods are synchronized.
+class BoundedCache<K, V> {
+
+	private final Map<K, V> entries;
+
+	private final int maximumSize;
+
+	private final long maximumWeight;
+
+	private final Weigher<? super V> weigher;
+
+	private long weight;
+
+	BoundedCache(int maximumSize, EvictionPolicy evictionPolicy) {
+		this(maximumSize, 0, evictionPolicy, null);
+	}
+
+	// A maximum weight of 0 means no bound on the weight.
+	BoundedCache(int maximumSize, long maximumWeight, EvictionPolicy evictionPolicy, Weigher<? super V> weigher) {
+		Validate.isTrue(maximumSize > 0, "The maximum size must be positive.");
+		Validate.isTrue(maximumWeight >= 0, "The maximum weight must not be negative.");
+		Validate.notNull(evictionPolicy, "The eviction policy must not be null.");
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, EvictionPolicy.LRU.equals(evictionPolicy));
+		this.maximumSize = maximumSize;
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+	}
+
+	synchronized V get(K key) {
+		return entries.get(key);
+	}
+
+	synchronized void put(K key, V value) {
+		V replacedValue = entries.put(key, value);
+		if (replacedValue != null) {
+			weight -= weigh(replacedValue);
+		}
+		weight += weigh(value);
+		evict();
+	}
+
+	// Returns the value that is already kept for the key or null, if the value has been put.
+	synchronized V putIfAbsent(K key, V value) {
+		V existingValue = entries.get(key);
+		if (existingValue == null) {
+			put(key, value);
+		}
+		return existingValue;
+	}
+
+	synchronized V remove(K key) {
+		V value = entries.remove(key);
+		if (value != null) {
+			weight -= weigh(value);
+		}
+		return value;
+	}
+
+	// Removes the entry only if the key is still mapped to the value.
+	synchronized boolean remove(K key, V value) {
+		if (entries.get(key) != value) {
+			return false;
+		}
+		remove(key);
+		return true;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized long getWeight() {
+		return weight;
+	}
+
+	private void evict() {
+		Iterator<V> eldestValues = entries.values().iterator();
+		while (eldestValues.hasNext() && (entries.size() > maximumSize || (maximumWeight > 0 && weight > maximumWeight))) {
+			weight -= weigh(eldestValues.next());
+			eldestValues.remove();
+		}
+	}
+
+	private long weigh(V value) {
+		return weigher != null ? weigher.weigh(value) : 0;
+	}
+
+	interface Weigher<V> {
+
+		long weigh(V value);
+	}
+}
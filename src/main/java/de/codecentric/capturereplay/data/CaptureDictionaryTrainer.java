@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Builds a compression dictionary from the byte sequences that many captures have in common, such as type names,
+// property names and repeated values. Small captures compress much better with such a dictionary.
+public class CaptureDictionaryTrainer {
+
+	private static final Log LOG = LogFactory.getLog(CaptureDictionaryTrainer.class);
+
+	private static final String DEFAULT_CAPTURE_FILE_EXTENSION = ".json";
+
+	private static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+	private static final int DEFAULT_MAX_SAMPLES_SIZE = 4 * 1024 * 1024;
+
+	// Sequences are compared by their 8 byte prefixes, which fit into a long.
+	private static final int GRAM_LENGTH = 8;
+
+	private static final int SEGMENT_LENGTH = 64;
+
+	private static final int SEGMENT_STEP = 16;
+
+	private int dictionarySize = DEFAULT_DICTIONARY_SIZE;
+
+	private int maxSamplesSize = DEFAULT_MAX_SAMPLES_SIZE;
+
+	public byte[] train(List<byte[]> samples) {
+		Map<Long, Integer> frequencies = countSampleFrequencies(samples);
+
+		PriorityQueue<Segment> candidates = new PriorityQueue<Segment>();
+		for (byte[] sample : samples) {
+			for (int start = 0; start + GRAM_LENGTH <= sample.length; start += SEGMENT_STEP) {
+				Segment segment = new Segment(sample, start, Math.min(start + SEGMENT_LENGTH, sample.length));
+				segment.score = score(segment, frequencies);
+				if (segment.score > 0) {
+					candidates.add(segment);
+				}
+			}
+		}
+
+		// Segments are selected greedily. Sequences of a selected segment do not count for other segments anymore,
+		// so their scores are updated lazily when they reach the head of the queue.
+		List<Segment> selected = new ArrayList<Segment>();
+		int size = 0;
+		while (size < dictionarySize && !candidates.isEmpty()) {
+			Segment segment = candidates.poll();
+			int score = score(segment, frequencies);
+			if (score <= 0) {
+				continue;
+			}
+			if (score < segment.score && !candidates.isEmpty() && score < candidates.peek().score) {
+				segment.score = score;
+				candidates.add(segment);
+				continue;
+			}
+			selected.add(segment);
+			size += segment.end - segment.start;
+			for (int i = segment.start; i + GRAM_LENGTH <= segment.end; i++) {
+				frequencies.remove(gram(segment.sample, i));
+			}
+		}
+
+		// Matches at short distances are encoded with fewer bits, so the most useful segments go to the end.
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+		for (int i = selected.size() - 1; i >= 0; i--) {
+			Segment segment = selected.get(i);
+			dictionary.write(segment.sample, segment.start, segment.end - segment.start);
+		}
+		byte[] bytes = dictionary.toByteArray();
+		return bytes.length > dictionarySize ? Arrays.copyOfRange(bytes, bytes.length - dictionarySize, bytes.length) : bytes;
+	}
+
+	public byte[] train(File captureFilesDirectory, final String captureFileExtension) throws IOException {
+		Validate.isTrue(captureFilesDirectory.isDirectory(), "%s is not a directory.", captureFilesDirectory);
+		Validate.notNull(captureFileExtension, "The capture file extension must not be null.");
+
+		File[] captureFiles = captureFilesDirectory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(captureFileExtension);
+			}
+		});
+		// Sorting makes the dictionary reproducible for the same set of capture files.
+		Arrays.sort(captureFiles);
+
+		List<byte[]> samples = new ArrayList<byte[]>();
+		long samplesSize = 0;
+		for (File captureFile : captureFiles) {
+			if (samplesSize >= maxSamplesSize) {
+				break;
+			}
+			byte[] sample = readSample(captureFile);
+			samples.add(sample);
+			samplesSize += sample.length;
+		}
+		return train(samples);
+	}
+
+	// The dictionary is applied to uncompressed captures, so captures written by a CompressingCaptureStore are
+	// decompressed. Captures compressed with a dictionary cannot be decompressed without it and are rejected.
+	private byte[] readSample(File file) throws IOException {
+		PushbackInputStream inputStream = new PushbackInputStream(new FileInputStream(file), 2);
+		try {
+			int first = inputStream.read();
+			int second = first == -1 ? -1 : inputStream.read();
+			if (second != -1) {
+				inputStream.unread(second);
+			}
+			if (first != -1) {
+				inputStream.unread(first);
+			}
+			if (!CompressingCaptureStore.isZlibHeader(first, second)) {
+				return readSample(inputStream);
+			}
+			Inflater inflater = new Inflater();
+			try {
+				byte[] sample = readSample(new InflaterInputStream(inputStream, inflater));
+				Validate.isTrue(!inflater.needsDictionary(), "%s has been compressed with a dictionary and cannot be used as a sample.", file);
+				return sample;
+			} finally {
+				inflater.end();
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	// Only the beginning of a capture can refer to the dictionary, so the rest is not needed for training.
+	private static byte[] readSample(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream sample = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while (sample.size() < CompressingCaptureStore.MAX_DICTIONARY_SIZE
+				&& (read = inputStream.read(buffer, 0, Math.min(buffer.length, CompressingCaptureStore.MAX_DICTIONARY_SIZE - sample.size()))) != -1) {
+			sample.write(buffer, 0, read);
+		}
+		return sample.toByteArray();
+	}
+
+	// Counts the number of samples containing each sequence. Repetitions within a capture are found by Deflate
+	// anyway, only sequences shared by several captures belong into the dictionary.
+	private static Map<Long, Integer> countSampleFrequencies(List<byte[]> samples) {
+		Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+		Set<Long> sampleGrams = new HashSet<Long>();
+		for (byte[] sample : samples) {
+			sampleGrams.clear();
+			for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+				sampleGrams.add(gram(sample, i));
+			}
+			for (Long gram : sampleGrams) {
+				Integer frequency = frequencies.get(gram);
+				frequencies.put(gram, frequency == null ? 1 : frequency + 1);
+			}
+		}
+		return frequencies;
+	}
+
+	private static int score(Segment segment, Map<Long, Integer> frequencies) {
+		int score = 0;
+		for (int i = segment.start; i + GRAM_LENGTH <= segment.end; i++) {
+			Integer frequency = frequencies.get(gram(segment.sample, i));
+			if (frequency != null && frequency > 1) {
+				score += frequency;
+			}
+		}
+		return score;
+	}
+
+	private static long gram(byte[] sample, int offset) {
+		long gram = 0;
+		for (int i = offset; i < offset + GRAM_LENGTH; i++) {
+			gram = (gram << 8) | (sample[i] & 0xFF);
+		}
+		return gram;
+	}
+
+	public void setDictionarySize(int dictionarySize) {
+		Validate.isTrue(dictionarySize > 0 && dictionarySize <= CompressingCaptureStore.MAX_DICTIONARY_SIZE,
+				"The dictionary size must be between 1 and %d bytes.", CompressingCaptureStore.MAX_DICTIONARY_SIZE);
+		this.dictionarySize = dictionarySize;
+	}
+
+	public void setMaxSamplesSize(int maxSamplesSize) {
+		Validate.isTrue(maxSamplesSize > 0, "The maximum size of all samples must be positive.");
+		this.maxSamplesSize = maxSamplesSize;
+	}
+
+	// Runs the trainer from the command line through CaptureTools and returns its exit code.
+	static int run(String... args) throws IOException {
+		if (args.length < 2 || args.length > 4) {
+			LOG.error("Usage: CaptureTools train <capture files directory> <dictionary file> [capture file extension] [dictionary size]");
+			return CaptureTools.EXIT_USAGE;
+		}
+		String captureFileExtension = args.length >= 3 ? args[2] : DEFAULT_CAPTURE_FILE_EXTENSION;
+		CaptureDictionaryTrainer trainer = new CaptureDictionaryTrainer();
+		if (args.length == 4) {
+			trainer.setDictionarySize(Integer.parseInt(args[3]));
+		}
+		byte[] dictionary = trainer.train(new File(args[0]), captureFileExtension);
+		FileOutputStream outputStream = new FileOutputStream(args[1]);
+		try {
+			outputStream.write(dictionary);
+		} finally {
+			outputStream.close();
+		}
+		LOG.info(String.format("Wrote a dictionary of %d bytes to %s.", dictionary.length, args[1]));
+		return CaptureTools.EXIT_SUCCESS;
+	}
+
+	private static class Segment implements Comparable<Segment> {
+
+		private final byte[] sample;
+
+		private final int start;
+
+		private final int end;
+
+		private int score;
+
+		private Segment(byte[] sample, int start, int end) {
+			this.sample = sample;
+			this.start = start;
+			this.end = end;
+		}
+
+		// Orders the segment with the highest score first.
+		@Override
+		public int compareTo(Segment other) {
+			return Integer.compare(other.score, score);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+// The fields of a capture. Captures hold their object themselves, its elements or a reference to a payload.
+final class CaptureFormat {
+
+	static final String TYPE_FIELD = "type";
+
+	static final String OBJECT_FIELD = "object";
+
+	static final String EXCEPTION_FIELD = "exception";
+
+	static final String DURATION_FIELD = "duration";
+
+	static final String ELEMENTS_FIELD = "elements";
+
+	static final String PAYLOAD_FIELD = "payload";
+
+	private CaptureFormat() {
+	}
+}
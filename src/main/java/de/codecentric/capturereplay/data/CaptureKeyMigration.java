@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps capture keys of one capture key strategy to those of another. Capture keys are hashes that cannot be reversed,
+// so the mapping is built from the calls that have been captured, or loaded from a properties file of old and new keys.
+// Keys that are not mapped are kept as they are. The elements of a sequence follow the key of their sequence.
+public class CaptureKeyMigration implements CaptureKeyMapping {
+
+	private final Map<String, String> captureKeys = new ConcurrentHashMap<String, String>();
+
+	@Override
+	public String getCaptureKey(String captureKey) {
+		String newCaptureKey = captureKeys.get(captureKey);
+		if (newCaptureKey != null) {
+			return newCaptureKey;
+		}
+		int separatorIndex = captureKey.lastIndexOf(CaptureSequences.INDEX_SEPARATOR);
+		if (separatorIndex > 0) {
+			String newSequenceKey = captureKeys.get(captureKey.substring(0, separatorIndex));
+			if (newSequenceKey != null) {
+				return newSequenceKey + captureKey.substring(separatorIndex);
+			}
+		}
+		return captureKey;
+	}
+
+	public void addCaptureKey(String oldCaptureKey, String newCaptureKey) {
+		Validate.notNull(oldCaptureKey, "The old capture key must not be null.");
+		Validate.notNull(newCaptureKey, "The new capture key must not be null.");
+		captureKeys.put(oldCaptureKey, newCaptureKey);
+	}
+
+	public void addCall(Method method, Object[] arguments, CaptureKeyStrategy oldStrategy, CaptureKeyStrategy newStrategy) {
+		addCaptureKey(oldStrategy.getCaptureKey(method, arguments), newStrategy.getCaptureKey(method, arguments));
+	}
+
+	public int size() {
+		return captureKeys.size();
+	}
+
+	public void load(InputStream inputStream) throws IOException {
+		Properties properties = new Properties();
+		properties.load(inputStream);
+		for (String oldCaptureKey : properties.stringPropertyNames()) {
+			addCaptureKey(oldCaptureKey, properties.getProperty(oldCaptureKey));
+		}
+	}
+
+	public void store(OutputStream outputStream) throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(captureKeys);
+		properties.store(outputStream, null);
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class CaptureLogStore implements ListableCaptureStore, InitializingBean, DisposableBean {
+
+	private static final Log LOG = LogFactory.getLog(CaptureLogStore.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String SEGMENT_FILE_NAME_FORMAT = "captures-%05d.log";
+
+	private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	// A record consists of the length of the key, the key, the length of the data and the data.
+	private static final int RECORD_HEADER_SIZE = 4;
+
+	private String captureLogPath;
+
+	private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	private final ConcurrentMap<String, RecordLocation> index = new ConcurrentHashMap<String, RecordLocation>();
+
+	private long appendPosition;
+
+	@Override
+	public OutputStream openCaptureOutput(final String captureKey) throws IOException {
+		return new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				append(captureKey, toByteArray());
+			}
+		};
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		RecordLocation location = index.get(captureKey);
+		if (location == null) {
+			throw new FileNotFoundException(String.format("The capture log does not contain capture key %s.", captureKey));
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(location.length);
+		// Reads do not wait for appends. Positional reads of a channel do not interfere with writes to it.
+		readFully(location.segment, buffer, location.offset);
+		return new ByteArrayInputStream(buffer.array());
+	}
+
+	public boolean containsCapture(String captureKey) {
+		return index.containsKey(captureKey);
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public List<String> getCaptureKeys() {
+		return new ArrayList<String>(index.keySet());
+	}
+
+	private synchronized void append(String captureKey, byte[] capturedData) throws IOException {
+		Validate.validState(!segments.isEmpty(), "The capture log is not open.");
+		byte[] key = captureKey.getBytes(UTF_8);
+		int recordLength = 2 * RECORD_HEADER_SIZE + key.length + capturedData.length;
+		if (appendPosition > 0 && appendPosition + recordLength > segmentSize) {
+			segments.get(segments.size() - 1).force();
+			segments.add(new Segment(getSegmentFile(segments.size())));
+			appendPosition = 0;
+		}
+		ByteBuffer record = ByteBuffer.allocate(recordLength);
+		record.putInt(key.length).put(key).putInt(capturedData.length).put(capturedData);
+		record.flip();
+
+		Segment segment = segments.get(segments.size() - 1);
+		while (record.hasRemaining()) {
+			// The position is derived from the buffer, so a write that is repeated after an interrupt overwrites the
+			// same bytes.
+			segment.write(record, appendPosition + record.position());
+		}
+		long position = appendPosition + recordLength;
+		index.put(captureKey, new RecordLocation(segment, position - capturedData.length, capturedData.length));
+		appendPosition = position;
+	}
+
+	private File getSegmentFile(int segment) {
+		return new File(captureLogPath, String.format(SEGMENT_FILE_NAME_FORMAT, segment));
+	}
+
+	private long loadSegment(Segment segment, boolean lastSegment) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		long position = 0;
+		long size = segment.size();
+		try {
+			while (position < size) {
+				int keyLength = readInt(segment, header, position);
+				if (keyLength < 0 || position + 2 * RECORD_HEADER_SIZE + keyLength > size) {
+					break;
+				}
+				ByteBuffer key = ByteBuffer.allocate(keyLength);
+				readFully(segment, key, position + RECORD_HEADER_SIZE);
+				long dataPosition = position + 2 * RECORD_HEADER_SIZE + keyLength;
+				int dataLength = readInt(segment, header, dataPosition - RECORD_HEADER_SIZE);
+				if (dataLength < 0 || dataPosition + dataLength > size) {
+					break;
+				}
+				index.put(new String(key.array(), UTF_8), new RecordLocation(segment, dataPosition, dataLength));
+				position = dataPosition + dataLength;
+			}
+		} catch (EOFException e) {
+			// The last record has not been written completely. It is discarded below.
+		}
+		if (position < size) {
+			if (lastSegment) {
+				// Only the last segment is appended to, so only its last record can be incomplete after a crash.
+				segment.truncate(position);
+			} else {
+				// A sealed segment is never truncated. Its remaining records cannot be read, but are kept for inspection.
+				LOG.warn(String.format("The capture log segment %s is corrupt after byte %d, the %d bytes after it are ignored.",
+						segment.file, position, size - position));
+			}
+		}
+		return position;
+	}
+
+	private int readInt(Segment segment, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		readFully(segment, buffer, position);
+		return buffer.getInt(0);
+	}
+
+	private void readFully(Segment segment, ByteBuffer buffer, long position) throws IOException {
+		// The position is derived from the buffer, so a read that is repeated after an interrupt continues where the
+		// interrupted one stopped.
+		long startPosition = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			int read = segment.read(buffer, startPosition + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Unexpected end of capture log segment.");
+			}
+		}
+	}
+
+	public void setCaptureLogPath(String captureLogPath) {
+		Validate.notNull(captureLogPath, "The capture log path must not be null.");
+		this.captureLogPath = captureLogPath;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		Validate.isTrue(segmentSize > 0, "The segment size must be positive.");
+		this.segmentSize = segmentSize;
+	}
+
+	@Override
+	public synchronized void afterPropertiesSet() throws Exception {
+		Validate.notNull(captureLogPath, "You must specify a path for the capture log.");
+		File directory = new File(captureLogPath);
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		// Rebuild the index from existing segments. Later records of a capture key replace earlier ones.
+		int segmentCount = 0;
+		while (getSegmentFile(segmentCount).exists()) {
+			segmentCount++;
+		}
+		for (int i = 0; i < segmentCount; i++) {
+			Segment segment = new Segment(getSegmentFile(i));
+			segments.add(segment);
+			appendPosition = loadSegment(segment, i == segmentCount - 1);
+		}
+		if (segments.isEmpty()) {
+			segments.add(new Segment(getSegmentFile(0)));
+			appendPosition = 0;
+		}
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+		index.clear();
+	}
+
+	// Reads and appends share one channel per segment. A thread that is interrupted while it uses a channel closes it
+	// for all threads, which happens when warm-up threads are stopped or replayed futures are cancelled. Interrupts are
+	// deferred until the operation has completed, and a channel closed by an interrupt is reopened.
+	private static class Segment {
+
+		private final File file;
+
+		private volatile FileChannel channel;
+
+		private boolean closed;
+
+		private Segment(File file) throws IOException {
+			this.file = file;
+			this.channel = open(file);
+		}
+
+		private int read(ByteBuffer buffer, long position) throws IOException {
+			boolean interrupted = Thread.interrupted();
+			try {
+				while (true) {
+					FileChannel channel = this.channel;
+					try {
+						return channel.read(buffer, position);
+					} catch (ClosedChannelException e) {
+						interrupted |= Thread.interrupted();
+						reopen(channel, e);
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private int write(ByteBuffer buffer, long position) throws IOException {
+			boolean interrupted = Thread.interrupted();
+			try {
+				while (true) {
+					FileChannel channel = this.channel;
+					try {
+						return channel.write(buffer, position);
+					} catch (ClosedChannelException e) {
+						interrupted |= Thread.interrupted();
+						reopen(channel, e);
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private long size() throws IOException {
+			return channel.size();
+		}
+
+		private void truncate(long size) throws IOException {
+			channel.truncate(size);
+		}
+
+		private synchronized void force() throws IOException {
+			if (!closed) {
+				channel.force(false);
+			}
+		}
+
+		private synchronized void reopen(FileChannel closedChannel, ClosedChannelException e) throws IOException {
+			if (closed) {
+				throw e;
+			}
+			if (channel == closedChannel) {
+				channel = open(file);
+			}
+		}
+
+		private synchronized void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				try {
+					channel.force(false);
+				} finally {
+					channel.close();
+				}
+			}
+		}
+
+		private static FileChannel open(File file) throws IOException {
+			return new RandomAccessFile(file, "rw").getChannel();
+		}
+	}
+
+	private static class RecordLocation {
+
+		private final Segment segment;
+
+		private final long offset;
+
+		private final int length;
+
+		private RecordLocation(Segment segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
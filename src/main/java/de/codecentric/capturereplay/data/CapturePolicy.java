@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.reflect.Method;
+
+// Decides whether a call of a @Capturable method is captured. Both methods must return true for a call to be captured.
+public interface CapturePolicy {
+
+	// Called before the capture key is derived, so calls can be skipped without paying for the key.
+	boolean shouldCaptureCall(Method method);
+
+	// Called with the capture key once shouldCaptureCall(Method) has accepted the call.
+	boolean shouldCaptureKey(Method method, String captureKey);
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Reads all captures of a capture store into the replay cache of a data mapper, in parallel.
+class CapturePreloader {
+
+	private static final Log LOG = LogFactory.getLog(CapturePreloader.class);
+
+	private final JsonDataMapper dataMapper;
+
+	CapturePreloader(JsonDataMapper dataMapper) {
+		this.dataMapper = dataMapper;
+	}
+
+	// Returns the number of captures that have been preloaded.
+	int preload(ListableCaptureStore captureStore, ExecutorService executorService) throws DataMappingException {
+		List<String> captureKeys;
+		try {
+			captureKeys = captureStore.getCaptureKeys();
+		} catch (IOException e) {
+			throw new DataMappingException("Could not list the captured test data.", e);
+		}
+		List<Future<Boolean>> preloadedCaptures = new ArrayList<Future<Boolean>>();
+		for (final String captureKey : captureKeys) {
+			preloadedCaptures.add(executorService.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					return dataMapper.preloadCapture(captureKey);
+				}
+			}));
+		}
+		int preloadedCaptureCount = 0;
+		for (int i = 0; i < preloadedCaptures.size(); i++) {
+			try {
+				if (preloadedCaptures.get(i).get()) {
+					preloadedCaptureCount++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DataMappingException("Preloading the captured test data has been interrupted.", e);
+			} catch (ExecutionException e) {
+				// A capture that cannot be preloaded fails when it is replayed. The other captures are preloaded anyway.
+				LOG.warn(String.format("Could not preload the test data for capture key %s.", captureKeys.get(i)), e.getCause());
+			}
+		}
+		return preloadedCaptureCount;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import de.codecentric.capturereplay.Capturable;
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Selects the properties of a return value that are captured. Properties that are left out are neither read nor
+// written, so lazily loaded associations are not loaded, and they keep their default values when they are replayed.
+public class CaptureProjection {
+
+	private List<String> includeProperties = Collections.emptyList();
+
+	private List<String> excludeProperties = Collections.emptyList();
+
+	private int maxDepth;
+
+	public CaptureProjection() {
+	}
+
+	public CaptureProjection(Capturable capturable) {
+		setIncludeProperties(Arrays.asList(capturable.includeProperties()));
+		setExcludeProperties(Arrays.asList(capturable.excludeProperties()));
+		setMaxDepth(capturable.maxDepth());
+	}
+
+	// Projections are configured on the data mapper by the fully qualified name of the class, the method name and the
+	// parameter types, e.g. "com.example.CustomerRepository.findCustomer(long)", so overloaded methods and classes with
+	// the same simple name are told apart.
+	public static String getProjectionKey(Method method) {
+		StringBuilder projectionKey = new StringBuilder(method.getDeclaringClass().getTypeName()).append('.').append(method.getName()).append('(');
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				projectionKey.append(',');
+			}
+			projectionKey.append(parameterTypes[i].getTypeName());
+		}
+		return projectionKey.append(')').toString();
+	}
+
+	// Returns false if all properties are captured.
+	public boolean isProjecting() {
+		return !includeProperties.isEmpty() || !excludeProperties.isEmpty() || maxDepth > 0;
+	}
+
+	// The path consists of the names of the properties leading to the property, separated by dots.
+	boolean includes(String propertyPath, int depth) {
+		if (maxDepth > 0 && depth > maxDepth) {
+			return false;
+		}
+		for (String excludedPath : excludeProperties) {
+			if (isSameOrBelow(propertyPath, excludedPath)) {
+				return false;
+			}
+		}
+		if (includeProperties.isEmpty()) {
+			return true;
+		}
+		for (String includedPath : includeProperties) {
+			// The properties leading to an included property are needed to reach it.
+			if (isSameOrBelow(propertyPath, includedPath) || isSameOrBelow(includedPath, propertyPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean needsPropertyPaths() {
+		return !includeProperties.isEmpty() || !excludeProperties.isEmpty();
+	}
+
+	private static boolean isSameOrBelow(String propertyPath, String parentPath) {
+		return propertyPath.startsWith(parentPath)
+				&& (propertyPath.length() == parentPath.length() || propertyPath.charAt(parentPath.length()) == '.');
+	}
+
+	public List<String> getIncludeProperties() {
+		return includeProperties;
+	}
+
+	public void setIncludeProperties(List<String> includeProperties) {
+		Validate.noNullElements(includeProperties, "The included property paths must not be null.");
+		this.includeProperties = includeProperties;
+	}
+
+	public List<String> getExcludeProperties() {
+		return excludeProperties;
+	}
+
+	public void setExcludeProperties(List<String> excludeProperties) {
+		Validate.noNullElements(excludeProperties, "The excluded property paths must not be null.");
+		this.excludeProperties = excludeProperties;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		Validate.isTrue(maxDepth >= 0, "The maximum depth must not be negative.");
+		this.maxDepth = maxDepth;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.jsonFormatVisitors.JsonObjectFormatVisitor;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyFilter;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+// Leaves out the properties a capture projection does not include while a capture is serialized. The path of a
+// property is taken from the output context of the generator, so a single filter serves all classes. Classes that
+// have a filter of their own, e.g. declared with @JsonFilter, are filtered by the projection first and by their
+// filter then.
+class CaptureProjectionFilter implements PropertyFilter {
+
+	private static final String FILTER_ID = CaptureProjectionFilter.class.getName();
+
+	private final CaptureProjection captureProjection;
+
+	// The filter of the class itself or null.
+	private final PropertyFilter nextFilter;
+
+	private CaptureProjectionFilter(CaptureProjection captureProjection, PropertyFilter nextFilter) {
+		this.captureProjection = captureProjection;
+		this.nextFilter = nextFilter;
+	}
+
+	// Returns a copy of the object mapper that serializes captures with the projection.
+	static ObjectMapper createProjectingObjectMapper(ObjectMapper objectMapper, CaptureProjection captureProjection) {
+		ObjectMapper projectingObjectMapper = objectMapper.copy();
+		SerializationConfig serializationConfig = projectingObjectMapper.getSerializationConfig();
+		AnnotationIntrospector annotationIntrospector = serializationConfig.getAnnotationIntrospector();
+		projectingObjectMapper.setAnnotationIntrospector(AnnotationIntrospector.pair(new FilterIntrospector(annotationIntrospector), annotationIntrospector));
+		projectingObjectMapper.setFilters(new ProjectingFilterProvider(captureProjection, serializationConfig.getFilterProvider()));
+		return projectingObjectMapper;
+	}
+
+	@Override
+	public void serializeAsField(Object pojo, JsonGenerator generator, SerializerProvider provider, PropertyWriter writer) throws Exception {
+		if (isIncluded(generator.getOutputContext(), writer.getName())) {
+			if (nextFilter != null) {
+				nextFilter.serializeAsField(pojo, generator, provider, writer);
+			} else {
+				writer.serializeAsField(pojo, generator, provider);
+			}
+		} else {
+			writer.serializeAsOmittedField(pojo, generator, provider);
+		}
+	}
+
+	// Walks up from the object the property belongs to. The outermost object is the capture itself, whose field holding
+	// the return value or its elements is not part of the path.
+	private boolean isIncluded(JsonStreamContext context, String propertyName) {
+		boolean needsPropertyPath = captureProjection.needsPropertyPaths();
+		StringBuilder propertyPath = needsPropertyPath ? new StringBuilder(propertyName) : null;
+		int depth = 0;
+		for (JsonStreamContext parent = context.getParent(); parent != null; parent = parent.getParent()) {
+			if (!parent.inObject()) {
+				continue;
+			}
+			depth++;
+			if (needsPropertyPath && parent.getParent() != null && !parent.getParent().inRoot()) {
+				propertyPath.insert(0, '.').insert(0, parent.getCurrentName());
+			}
+		}
+		if (depth == 0) {
+			return true;
+		}
+		return captureProjection.includes(needsPropertyPath ? propertyPath.toString() : propertyName, depth);
+	}
+
+	@Override
+	public void serializeAsElement(Object element, JsonGenerator generator, SerializerProvider provider, PropertyWriter writer) throws Exception {
+		if (nextFilter != null) {
+			nextFilter.serializeAsElement(element, generator, provider, writer);
+		} else {
+			writer.serializeAsElement(element, generator, provider);
+		}
+	}
+
+	@Override
+	@Deprecated
+	public void depositSchemaProperty(PropertyWriter writer, ObjectNode propertiesNode, SerializerProvider provider) throws JsonMappingException {
+		if (nextFilter != null) {
+			nextFilter.depositSchemaProperty(writer, propertiesNode, provider);
+		} else {
+			writer.depositSchemaProperty(propertiesNode, provider);
+		}
+	}
+
+	@Override
+	public void depositSchemaProperty(PropertyWriter writer, JsonObjectFormatVisitor objectVisitor, SerializerProvider provider) throws JsonMappingException {
+		if (nextFilter != null) {
+			nextFilter.depositSchemaProperty(writer, objectVisitor, provider);
+		} else {
+			writer.depositSchemaProperty(objectVisitor);
+		}
+	}
+
+	// Applies the filter to every class. Classes with a filter of their own get an id that refers to both filters.
+	private static class FilterIntrospector extends NopAnnotationIntrospector {
+
+		private final AnnotationIntrospector annotationIntrospector;
+
+		private FilterIntrospector(AnnotationIntrospector annotationIntrospector) {
+			this.annotationIntrospector = annotationIntrospector;
+		}
+
+		@Override
+		public Object findFilterId(Annotated annotated) {
+			if (!(annotated instanceof AnnotatedClass)) {
+				return null;
+			}
+			Object filterId = annotationIntrospector != null ? annotationIntrospector.findFilterId(annotated) : null;
+			return filterId != null ? new ChainedFilterId(filterId) : FILTER_ID;
+		}
+
+		@Override
+		@Deprecated
+		public Object findFilterId(AnnotatedClass annotatedClass) {
+			return findFilterId((Annotated) annotatedClass);
+		}
+	}
+
+	private static class ChainedFilterId {
+
+		private final Object filterId;
+
+		private ChainedFilterId(Object filterId) {
+			this.filterId = filterId;
+		}
+	}
+
+	// Hands out the projection filter and the filters of the original object mapper. Jackson looks up filters with
+	// findPropertyFilter only. The deprecated lookup of bean property filters is left to SimpleFilterProvider, which
+	// does not support it.
+	private static class ProjectingFilterProvider extends SimpleFilterProvider {
+
+		private final CaptureProjection captureProjection;
+
+		private final CaptureProjectionFilter captureProjectionFilter;
+
+		// The filters of the original object mapper or null.
+		private final FilterProvider filterProvider;
+
+		private ProjectingFilterProvider(CaptureProjection captureProjection, FilterProvider filterProvider) {
+			this.captureProjection = captureProjection;
+			this.captureProjectionFilter = new CaptureProjectionFilter(captureProjection, null);
+			this.filterProvider = filterProvider;
+		}
+
+		@Override
+		public PropertyFilter findPropertyFilter(Object filterId, Object valueToFilter) {
+			if (FILTER_ID.equals(filterId)) {
+				return captureProjectionFilter;
+			}
+			if (filterId instanceof ChainedFilterId) {
+				return new CaptureProjectionFilter(captureProjection, findOwnFilter(((ChainedFilterId) filterId).filterId, valueToFilter));
+			}
+			return findOwnFilter(filterId, valueToFilter);
+		}
+
+		private PropertyFilter findOwnFilter(Object filterId, Object valueToFilter) {
+			if (filterProvider == null) {
+				throw new IllegalArgumentException(String.format("Cannot resolve the property filter %s, no filter provider has been configured.", filterId));
+			}
+			return filterProvider.findPropertyFilter(filterId, valueToFilter);
+		}
+	}
+}
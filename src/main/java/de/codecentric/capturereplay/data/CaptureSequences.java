@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps every capture of a key instead of replacing it. The captures of a key are stored under the key followed by
+// their index, so any capture store can hold sequences. Captures that failed or were dropped leave gaps in the
+// indices, which are skipped. Gaps of earlier runs are found when a sequence is loaded, gaps of this run when a replay
+// misses them.
+class CaptureSequences {
+
+	static final String INDEX_SEPARATOR = "~";
+
+	// Stores that cannot be listed are probed index by index. A sequence ends after this many missing captures in a row.
+	private static final int MAX_PROBED_GAP = 16;
+
+	private final CaptureStore captureStore;
+
+	private final SequencePlayback sequencePlayback;
+
+	private final ConcurrentMap<String, Sequence> sequences = new ConcurrentHashMap<String, Sequence>();
+
+	// The indices of all sequences in a listable store, taken from a single listing. Entries are removed once their
+	// sequence has been loaded.
+	private Map<String, List<Integer>> listedIndices;
+
+	CaptureSequences(CaptureStore captureStore, SequencePlayback sequencePlayback) {
+		this.captureStore = captureStore;
+		this.sequencePlayback = sequencePlayback;
+	}
+
+	String getAppendCaptureKey(String captureKey) throws IOException {
+		return getElementKey(captureKey, getSequence(captureKey).nextAppendIndex.getAndIncrement());
+	}
+
+	// Reads the next capture of the sequence. Captures of this run that have been dropped or could not be written leave
+	// gaps in the sequence. They are skipped from now on, and the capture after them is read instead.
+	<T> T replay(String captureKey, ElementReader<T> elementReader) throws IOException {
+		while (true) {
+			String elementKey = getReplayCaptureKey(captureKey);
+			try {
+				return elementReader.read(elementKey);
+			} catch (FileNotFoundException e) {
+				if (!skipMissingCapture(captureKey, elementKey)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private String getReplayCaptureKey(String captureKey) throws IOException {
+		Sequence sequence = getSequence(captureKey);
+		int length = sequence.getLength();
+		if (length == 0) {
+			// Nothing has been captured. The first element does not exist and is reported as a miss.
+			return getElementKey(captureKey, 0);
+		}
+		return getElementKey(captureKey, sequence.getIndex(sequence.nextPosition(sequencePlayback, length)));
+	}
+
+	// Called when the element key returned by getReplayCaptureKey has not been found. Returns true if the element is
+	// skipped from now on and another one can be replayed.
+	private boolean skipMissingCapture(String captureKey, String elementKey) {
+		Sequence sequence = sequences.get(captureKey);
+		if (sequence == null || !elementKey.startsWith(captureKey + INDEX_SEPARATOR)) {
+			return false;
+		}
+		int index;
+		try {
+			index = Integer.parseInt(elementKey.substring(captureKey.length() + INDEX_SEPARATOR.length()));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		if (!sequence.skip(index)) {
+			return false;
+		}
+		if (sequencePlayback == SequencePlayback.SEQUENTIAL || sequencePlayback == SequencePlayback.ROUND_ROBIN) {
+			// The position of the skipped capture now belongs to the next one, which would be passed over otherwise.
+			sequence.cursor.decrementAndGet();
+		}
+		return true;
+	}
+
+	private Sequence getSequence(String captureKey) throws IOException {
+		Sequence sequence = sequences.get(captureKey);
+		if (sequence == null) {
+			sequence = new Sequence();
+			Sequence existingSequence = sequences.putIfAbsent(captureKey, sequence);
+			if (existingSequence != null) {
+				sequence = existingSequence;
+			}
+		}
+		if (!sequence.loaded) {
+			load(captureKey, sequence);
+		}
+		return sequence;
+	}
+
+	// Captures of earlier runs are looked up once, so new captures are appended after the last of them.
+	private void load(String captureKey, Sequence sequence) throws IOException {
+		synchronized (sequence) {
+			if (sequence.loaded) {
+				return;
+			}
+			int[] loadedIndices = captureStore instanceof ListableCaptureStore ? getListedIndices(captureKey) : probeIndices(captureKey);
+			sequence.loadedIndices = loadedIndices;
+			sequence.firstAppendedIndex = loadedIndices.length == 0 ? 0 : loadedIndices[loadedIndices.length - 1] + 1;
+			sequence.nextAppendIndex.set(sequence.firstAppendedIndex);
+			sequence.loaded = true;
+		}
+	}
+
+	private synchronized int[] getListedIndices(String captureKey) throws IOException {
+		if (listedIndices == null) {
+			listedIndices = new HashMap<String, List<Integer>>();
+			for (String elementKey : ((ListableCaptureStore) captureStore).getCaptureKeys()) {
+				int separator = elementKey.lastIndexOf(INDEX_SEPARATOR);
+				if (separator < 0) {
+					continue;
+				}
+				int index;
+				try {
+					index = Integer.parseInt(elementKey.substring(separator + INDEX_SEPARATOR.length()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				String sequenceKey = elementKey.substring(0, separator);
+				List<Integer> indices = listedIndices.get(sequenceKey);
+				if (indices == null) {
+					indices = new ArrayList<Integer>();
+					listedIndices.put(sequenceKey, indices);
+				}
+				indices.add(index);
+			}
+		}
+		List<Integer> indices = listedIndices.remove(captureKey);
+		if (indices == null) {
+			return new int[0];
+		}
+		int[] sortedIndices = new int[indices.size()];
+		for (int i = 0; i < sortedIndices.length; i++) {
+			sortedIndices[i] = indices.get(i);
+		}
+		Arrays.sort(sortedIndices);
+		return sortedIndices;
+	}
+
+	private int[] probeIndices(String captureKey) throws IOException {
+		List<Integer> indices = new ArrayList<Integer>();
+		int missing = 0;
+		for (int index = 0; missing < MAX_PROBED_GAP; index++) {
+			if (exists(getElementKey(captureKey, index))) {
+				indices.add(index);
+				missing = 0;
+			} else {
+				missing++;
+			}
+		}
+		int[] probedIndices = new int[indices.size()];
+		for (int i = 0; i < probedIndices.length; i++) {
+			probedIndices[i] = indices.get(i);
+		}
+		return probedIndices;
+	}
+
+	private boolean exists(String elementKey) throws IOException {
+		InputStream inputStream;
+		try {
+			inputStream = captureStore.openCaptureInput(elementKey);
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		try {
+			// Capture file providers may hand out empty files for keys that have never been captured.
+			return inputStream.read() != -1;
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static String getElementKey(String captureKey, int index) {
+		return captureKey + INDEX_SEPARATOR + index;
+	}
+
+	// The indices of a sequence are the loaded indices followed by the appended ones, without the skipped indices.
+	private static class Sequence {
+
+		// Indices of the captures of earlier runs in ascending order.
+		private volatile int[] loadedIndices = new int[0];
+
+		// Captures of this run are appended after the last loaded capture.
+		private volatile int firstAppendedIndex;
+
+		private final AtomicInteger nextAppendIndex = new AtomicInteger();
+
+		// Indices whose captures have not been found, in ascending order.
+		private final ConcurrentSkipListSet<Integer> skippedIndices = new ConcurrentSkipListSet<Integer>();
+
+		// Shared by all threads replaying the key, so each of them gets the next capture without locking.
+		private final AtomicLong cursor = new AtomicLong();
+
+		private volatile boolean loaded;
+
+		private int getLength() {
+			return loadedIndices.length + nextAppendIndex.get() - firstAppendedIndex - skippedIndices.size();
+		}
+
+		private int getIndex(int position) {
+			// Each skipped index up to the index found so far moves it to the next one.
+			int index = getIndexIncludingSkipped(position);
+			for (int skippedIndex : skippedIndices) {
+				if (skippedIndex > index) {
+					break;
+				}
+				index = getIndexIncludingSkipped(++position);
+			}
+			return index;
+		}
+
+		private int getIndexIncludingSkipped(int position) {
+			int[] indices = loadedIndices;
+			return position < indices.length ? indices[position] : firstAppendedIndex + position - indices.length;
+		}
+
+		private boolean skip(int index) {
+			boolean contained = index >= firstAppendedIndex ? index < nextAppendIndex.get() : Arrays.binarySearch(loadedIndices, index) >= 0;
+			if (!contained) {
+				return false;
+			}
+			skippedIndices.add(index);
+			// Once all captures have been skipped, the miss is reported.
+			return getLength() > 0;
+		}
+
+		private int nextPosition(SequencePlayback sequencePlayback, int length) {
+			switch (sequencePlayback) {
+				case SEQUENTIAL:
+					return (int) Math.min(cursor.getAndIncrement(), length - 1);
+				case ROUND_ROBIN:
+					return (int) ((cursor.getAndIncrement() & Long.MAX_VALUE) % length);
+				case RANDOM:
+					return ThreadLocalRandom.current().nextInt(length);
+				default:
+					return length - 1;
+			}
+		}
+	}
+
+	// Reads the capture of an element of a sequence.
+	interface ElementReader<T> {
+
+		T read(String elementKey) throws IOException;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts what the CaptureSetTool has done with the captures of a capture set. It is updated while the tool is running,
+// so it can be reported as progress.
+public class CaptureSetReport {
+
+	private final long captures;
+
+	private final AtomicLong processedCaptures = new AtomicLong();
+
+	private final AtomicLong writtenCaptures = new AtomicLong();
+
+	private final AtomicLong duplicateCaptures = new AtomicLong();
+
+	private final AtomicLong deduplicatedCaptures = new AtomicLong();
+
+	private final AtomicLong unreferencedPayloads = new AtomicLong();
+
+	private final Map<String, String> invalidCaptures = new ConcurrentSkipListMap<String, String>();
+
+	CaptureSetReport(long captures) {
+		this.captures = captures;
+	}
+
+	void recordProcessed() {
+		processedCaptures.incrementAndGet();
+	}
+
+	void recordWritten() {
+		writtenCaptures.incrementAndGet();
+	}
+
+	void recordDuplicate() {
+		duplicateCaptures.incrementAndGet();
+	}
+
+	void recordDeduplicated() {
+		deduplicatedCaptures.incrementAndGet();
+	}
+
+	void recordUnreferencedPayload() {
+		unreferencedPayloads.incrementAndGet();
+	}
+
+	void recordInvalid(String captureKey, String reason) {
+		invalidCaptures.put(captureKey, reason);
+	}
+
+	// Captures and payloads of the capture set.
+	public long getCaptures() {
+		return captures;
+	}
+
+	public long getProcessedCaptures() {
+		return processedCaptures.get();
+	}
+
+	// Captures and payloads that have been written to the target capture store.
+	public long getWrittenCaptures() {
+		return writtenCaptures.get();
+	}
+
+	// Captures that have not been written because another capture has already been written under the same new key.
+	public long getDuplicateCaptures() {
+		return duplicateCaptures.get();
+	}
+
+	// Captures whose result has already been written as a payload by another capture.
+	public long getDeduplicatedCaptures() {
+		return deduplicatedCaptures.get();
+	}
+
+	// Payloads no capture refers to any more, e.g. because the captures referring to them have been replaced.
+	public long getUnreferencedPayloads() {
+		return unreferencedPayloads.get();
+	}
+
+	// The keys of all captures that cannot be replayed, sorted, and the reason why.
+	public Map<String, String> getInvalidCaptures() {
+		return Collections.unmodifiableMap(invalidCaptures);
+	}
+
+	public int getInvalidCaptureCount() {
+		return invalidCaptures.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d of %d captures processed, %d invalid, %d written, %d duplicate, %d deduplicated, %d unreferenced payloads",
+				getProcessedCaptures(), getCaptures(), getInvalidCaptureCount(), getWrittenCaptures(), getDuplicateCaptures(),
+				getDeduplicatedCaptures(), getUnreferencedPayloads());
+	}
+}
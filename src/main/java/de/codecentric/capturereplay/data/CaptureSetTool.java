@@ -0,0 +1,444 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Validates and copies all captures of a capture store on several threads, without an application context. While
+// captures are copied, invalid captures and payloads no capture refers to are left out, results can be deduplicated
+// into payloads, captures can be given new keys and be written in the format and to the capture store of another data
+// mapper.
+public class CaptureSetTool {
+
+	private static final Log LOG = LogFactory.getLog(CaptureSetTool.class);
+
+	private static final String DEFAULT_CAPTURE_FILE_EXTENSION = ".json";
+
+	private static final String PACKED_STORE_EXTENSION = ".pack";
+
+	private final JsonDataMapper dataMapper;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean deduplicatePayloads;
+
+	private CaptureKeyMapping captureKeyMapping;
+
+	private ProgressListener progressListener;
+
+	private long progressInterval = 1000;
+
+	// The data mapper must read the captures in their format from a capture store that can list them.
+	public CaptureSetTool(JsonDataMapper dataMapper) {
+		Validate.notNull(dataMapper, "The data mapper must not be null.");
+		Validate.isTrue(dataMapper.getCaptureStore() instanceof ListableCaptureStore, "The captures of %s cannot be listed.",
+				dataMapper.getCaptureStore());
+		this.dataMapper = dataMapper;
+	}
+
+	// Reads every capture like a replay would. Captures that cannot be replayed as their recorded type, captures
+	// referring to missing payloads and empty captures are reported as invalid.
+	public CaptureSetReport validate() throws IOException {
+		return process(null);
+	}
+
+	// Writes all valid captures to the capture store of the target data mapper, in its format.
+	public CaptureSetReport copy(JsonDataMapper targetDataMapper) throws IOException {
+		Validate.notNull(targetDataMapper, "The target data mapper must not be null.");
+		Validate.isTrue(targetDataMapper.getCaptureStore() != dataMapper.getCaptureStore(), "Captures cannot be copied into the capture store they are read from.");
+		return process(targetDataMapper);
+	}
+
+	private CaptureSetReport process(final JsonDataMapper targetDataMapper) throws IOException {
+		// The listing is walked once for the payloads and once for the captures instead of being copied.
+		List<String> keys = ((ListableCaptureStore) dataMapper.getCaptureStore()).getCaptureKeys();
+		final CaptureSetReport report = new CaptureSetReport(keys.size());
+		final Set<String> validPayloads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final Set<String> referencedPayloads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		// Only mapped keys can collide, so the target keys are only kept with a capture key mapping.
+		final Set<String> targetKeys = captureKeyMapping != null ? Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()) : null;
+		final Set<String> writtenPayloads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		// Payloads are validated first, so captures referring to an invalid payload are not copied either.
+		forEach(keys, report, new CaptureTask() {
+			@Override
+			public void process(String payloadKey) throws IOException {
+				if (!PayloadStore.isPayloadKey(payloadKey)) {
+					return;
+				}
+				if (readValidCapture(payloadKey, report) != null) {
+					validPayloads.add(payloadKey);
+				}
+				report.recordProcessed();
+			}
+		});
+		forEach(keys, report, new CaptureTask() {
+			@Override
+			public void process(String captureKey) throws IOException {
+				if (PayloadStore.isPayloadKey(captureKey)) {
+					return;
+				}
+				JsonNode capture = readValidCapture(captureKey, report);
+				String payloadKey = capture != null ? PayloadStore.getPayloadReference(capture) : null;
+				if (payloadKey != null && !validPayloads.contains(payloadKey)) {
+					report.recordInvalid(captureKey, String.format("The payload %s is missing or invalid.", payloadKey));
+				} else if (capture != null) {
+					if (payloadKey != null) {
+						referencedPayloads.add(payloadKey);
+					}
+					if (targetDataMapper != null) {
+						copyCapture(captureKey, capture, targetDataMapper, targetKeys, writtenPayloads, report);
+					}
+				}
+				report.recordProcessed();
+			}
+		});
+
+		// Only the payloads that are referenced by a capture are left to be copied.
+		for (Iterator<String> iterator = validPayloads.iterator(); iterator.hasNext(); ) {
+			if (!referencedPayloads.contains(iterator.next())) {
+				iterator.remove();
+				report.recordUnreferencedPayload();
+			}
+		}
+		referencedPayloads.clear();
+		if (targetDataMapper != null) {
+			// Payloads are read once more instead of keeping all of them in memory while the captures are processed.
+			forEach(validPayloads, report, new CaptureTask() {
+				@Override
+				public void process(String payloadKey) throws IOException {
+					if (writtenPayloads.add(payloadKey)) {
+						targetDataMapper.writeCapturedData(payloadKey, targetDataMapper.serializeCaptureTree(dataMapper.readCaptureTree(payloadKey)));
+						report.recordWritten();
+					}
+				}
+			});
+		}
+		reportProgress(report);
+		return report;
+	}
+
+	// Returns null if the capture is invalid.
+	private JsonNode readValidCapture(String captureKey, CaptureSetReport report) {
+		try {
+			JsonNode capture = dataMapper.readCaptureTree(captureKey);
+			if (capture == null) {
+				report.recordInvalid(captureKey, "The capture is empty.");
+				return null;
+			}
+			dataMapper.validateCapture(captureKey, capture);
+			return capture;
+		} catch (IOException | RuntimeException e) {
+			report.recordInvalid(captureKey, String.valueOf(e.getMessage()));
+			return null;
+		}
+	}
+
+	private void copyCapture(String captureKey, JsonNode capture, JsonDataMapper targetDataMapper, Set<String> targetKeys,
+			Set<String> writtenPayloads, CaptureSetReport report) throws IOException {
+		String targetKey = captureKeyMapping != null ? captureKeyMapping.getCaptureKey(captureKey) : captureKey;
+		if (targetKeys != null && !targetKeys.add(targetKey)) {
+			// Several old keys may be mapped to the same new key. Only one of their captures can be kept.
+			report.recordDuplicate();
+			return;
+		}
+		ObjectNode payload = deduplicatePayloads ? PayloadStore.extractPayload(capture) : null;
+		if (payload != null) {
+			byte[] payloadData = targetDataMapper.serializeCaptureTree(payload);
+			String payloadKey = PayloadStore.getPayloadKey(payloadData);
+			if (writtenPayloads.add(payloadKey)) {
+				targetDataMapper.writeCapturedData(payloadKey, payloadData);
+				report.recordWritten();
+			} else {
+				report.recordDeduplicated();
+			}
+			capture = PayloadStore.createPayloadReference(capture, payloadKey);
+		}
+		targetDataMapper.writeCapturedData(targetKey, targetDataMapper.serializeCaptureTree(capture));
+		report.recordWritten();
+	}
+
+	private void forEach(Collection<String> captureKeys, CaptureSetReport report, final CaptureTask task) throws IOException {
+		if (captureKeys.isEmpty()) {
+			return;
+		}
+		final Iterator<String> iterator = captureKeys.iterator();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		int threadCount = Math.min(threads, captureKeys.size());
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount, new ToolThreadFactory());
+		try {
+			for (int i = 0; i < threadCount; i++) {
+				executorService.execute(new Runnable() {
+					@Override
+					public void run() {
+						// Each thread takes the next key when it is done, so millions of keys do not queue up as tasks.
+						String captureKey;
+						while (failure.get() == null && (captureKey = nextCaptureKey(iterator)) != null) {
+							try {
+								task.process(captureKey);
+							} catch (IOException | RuntimeException e) {
+								failure.compareAndSet(null, e);
+							}
+						}
+					}
+				});
+			}
+			executorService.shutdown();
+			while (!executorService.awaitTermination(progressInterval, TimeUnit.MILLISECONDS)) {
+				reportProgress(report);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Processing the capture set has been interrupted.");
+		} finally {
+			executorService.shutdownNow();
+		}
+		Exception exception = failure.get();
+		if (exception instanceof IOException) {
+			throw (IOException) exception;
+		}
+		if (exception != null) {
+			throw (RuntimeException) exception;
+		}
+	}
+
+	// Returns null once all keys have been taken.
+	private static String nextCaptureKey(Iterator<String> iterator) {
+		synchronized (iterator) {
+			return iterator.hasNext() ? iterator.next() : null;
+		}
+	}
+
+	private void reportProgress(CaptureSetReport report) {
+		if (progressListener != null) {
+			progressListener.reportProgress(report);
+		}
+	}
+
+	public void setThreads(int threads) {
+		Validate.isTrue(threads > 0, "The number of threads must be positive.");
+		this.threads = threads;
+	}
+
+	// Captures that hold their result themselves are copied as references to a payload with this result.
+	public void setDeduplicatePayloads(boolean deduplicatePayloads) {
+		this.deduplicatePayloads = deduplicatePayloads;
+	}
+
+	// Payloads keep their keys, which are the hashes of their content.
+	public void setCaptureKeyMapping(CaptureKeyMapping captureKeyMapping) {
+		this.captureKeyMapping = captureKeyMapping;
+	}
+
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	// The time in milliseconds between two progress reports.
+	public void setProgressInterval(long progressInterval) {
+		Validate.isTrue(progressInterval > 0, "The progress interval must be positive.");
+		this.progressInterval = progressInterval;
+	}
+
+	// The first argument is the command, validate or copy.
+	static int run(String... args) throws Exception {
+		List<String> arguments = new ArrayList<String>();
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				arguments.add(args[i]);
+			} else if (args[i].equals("--smile") || args[i].equals("--target-smile") || args[i].equals("--compress")
+					|| args[i].equals("--deduplicate")) {
+				options.put(args[i], "true");
+			} else if (i + 1 < args.length) {
+				options.put(args[i], args[++i]);
+			}
+		}
+		boolean validate = arguments.size() == 2 && arguments.get(0).equals("validate");
+		boolean copy = arguments.size() == 3 && arguments.get(0).equals("copy");
+		if (!validate && !copy) {
+			LOG.error("Usage: CaptureTools validate <capture files directory or packed store file> [options]");
+			LOG.error("       CaptureTools copy <capture files directory or packed store file> <target capture files directory or packed store file> [options]");
+			LOG.error("Options: --extension <capture file extension> --target-extension <capture file extension> --smile --target-smile");
+			LOG.error("         --compress --dictionary <dictionary file> --deduplicate --key-mapping <properties file> --threads <threads>");
+			return CaptureTools.EXIT_USAGE;
+		}
+
+		String extension = options.containsKey("--extension") ? options.get("--extension") : DEFAULT_CAPTURE_FILE_EXTENSION;
+		// Compressed captures are recognized while they are read, so the source is always read through a CompressingCaptureStore.
+		CompressingCaptureStore captureStore = new CompressingCaptureStore(openCaptureStore(arguments.get(1), extension));
+		captureStore.setDictionaryPath(options.get("--dictionary"));
+		captureStore.afterPropertiesSet();
+		CaptureSetTool tool = new CaptureSetTool(createDataMapper(captureStore, options.containsKey("--smile")));
+		if (options.containsKey("--threads")) {
+			tool.setThreads(Integer.parseInt(options.get("--threads")));
+		}
+		tool.setProgressListener(new ProgressListener() {
+			@Override
+			public void reportProgress(CaptureSetReport report) {
+				LOG.info(report);
+			}
+		});
+
+		CaptureSetReport report;
+		if (validate) {
+			report = tool.validate();
+		} else {
+			tool.setDeduplicatePayloads(options.containsKey("--deduplicate"));
+			if (options.containsKey("--key-mapping")) {
+				CaptureKeyMigration captureKeyMigration = new CaptureKeyMigration();
+				InputStream inputStream = new FileInputStream(options.get("--key-mapping"));
+				try {
+					captureKeyMigration.load(inputStream);
+				} finally {
+					inputStream.close();
+				}
+				tool.setCaptureKeyMapping(captureKeyMigration);
+			}
+			String target = arguments.get(2);
+			PackedCaptureStoreWriter packedStoreWriter = target.endsWith(PACKED_STORE_EXTENSION) ? new PackedCaptureStoreWriter(new File(target)) : null;
+			boolean copied = false;
+			try {
+				CaptureStore targetStore;
+				if (packedStoreWriter != null) {
+					targetStore = new PackedCaptureStoreOutput(packedStoreWriter);
+				} else {
+					String targetExtension = options.containsKey("--target-extension") ? options.get("--target-extension") : extension;
+					targetStore = openCaptureStore(target, targetExtension);
+				}
+				if (options.containsKey("--compress")) {
+					CompressingCaptureStore compressingCaptureStore = new CompressingCaptureStore(targetStore);
+					compressingCaptureStore.setDictionaryPath(options.get("--dictionary"));
+					compressingCaptureStore.afterPropertiesSet();
+					targetStore = compressingCaptureStore;
+				}
+				report = tool.copy(createDataMapper(targetStore, options.containsKey("--target-smile")));
+				if (packedStoreWriter != null) {
+					packedStoreWriter.close();
+				}
+				copied = true;
+			} finally {
+				if (packedStoreWriter != null && !copied) {
+					packedStoreWriter.abort();
+				}
+			}
+		}
+		for (Map.Entry<String, String> invalidCapture : report.getInvalidCaptures().entrySet()) {
+			LOG.warn(String.format("Invalid capture %s: %s", invalidCapture.getKey(), invalidCapture.getValue()));
+		}
+		LOG.info(report);
+		return validate && report.getInvalidCaptureCount() > 0 ? CaptureTools.EXIT_INVALID_CAPTURES : CaptureTools.EXIT_SUCCESS;
+	}
+
+	private static ListableCaptureStore openCaptureStore(String location, String captureFileExtension) throws Exception {
+		if (location.endsWith(PACKED_STORE_EXTENSION)) {
+			PackedCaptureStore packedCaptureStore = new PackedCaptureStore();
+			packedCaptureStore.setPackedStorePath(location);
+			packedCaptureStore.afterPropertiesSet();
+			return packedCaptureStore;
+		}
+		DefaultCaptureFileProvider captureFileProvider = new DefaultCaptureFileProvider();
+		captureFileProvider.setCaptureFilesPath(location);
+		captureFileProvider.setCaptureFileExtension(captureFileExtension);
+		captureFileProvider.afterPropertiesSet();
+		return new FileCaptureStore(captureFileProvider);
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore, boolean smile) throws Exception {
+		JsonDataMapper dataMapper = smile ? new SmileDataMapper(captureStore) : new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	public interface ProgressListener {
+
+		// Called from the thread that started the tool while it is running, and once when it is done.
+		void reportProgress(CaptureSetReport report);
+	}
+
+	private interface CaptureTask {
+
+		void process(String captureKey) throws IOException;
+	}
+
+	// Adds the captures written by the CaptureSetTool to a packed capture store.
+	private static class PackedCaptureStoreOutput implements CaptureStore {
+
+		private final PackedCaptureStoreWriter packedStoreWriter;
+
+		private PackedCaptureStoreOutput(PackedCaptureStoreWriter packedStoreWriter) {
+			this.packedStoreWriter = packedStoreWriter;
+		}
+
+		@Override
+		public OutputStream openCaptureOutput(final String captureKey) throws IOException {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					synchronized (packedStoreWriter) {
+						packedStoreWriter.add(captureKey, toByteArray());
+					}
+				}
+			};
+		}
+
+		@Override
+		public InputStream openCaptureInput(String captureKey) throws IOException {
+			throw new FileNotFoundException(String.format("The packed capture store is being written. Capture key %s cannot be read.", captureKey));
+		}
+	}
+
+	private static class ToolThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "capture-set-tool-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+
+// Starts the command line tools, e.g. "java -cp capture-replay-framework.jar de.codecentric.capturereplay.data.CaptureTools
+// pack /tmp/captures /tmp/captures.pack". The tools themselves only return their exit code, so they can also be run
+// from code without ending the virtual machine.
+public final class CaptureTools {
+
+	static final int EXIT_SUCCESS = 0;
+
+	static final int EXIT_USAGE = 1;
+
+	// Returned by validate if there are captures that cannot be replayed.
+	static final int EXIT_INVALID_CAPTURES = 2;
+
+	private static final Log LOG = LogFactory.getLog(CaptureTools.class);
+
+	private CaptureTools() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.exit(run(args));
+	}
+
+	static int run(String... args) throws Exception {
+		String tool = args.length > 0 ? args[0] : "";
+		String[] toolArgs = Arrays.copyOfRange(args, Math.min(args.length, 1), args.length);
+		if ("pack".equals(tool)) {
+			return PackedCaptureStoreConverter.run(toolArgs);
+		}
+		if ("train".equals(tool)) {
+			return CaptureDictionaryTrainer.run(toolArgs);
+		}
+		if ("validate".equals(tool) || "copy".equals(tool)) {
+			return CaptureSetTool.run(args);
+		}
+		LOG.error("Usage: CaptureTools pack|train|validate|copy <arguments>");
+		return EXIT_USAGE;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import de.codecentric.capturereplay.metrics.CaptureReplayMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Writes the elements of a result one by one, so the result never has to be serialized as a whole. The capture is
+// complete when the writer is closed.
+class CapturedElementsWriter implements Closeable {
+
+	private final Method method;
+
+	private final String captureKey;
+
+	private final JsonGenerator generator;
+
+	private final DefaultSerializerProvider serializerProvider;
+
+	private final TypeSerializer elementTypeSerializer;
+
+	private final CaptureReplayMetrics metrics;
+
+	private final ReplayCache replayCache;
+
+	private final Object captureKeyLock;
+
+	private final ElementsCleaner elementsCleaner;
+
+	private long serializationTime;
+
+	private boolean closed;
+
+	CapturedElementsWriter(Method method, String captureKey, JsonGenerator generator, ObjectMapper objectMapper,
+			CaptureReplayMetrics metrics, ReplayCache replayCache, Object captureKeyLock, ElementsCleaner elementsCleaner) throws JsonMappingException {
+		this.method = method;
+		this.captureKey = captureKey;
+		this.generator = generator;
+		// Elements are serialized like values of a List<Object>, so each of them carries its own type id.
+		SerializationConfig config = objectMapper.getSerializationConfig();
+		this.serializerProvider = ((DefaultSerializerProvider) objectMapper.getSerializerProvider()).createInstance(config, objectMapper.getSerializerFactory());
+		this.elementTypeSerializer = objectMapper.getSerializerFactory().createTypeSerializer(config, config.constructType(Object.class));
+		this.metrics = metrics;
+		this.replayCache = replayCache;
+		this.captureKeyLock = captureKeyLock;
+		this.elementsCleaner = elementsCleaner;
+	}
+
+	synchronized void write(Object element) throws IOException {
+		if (closed) {
+			return;
+		}
+		long serializationStart = System.nanoTime();
+		try {
+			if (element == null) {
+				serializerProvider.defaultSerializeNull(generator);
+			} else {
+				serializerProvider.findValueSerializer(element.getClass(), null).serializeWithType(element, generator, serializerProvider, elementTypeSerializer);
+			}
+		} catch (IOException e) {
+			fail();
+			throw e;
+		}
+		serializationTime += System.nanoTime() - serializationStart;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		long writeStart = System.nanoTime();
+		try {
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.close();
+		} catch (IOException e) {
+			metrics.recordError(method);
+			throw e;
+		}
+		if (replayCache != null) {
+			synchronized (captureKeyLock) {
+				replayCache.invalidate(captureKey);
+			}
+		}
+		metrics.recordSerialization(method, serializationTime);
+		metrics.recordWrite(method, System.nanoTime() - writeStart);
+	}
+
+	// Closes the capture after a failure. Readers will not be able to parse the incomplete capture.
+	private void fail() {
+		closed = true;
+		metrics.recordError(method);
+		try {
+			generator.close();
+		} catch (IOException e) {
+			// The original failure is reported.
+		}
+	}
+
+	// The elements are captured while the caller consumes them. Exhausting the iterator completes the capture, and so
+	// does abandoning it: the elements consumed until it is garbage collected are captured.
+	Iterator<Object> capture(final Iterator<?> iterator) {
+		return elementsCleaner.register(new Iterator<Object>() {
+			@Override
+			public boolean hasNext() {
+				boolean hasNext = iterator.hasNext();
+				if (!hasNext) {
+					try {
+						close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(String.format("Could not write test data for capture key %s.", captureKey), e);
+					}
+				}
+				return hasNext;
+			}
+
+			@Override
+			public Object next() {
+				Object element = iterator.next();
+				try {
+					write(element);
+				} catch (IOException e) {
+					throw new UncheckedIOException(String.format("Could not write test data for capture key %s.", captureKey), e);
+				}
+				return element;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+			}
+		}, this);
+	}
+
+	// Closing the stream completes the capture with the elements that have been consumed so far. Captured streams
+	// are sequential, since elements are written in the order they are consumed. The stream is consumed through the
+	// captured iterator, so an abandoned stream is completed once that iterator has been collected.
+	Stream<Object> capture(final Stream<?> stream) {
+		Spliterator<Object> spliterator = Spliterators.spliteratorUnknownSize(capture(stream.iterator()), Spliterator.ORDERED);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					stream.close();
+				} finally {
+					try {
+						close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(String.format("Could not write test data for capture key %s.", captureKey), e);
+					}
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.reflect.Method;
+
+// A capture key strategy that can tell different arguments with the same capture key apart. Captured calls ask it for
+// their capture keys through getCaptureKeyForCapture(), so collisions are detected when captures are written, while
+// replays only compute the capture key.
+public interface CollisionDetectingCaptureKeyStrategy extends CaptureKeyStrategy {
+
+	// Throws a CaptureKeyCollisionException if different arguments have been captured under the same capture key.
+	String getCaptureKeyForCapture(Method method, Object[] arguments);
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+// Captures a call only if all policies accept it. Policies are asked in order, so cheap and stateless policies
+// should come first. Later policies do not see calls that have been rejected by earlier ones.
+public class CompositeCapturePolicy implements CapturePolicy {
+
+	private final CapturePolicy[] capturePolicies;
+
+	public CompositeCapturePolicy(List<CapturePolicy> capturePolicies) {
+		Validate.noNullElements(capturePolicies, "The capture policies must not be null.");
+		this.capturePolicies = new ArrayList<CapturePolicy>(capturePolicies).toArray(new CapturePolicy[capturePolicies.size()]);
+	}
+
+	@Override
+	public boolean shouldCaptureCall(Method method) {
+		for (CapturePolicy capturePolicy : capturePolicies) {
+			if (!capturePolicy.shouldCaptureCall(method)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean shouldCaptureKey(Method method, String captureKey) {
+		for (CapturePolicy capturePolicy : capturePolicies) {
+			if (!capturePolicy.shouldCaptureKey(method, captureKey)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Compresses captures with Deflate while they are written to or read from another capture store.
+public class CompressingCaptureStore implements ListableCaptureStore, InitializingBean {
+
+	// Deflate refers back at most 32 KB, so a larger dictionary would never be used.
+	static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final CaptureStore captureStore;
+
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+	private String dictionaryPath;
+
+	private byte[] dictionary;
+
+	private int dictionaryId;
+
+	public CompressingCaptureStore(CaptureStore captureStore) {
+		Validate.notNull(captureStore, "The capture store must not be null.");
+		this.captureStore = captureStore;
+	}
+
+	public CompressingCaptureStore(CaptureFileProvider captureFileProvider) {
+		this(new FileCaptureStore(captureFileProvider));
+	}
+
+	@Override
+	public OutputStream openCaptureOutput(String captureKey) throws IOException {
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		Deflater deflater = new Deflater(compressionLevel);
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		return new CompressingOutputStream(outputStream, deflater);
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		PushbackInputStream inputStream = new PushbackInputStream(captureStore.openCaptureInput(captureKey), 2);
+		int first = inputStream.read();
+		int second = first == -1 ? -1 : inputStream.read();
+		if (second != -1) {
+			inputStream.unread(second);
+		}
+		if (first != -1) {
+			inputStream.unread(first);
+		}
+		// Captures start with a JSON object or a Smile header, never with a zlib header. Captures written without
+		// compression can therefore still be replayed.
+		if (!isZlibHeader(first, second)) {
+			return inputStream;
+		}
+		return new DecompressingInputStream(inputStream, new Inflater());
+	}
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+		if (dictionaryPath != null) {
+			setDictionary(Files.readAllBytes(new File(dictionaryPath).toPath()));
+		}
+	}
+
+	static boolean isZlibHeader(int first, int second) {
+		return first != -1 && second != -1 && (first & 0x0F) == Deflater.DEFLATED && (first >> 4) <= 7
+				&& ((first << 8) | second) % 31 == 0;
+	}
+
+	@Override
+	public List<String> getCaptureKeys() throws IOException {
+		if (captureStore instanceof ListableCaptureStore) {
+			return ((ListableCaptureStore) captureStore).getCaptureKeys();
+		}
+		return Collections.emptyList();
+	}
+
+	public CaptureStore getCaptureStore() {
+		return captureStore;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		Validate.isTrue(compressionLevel == Deflater.DEFAULT_COMPRESSION
+				|| (compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION),
+				"The compression level must be between 0 and 9 or -1.");
+		this.compressionLevel = compressionLevel;
+	}
+
+	public void setDictionaryPath(String dictionaryPath) {
+		this.dictionaryPath = dictionaryPath;
+	}
+
+	public void setDictionary(byte[] dictionary) {
+		Validate.isTrue(dictionary == null || dictionary.length <= MAX_DICTIONARY_SIZE,
+				"The dictionary must not be larger than %d bytes.", MAX_DICTIONARY_SIZE);
+		this.dictionary = dictionary;
+		if (dictionary != null) {
+			Adler32 adler32 = new Adler32();
+			adler32.update(dictionary);
+			dictionaryId = (int) adler32.getValue();
+		}
+	}
+
+	// Releases the native memory of the deflater, which the DeflaterOutputStream only does for its own deflaters.
+	private static class CompressingOutputStream extends DeflaterOutputStream {
+
+		private boolean closed;
+
+		private CompressingOutputStream(OutputStream outputStream, Deflater deflater) {
+			super(outputStream, deflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				finish();
+			} finally {
+				def.end();
+				out.close();
+			}
+		}
+	}
+
+	private class DecompressingInputStream extends InflaterInputStream {
+
+		private boolean closed;
+
+		private DecompressingInputStream(InputStream inputStream, Inflater inflater) {
+			super(inputStream, inflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			// The InflaterInputStream reports the end of the stream when the dictionary is needed.
+			if (read == -1 && inf.needsDictionary()) {
+				if (dictionary == null || inf.getAdler() != dictionaryId) {
+					throw new IOException("The capture has been compressed with a different dictionary.");
+				}
+				inf.setDictionary(dictionary);
+				read = super.read(b, off, len);
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+}
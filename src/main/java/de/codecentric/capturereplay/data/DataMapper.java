@@ -16,11 +16,37 @@
 
 package de.codecentric.capturereplay.data;
 
-import org.aspectj.lang.reflect.MethodSignature;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
 
 public interface DataMapper {
 
-	void writeCapturedData(MethodSignature signature, Object returnValue, Object[] arguments) throws DataMappingException;
+	void writeCapturedData(Method method, Object returnValue, Object[] arguments) throws DataMappingException;
 
-	Object getCapturedData(String methodName, Object[] arguments) throws DataMappingException;
+	// The duration is the time in nanoseconds the captured method took to return.
+	void writeCapturedData(Method method, Object returnValue, Object[] arguments, long duration) throws DataMappingException;
+
+	// Iterators and streams cannot be serialized without consuming them. Their elements are captured while the caller
+	// consumes the returned view instead. Other return values are captured like writeCapturedData does and returned.
+	Object writeCapturedElements(Method method, Object returnValue, Object[] arguments, long duration) throws DataMappingException;
+
+	void writeCapturedException(Method method, Throwable throwable, Object[] arguments, long duration) throws DataMappingException;
+
+	// Captures the value of a completed future, or its failure if it is not null. The value is serialized right away by
+	// the thread that has completed the future, while the capture store is written by a writer thread.
+	void writeCompletedFuture(Method method, Object value, Throwable failure, Object[] arguments, long duration) throws DataMappingException;
+
+	// Throws a ReplayedThrowableException if the captured call has thrown an exception.
+	Object getCapturedData(Method method, Object[] arguments) throws DataMappingException;
+
+	// Replays the call like getCapturedData, but returns the simulated latency that is left instead of blocking the
+	// replaying thread for it.
+	DelayedCapturedData getDelayedCapturedData(Method method, Object[] arguments) throws DataMappingException;
+
+	// Prepares everything needed to capture and replay calls of the method, so the first call does not pay for it.
+	void warmUp(Method method);
+
+	// Reads all captures of the capture store into the replay cache, using the executor service. Returns the number of
+	// preloaded captures.
+	int preloadCaptures(ExecutorService executorService) throws DataMappingException;
 }
@@ -17,6 +17,10 @@
 package de.codecentric.capturereplay.data;
 
 public class DataMappingException extends Exception {
+	protected DataMappingException(String message) {
+		super(message);
+	}
+
 	public DataMappingException(String message, Exception cause) {
 		super(message, cause);
 	}
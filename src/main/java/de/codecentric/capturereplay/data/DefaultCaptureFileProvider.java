@@ -20,6 +20,8 @@ import org.apache.commons.lang3.Validate;
 import org.springframework.beans.factory.InitializingBean;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DefaultCaptureFileProvider implements CaptureFileProvider, InitializingBean {
 
@@ -32,9 +34,24 @@ public class DefaultCaptureFileProvider implements CaptureFileProvider, Initiali
 	@Override
 	public File getCaptureFile(String fileName) {
 		ensureDirectoryExists(captureFilesPath);
-		File file = new File(captureFilesPath + fileName + captureFileExtension);
-		purgeFile(file);
-		return file;
+		// The file is not purged. It is replaced atomically when it is captured again and must stay readable for replaying.
+		return new File(captureFilesPath + fileName + captureFileExtension);
+	}
+
+	// Returns the names of all capture files in the capture files path, without the capture file extension.
+	public List<String> getCaptureFileNames() {
+		List<String> captureFileNames = new ArrayList<String>();
+		File[] files = new File(captureFilesPath).listFiles();
+		if (files == null) {
+			return captureFileNames;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.endsWith(captureFileExtension) && name.length() > captureFileExtension.length()) {
+				captureFileNames.add(name.substring(0, name.length() - captureFileExtension.length()));
+			}
+		}
+		return captureFileNames;
 	}
 
 	public void setCaptureFilesPath(String captureFilesPath) {
@@ -54,12 +71,6 @@ public class DefaultCaptureFileProvider implements CaptureFileProvider, Initiali
 		}
 	}
 
-	private void purgeFile(File file) {
-		if (file.exists()) {
-			file.delete();
-		}
-	}
-
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		Validate.notNull(captureFilesPath, "You must specify a path for capture files.");
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+// A replayed call whose simulated latency has not passed yet. Calls that complete later, like futures, are completed
+// once the delay has passed, instead of blocking the replaying thread for it.
+public class DelayedCapturedData {
+
+	private final String captureKey;
+
+	private final TypeWrapper capturedData;
+
+	private final long delay;
+
+	DelayedCapturedData(String captureKey, TypeWrapper capturedData, long delay) {
+		this.captureKey = captureKey;
+		this.capturedData = capturedData;
+		this.delay = delay;
+	}
+
+	// Nanoseconds of the simulated latency that are left.
+	public long getDelay() {
+		return delay;
+	}
+
+	// Blocks the calling thread until the simulated latency has passed.
+	public void awaitDelay() {
+		LatencySimulator.delay(delay);
+	}
+
+	// Throws a ReplayedThrowableException if the captured call has thrown an exception.
+	public Object getCapturedData() throws ReplayedThrowableException {
+		if (capturedData.isException()) {
+			throw new ReplayedThrowableException(String.format("Replaying the exception captured for capture key %s.", captureKey), (Throwable) capturedData.getObject());
+		}
+		return capturedData.getObject();
+	}
+}
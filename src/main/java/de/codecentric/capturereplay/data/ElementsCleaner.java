@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Captured and replayed elements are closed when they have been consumed completely or their stream is closed. A
+// caller that stops early would leak the capture stream or parser, so they are closed once the elements have been
+// garbage collected. Collected elements are closed whenever new elements are registered.
+class ElementsCleaner {
+
+	private static final Log LOG = LogFactory.getLog(ElementsCleaner.class);
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	// Keeps the references reachable until their elements have been collected.
+	private final Set<ElementsReference> references = Collections.newSetFromMap(new ConcurrentHashMap<ElementsReference, Boolean>());
+
+	// The closeable must not refer to the elements, or they would never be collected.
+	<T> T register(T elements, Closeable closeable) {
+		closeCollected();
+		references.add(new ElementsReference(elements, closeable, queue));
+		return elements;
+	}
+
+	void closeCollected() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null) {
+			if (references.remove(reference)) {
+				close(((ElementsReference) reference).closeable);
+			}
+		}
+	}
+
+	void closeAll() {
+		for (ElementsReference reference : references) {
+			if (references.remove(reference)) {
+				reference.clear();
+				close(reference.closeable);
+			}
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.warn("Could not close abandoned elements.", e);
+		}
+	}
+
+	private static class ElementsReference extends PhantomReference<Object> {
+
+		private final Closeable closeable;
+
+		private ElementsReference(Object elements, Closeable closeable, ReferenceQueue<Object> queue) {
+			super(elements, queue);
+			this.closeable = closeable;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+
+public class FileCaptureStore implements ListableCaptureStore {
+
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+	private final CaptureFileProvider captureFileProvider;
+
+	public FileCaptureStore(CaptureFileProvider captureFileProvider) {
+		Validate.notNull(captureFileProvider, "The capture file provider must not be null.");
+		this.captureFileProvider = captureFileProvider;
+	}
+
+	@Override
+	public OutputStream openCaptureOutput(String captureKey) throws IOException {
+		// Captured data is written to a temporary file first, so readers and concurrent writers never see a partial file.
+		File captureFile = captureFileProvider.getCaptureFile(captureKey).getAbsoluteFile();
+		File temporaryFile = File.createTempFile(captureFile.getName(), TEMPORARY_FILE_SUFFIX, captureFile.getParentFile());
+		return new AtomicFileOutputStream(temporaryFile, captureFile);
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		return new FileInputStream(captureFileProvider.getCaptureFile(captureKey));
+	}
+
+	@Override
+	public List<String> getCaptureKeys() {
+		// Other capture file providers may map capture keys to files in ways that cannot be reversed.
+		if (captureFileProvider instanceof DefaultCaptureFileProvider) {
+			return ((DefaultCaptureFileProvider) captureFileProvider).getCaptureFileNames();
+		}
+		return Collections.emptyList();
+	}
+
+	public CaptureFileProvider getCaptureFileProvider() {
+		return captureFileProvider;
+	}
+
+	// Replaces the capture file with the temporary file on close, unless writing has failed.
+	private static class AtomicFileOutputStream extends FileOutputStream {
+
+		private final File temporaryFile;
+
+		private final File captureFile;
+
+		private boolean failed;
+
+		private boolean closed;
+
+		private AtomicFileOutputStream(File temporaryFile, File captureFile) throws IOException {
+			super(temporaryFile);
+			this.temporaryFile = temporaryFile;
+			this.captureFile = captureFile;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			try {
+				super.write(b);
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			try {
+				super.write(b, off, len);
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			super.close();
+			if (failed) {
+				temporaryFile.delete();
+				return;
+			}
+			try {
+				Files.move(temporaryFile.toPath(), captureFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), captureFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+}
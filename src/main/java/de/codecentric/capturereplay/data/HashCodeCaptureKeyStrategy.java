@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.reflect.Method;
+
+public class HashCodeCaptureKeyStrategy implements CaptureKeyStrategy {
+
+	@Override
+	public String getCaptureKey(Method method, Object[] arguments) {
+		return generateCaptureKey(method.getName(), getArgumentHashCodes(arguments));
+	}
+
+	private long[] getArgumentHashCodes(Object[] arguments) {
+		long[] argumentHashCodes = new long[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i] == null) {
+				argumentHashCodes[i] = 0;
+			} else if (Enum.class.isAssignableFrom(arguments[i].getClass())) {
+				argumentHashCodes[i] = arguments[i].toString().hashCode();
+			} else {
+				argumentHashCodes[i] = arguments[i].hashCode();
+			}
+		}
+		return argumentHashCodes;
+	}
+
+	private String generateCaptureKey(String methodName, long[] argumentHashCodes) {
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(methodName);
+		for (long argumentHashCode : argumentHashCodes) {
+			stringBuilder.append("-").append(argumentHashCode);
+		}
+		return stringBuilder.toString();
+	}
+}
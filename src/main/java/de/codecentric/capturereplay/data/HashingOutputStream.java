@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.io.OutputStream;
+
+// Streaming implementation of the 128 bit variant of MurmurHash3 for x64. Hashes do not depend on the JVM or platform.
+class HashingOutputStream extends OutputStream {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final byte[] block = new byte[16];
+
+	private int blockLength;
+
+	private long length;
+
+	private long h1;
+
+	private long h2;
+
+	private long hash1;
+
+	private long hash2;
+
+	void reset() {
+		blockLength = 0;
+		length = 0;
+		h1 = 0;
+		h2 = 0;
+	}
+
+	@Override
+	public void write(int b) {
+		block[blockLength++] = (byte) b;
+		length++;
+		if (blockLength == 16) {
+			mixBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int count) {
+		for (int i = offset; i < offset + count; i++) {
+			block[blockLength++] = bytes[i];
+			if (blockLength == 16) {
+				mixBlock();
+			}
+		}
+		length += count;
+	}
+
+	void writeString(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			write(c >>> 8);
+			write(c);
+		}
+	}
+
+	// Computes the hash of all bytes written so far. Both halves of the hash are computed at once.
+	void finish() {
+		long h1 = this.h1;
+		long h2 = this.h2;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = blockLength - 1; i >= 8; i--) {
+			k2 ^= (block[i] & 0xffL) << ((i - 8) * 8);
+		}
+		for (int i = Math.min(blockLength, 8) - 1; i >= 0; i--) {
+			k1 ^= (block[i] & 0xffL) << (i * 8);
+		}
+		if (blockLength > 8) {
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+		}
+		if (blockLength > 0) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = mixFinal(h1);
+		h2 = mixFinal(h2);
+		h1 += h2;
+		h2 += h1;
+		hash1 = h1;
+		hash2 = h2;
+	}
+
+	// Returns the first 64 bits of the hash computed by the last call of finish().
+	long getHash1() {
+		return hash1;
+	}
+
+	// Returns the second, independent 64 bits of the hash computed by the last call of finish().
+	long getHash2() {
+		return hash2;
+	}
+
+	private void mixBlock() {
+		long k1 = getLong(0);
+		long k2 = getLong(8);
+
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		h1 ^= k1;
+		h1 = Long.rotateLeft(h1, 27);
+		h1 += h2;
+		h1 = h1 * 5 + 0x52dce729;
+
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		h2 ^= k2;
+		h2 = Long.rotateLeft(h2, 31);
+		h2 += h1;
+		h2 = h2 * 5 + 0x38495ab5;
+
+		blockLength = 0;
+	}
+
+	private long getLong(int offset) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--) {
+			value = (value << 8) | (block[offset + i] & 0xffL);
+		}
+		return value;
+	}
+
+	private static long mixFinal(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
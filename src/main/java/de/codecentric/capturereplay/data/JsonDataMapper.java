@@ -16,38 +16,348 @@
 
 package de.codecentric.capturereplay.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import de.codecentric.capturereplay.Capturable;
+import de.codecentric.capturereplay.metrics.CaptureReplayMetrics;
+import de.codecentric.capturereplay.metrics.NoOpCaptureReplayMetrics;
 import org.apache.commons.lang3.Validate;
-import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.StreamUtils;
 
-import java.io.File;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
-public class JsonDataMapper implements DataMapper, InitializingBean {
+import static de.codecentric.capturereplay.data.CaptureFormat.DURATION_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.ELEMENTS_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.EXCEPTION_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.OBJECT_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.PAYLOAD_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.TYPE_FIELD;
+
+public class JsonDataMapper implements DataMapper, InitializingBean, DisposableBean {
+
+	private static final int CAPTURE_KEY_LOCK_STRIPES = 64;
+
+	// Types of captured elements that are replayed lazily instead of being read into a collection.
+	private static final String ITERATOR_TYPE = Iterator.class.getName();
+
+	private static final String STREAM_TYPE = Stream.class.getName();
+
+	// Reads captures whose method is not known, such as preloaded and validated captures.
+	private static final CallPlan UNBOUND_CALL_PLAN = new CallPlan(null, false, false, null, ReplayInstances.DESERIALIZE);
 
 	private ObjectMapper objectMapper;
 
-	private CaptureFileProvider captureFileProvider;
+	private ObjectReader objectReader;
+
+	private ObjectWriter typeWrapperWriter;
+
+	private final ConcurrentMap<Method, CallPlan> callPlans = new ConcurrentHashMap<Method, CallPlan>();
+
+	private CaptureStore captureStore;
+
+	private CaptureKeyStrategy captureKeyStrategy = new StructuralHashCaptureKeyStrategy();
+
+	private int replayCacheSize;
+
+	private EvictionPolicy replayCacheEvictionPolicy = EvictionPolicy.LRU;
+
+	private long replayCacheHeapBudget;
+
+	private long replayCacheOffHeapBudget;
+
+	private ReplayCache replayCache;
+
+	private ObjectMapper treeMapper;
+
+	private boolean asyncCapture;
+
+	private int asyncCaptureQueueCapacity = 1024;
+
+	private int asyncCaptureBatchSize = 64;
+
+	private OverflowPolicy asyncCaptureOverflowPolicy = OverflowPolicy.BLOCK;
+
+	private AsyncCaptureWriter asyncCaptureWriter;
+
+	// Writes the captures of completed futures if async capture is disabled. It is started by the first one.
+	private AsyncCaptureWriter completedFutureWriter;
+
+	private boolean destroyed;
+
+	private CaptureReplayMetrics metrics = NoOpCaptureReplayMetrics.INSTANCE;
+
+	private CapturePolicy capturePolicy;
+
+	private Map<String, CaptureProjection> captureProjections = Collections.emptyMap();
+
+	private boolean captureSequence;
+
+	private SequencePlayback sequencePlayback = SequencePlayback.SEQUENTIAL;
+
+	private CaptureSequences captureSequences;
+
+	private ReplayLatency replayLatency = ReplayLatency.NONE;
+
+	private double replayLatencyPercentile = 99.0;
+
+	private double replayLatencyFactor = 1.0;
+
+	private LatencySimulator latencySimulator;
+
+	// Created if the replay latency is a percentile of the recorded durations, and they can be found.
+	private RecordedDurationsLoader recordedDurationsLoader;
+
+	private boolean deduplicatePayloads;
+
+	private int payloadCacheSize = 1024;
+
+	private PayloadStore payloadStore;
+
+	private int replayInstanceCacheSize = 1024;
+
+	// Keeps the deserialized captures of methods that share or copy replayed instances. Entries are invalidated when
+	// their capture key is captured again. It is created with the call plan of the first such method, so captures of
+	// data mappers without them are written without taking a lock.
+	private volatile BoundedCache<String, TypeWrapper> replayInstanceCache;
+
+	private Set<Class<?>> immutableTypes = Collections.emptySet();
+
+	private StructuralCopier structuralCopier;
+
+	private final StripedLocks captureKeyLocks = new StripedLocks(CAPTURE_KEY_LOCK_STRIPES);
+
+	private final ElementsCleaner elementsCleaner = new ElementsCleaner();
 
 	public JsonDataMapper(CaptureFileProvider captureFileProvider) {
 		setCaptureFileProvider(captureFileProvider);
 	}
 
+	public JsonDataMapper(CaptureStore captureStore) {
+		setCaptureStore(captureStore);
+	}
+
+	@Override
+	public void writeCapturedData(Method method, Object returnValue, Object[] arguments) throws DataMappingException {
+		writeCapturedData(method, returnValue, arguments, 0);
+	}
+
+	@Override
+	public void writeCapturedData(Method method, Object returnValue, Object[] arguments, long duration) throws DataMappingException {
+		CallPlan callPlan = getCallPlan(method);
+		if (callPlan.captureElements && returnValue instanceof Collection) {
+			writeCapturedElements(method, (Collection<?>) returnValue, arguments, callPlan, duration);
+			return;
+		}
+		// null stands for both null results and void methods.
+		String typeName = returnValue != null ? callPlan.getTypeName(returnValue.getClass()) : null;
+		TypeWrapper typeWrapper = new TypeWrapper(typeName, returnValue);
+		typeWrapper.setDuration(duration);
+		writeCapturedData(method, arguments, callPlan, typeWrapper, asyncCaptureWriter);
+	}
+
+	@Override
+	public void writeCapturedException(Method method, Throwable throwable, Object[] arguments, long duration) throws DataMappingException {
+		CallPlan callPlan = getCallPlan(method);
+		TypeWrapper typeWrapper = new TypeWrapper(callPlan.getTypeName(throwable.getClass()), throwable, true);
+		typeWrapper.setDuration(duration);
+		writeCapturedData(method, arguments, callPlan, typeWrapper, asyncCaptureWriter);
+	}
+
 	@Override
-	public void writeCapturedData(MethodSignature signature, Object returnValue, Object[] arguments) throws DataMappingException {
-		Method method = signature.getMethod();
-		String captureFileName = getCaptureFileName(method, arguments);
+	public void writeCompletedFuture(Method method, Object value, Throwable failure, Object[] arguments, long duration) throws DataMappingException {
+		CallPlan callPlan = getCallPlan(method);
+		TypeWrapper typeWrapper;
+		if (failure == null) {
+			typeWrapper = new TypeWrapper(value != null ? callPlan.getTypeName(value.getClass()) : null, value);
+		} else {
+			typeWrapper = new TypeWrapper(callPlan.getTypeName(failure.getClass()), failure, true);
+		}
+		typeWrapper.setDuration(duration);
+		writeCapturedData(method, arguments, callPlan, typeWrapper, getCompletedFutureWriter());
+	}
+
+	@Override
+	public Object writeCapturedElements(Method method, Object returnValue, Object[] arguments, long duration) throws DataMappingException {
+		if (returnValue instanceof Iterator) {
+			CapturedElementsWriter elementsWriter = openCapturedElements(method, arguments, getCallPlan(method), ITERATOR_TYPE, duration);
+			return elementsWriter != null ? elementsWriter.capture((Iterator<?>) returnValue) : returnValue;
+		}
+		if (returnValue instanceof Stream) {
+			CapturedElementsWriter elementsWriter = openCapturedElements(method, arguments, getCallPlan(method), STREAM_TYPE, duration);
+			return elementsWriter != null ? elementsWriter.capture((Stream<?>) returnValue) : returnValue;
+		}
+		writeCapturedData(method, returnValue, arguments, duration);
+		return returnValue;
+	}
+
+	private void writeCapturedElements(Method method, Collection<?> returnValue, Object[] arguments, CallPlan callPlan, long duration) throws DataMappingException {
+		CapturedElementsWriter elementsWriter = openCapturedElements(method, arguments, callPlan, callPlan.getTypeName(returnValue.getClass()), duration);
+		if (elementsWriter == null) {
+			return;
+		}
+		try {
+			for (Object element : returnValue) {
+				elementsWriter.write(element);
+			}
+			elementsWriter.close();
+		} catch (IOException e) {
+			throw new DataMappingException(String.format("Could not write test data for method %s.", method), e);
+		}
+	}
+
+	// Returns null if the call is not captured.
+	private CapturedElementsWriter openCapturedElements(Method method, Object[] arguments, CallPlan callPlan, String typeName, long duration) throws DataMappingException {
+		String captureKey = getCaptureKeyIfCaptured(method, arguments, callPlan);
+		if (captureKey == null) {
+			return null;
+		}
 		try {
-			File captureFile = captureFileProvider.getCaptureFile(captureFileName);
-			enableTypeSupport();
-			objectMapper.writeValue(captureFile, new TypeWrapper(returnValue.getClass().getCanonicalName(), returnValue));
+			if (captureSequences != null) {
+				captureKey = captureSequences.getAppendCaptureKey(captureKey);
+			}
+			// Elements are written straight to the capture store. The header comes first, so replays can hand out
+			// the elements before they have been read.
+			JsonGenerator generator = objectMapper.getFactory().createGenerator(captureStore.openCaptureOutput(captureKey));
+			generator.writeStartObject();
+			generator.writeStringField(TYPE_FIELD, typeName);
+			generator.writeNumberField(DURATION_FIELD, duration);
+			generator.writeArrayFieldStart(ELEMENTS_FIELD);
+			ObjectMapper elementMapper = callPlan.projectingObjectMapper != null ? callPlan.projectingObjectMapper : objectMapper;
+			return new CapturedElementsWriter(method, captureKey, generator, elementMapper, metrics, replayCache, captureKeyLocks.get(captureKey), elementsCleaner);
+		} catch (IOException e) {
+			metrics.recordError(method);
+			throw new DataMappingException(String.format("Could not write test data for capture key %s.", captureKey), e);
+		}
+	}
+
+	// Returns null if the capture policy skips the call.
+	private String getCaptureKeyIfCaptured(Method method, Object[] arguments, CallPlan callPlan) {
+		CapturePolicy capturePolicy = callPlan.capturePolicy;
+		if (capturePolicy != null && !capturePolicy.shouldCaptureCall(method)) {
+			return null;
+		}
+		// Strategies that detect collisions only check the keys of captured calls. Replays only compute the key.
+		String captureKey = captureKeyStrategy instanceof CollisionDetectingCaptureKeyStrategy
+				? ((CollisionDetectingCaptureKeyStrategy) captureKeyStrategy).getCaptureKeyForCapture(method, arguments)
+				: captureKeyStrategy.getCaptureKey(method, arguments);
+		if (capturePolicy != null && !capturePolicy.shouldCaptureKey(method, captureKey)) {
+			return null;
+		}
+		return captureKey;
+	}
+
+	// Without a writer, the capture store is written by the calling thread.
+	private void writeCapturedData(Method method, Object[] arguments, CallPlan callPlan, TypeWrapper typeWrapper, AsyncCaptureWriter writer) throws DataMappingException {
+		String captureKey = getCaptureKeyIfCaptured(method, arguments, callPlan);
+		if (captureKey == null) {
+			return;
+		}
+		try {
+			long serializationStart = System.nanoTime();
+			// Projections select properties of return values. Exceptions are always captured as a whole.
+			ObjectWriter objectWriter = callPlan.projectingWriter != null && !typeWrapper.isException() ? callPlan.projectingWriter : typeWrapperWriter;
+			byte[] capturedData;
+			if (deduplicatePayloads) {
+				capturedData = writePayload(method, typeWrapper, objectWriter);
+			} else {
+				capturedData = objectWriter.writeValueAsBytes(typeWrapper);
+				metrics.recordPayloadSize(method, capturedData.length);
+			}
+			long writeStart = System.nanoTime();
+			metrics.recordSerialization(method, writeStart - serializationStart);
+			// The index of a sequence element is taken once the value has been serialized, so values that cannot be
+			// serialized do not leave a gap.
+			if (captureSequences != null) {
+				captureKey = captureSequences.getAppendCaptureKey(captureKey);
+			}
+			if (writer != null) {
+				// The return value is serialized on the calling thread. Only the I/O is left to the writer thread.
+				writer.write(captureKey, capturedData);
+			} else {
+				writeCapturedData(captureKey, capturedData);
+			}
+			metrics.recordWrite(method, System.nanoTime() - writeStart);
 		} catch (Exception e) {
-			throw new DataMappingException(String.format("Could not write test data to file %s.", captureFileName), e);
+			metrics.recordError(method);
+			throw new DataMappingException(String.format("Could not write test data for capture key %s.", captureKey), e);
+		}
+	}
+
+	// Stores the payload of the capture under its hash, unless it has been stored before, and returns a capture that
+	// refers to it.
+	private byte[] writePayload(Method method, TypeWrapper typeWrapper, ObjectWriter writer) throws IOException {
+		// The duration differs from call to call. Without it, equal results have equal payloads.
+		TypeWrapper payload = new TypeWrapper(typeWrapper.getType(), typeWrapper.getObject(), typeWrapper.isException());
+		byte[] payloadData = writer.writeValueAsBytes(payload);
+		metrics.recordPayloadSize(method, payloadData.length);
+		String payloadKey = payloadStore.store(payloadData);
+		TypeWrapper reference = new TypeWrapper(typeWrapper.getType(), null, typeWrapper.isException());
+		reference.setDuration(typeWrapper.getDuration());
+		reference.setPayload(payloadKey);
+		return typeWrapperWriter.writeValueAsBytes(reference);
+	}
+
+	void writeCapturedData(String captureKey, byte[] capturedData) throws IOException {
+		if (!hasReplayCaches()) {
+			storeCapturedData(captureKey, capturedData);
+			return;
+		}
+		// A concurrent replay of the same key must not put the replaced capture back into the cache.
+		synchronized (captureKeyLocks.get(captureKey)) {
+			storeCapturedData(captureKey, capturedData);
+			if (replayCache != null) {
+				replayCache.invalidate(captureKey);
+			}
+			if (replayInstanceCache != null) {
+				replayInstanceCache.remove(captureKey);
+			}
+		}
+	}
+
+	boolean hasReplayCaches() {
+		return replayCache != null || replayInstanceCache != null;
+	}
+
+	private void storeCapturedData(String captureKey, byte[] capturedData) throws IOException {
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		try {
+			outputStream.write(capturedData);
+		} finally {
+			outputStream.close();
 		}
 	}
 
@@ -56,48 +366,499 @@ public class JsonDataMapper implements DataMapper, InitializingBean {
 	}
 
 	@Override
-	public Object getCapturedData(String methodName, Object[] arguments) throws DataMappingException {
-		String captureFileName = generateCaptureFileName(methodName, getArgumentHashCodes(arguments));
+	public Object getCapturedData(Method method, Object[] arguments) throws DataMappingException {
+		DelayedCapturedData capturedData = getDelayedCapturedData(method, arguments);
+		capturedData.awaitDelay();
+		return capturedData.getCapturedData();
+	}
+
+	@Override
+	public DelayedCapturedData getDelayedCapturedData(final Method method, Object[] arguments) throws DataMappingException {
+		final long replayStart = System.nanoTime();
+		String captureKey = captureKeyStrategy.getCaptureKey(method, arguments);
 		try {
-			enableTypeSupport();
-			TypeWrapper typeWrapper = objectMapper.readValue(
-					new FileReader(captureFileProvider.getCaptureFile(captureFileName)),
-					TypeWrapper.class
-			);
-			return objectMapper.convertValue(
-					typeWrapper.getObject(),
-					objectMapper.getTypeFactory().constructFromCanonical(typeWrapper.getType())
-			);
+			final CallPlan callPlan = getCallPlan(method);
+			DelayedCapturedData capturedData;
+			if (captureSequences != null) {
+				capturedData = captureSequences.replay(captureKey, new CaptureSequences.ElementReader<DelayedCapturedData>() {
+					@Override
+					public DelayedCapturedData read(String elementKey) throws IOException {
+						return getDelayedCapturedData(method, callPlan, elementKey, replayStart);
+					}
+				});
+			} else {
+				capturedData = getDelayedCapturedData(method, callPlan, captureKey, replayStart);
+			}
+			metrics.recordReplayHit(method);
+			return capturedData;
+		} catch (FileNotFoundException e) {
+			metrics.recordReplayMiss(method);
+			throw new DataMappingException(String.format("Could not read test data for capture key %s.", captureKey), e);
 		} catch (IOException e) {
-			throw new DataMappingException(String.format("Could not read from capture file %s.", captureFileName), e);
+			metrics.recordError(method);
+			throw new DataMappingException(String.format("Could not read test data for capture key %s.", captureKey), e);
+		} catch (RuntimeException e) {
+			metrics.recordError(method);
+			throw e;
+		}
+	}
+
+	private DelayedCapturedData getDelayedCapturedData(Method method, CallPlan callPlan, String captureKey, long replayStart) throws IOException {
+		TypeWrapper capturedData = replayCapturedData(method, callPlan, captureKey);
+		long delay = 0;
+		if (latencySimulator != null) {
+			// Methods that have not been warmed up read their recorded durations on another thread.
+			if (recordedDurationsLoader != null && !callPlan.recordedDurationsRequested) {
+				callPlan.recordedDurationsRequested = true;
+				recordedDurationsLoader.loadLater(method);
+			}
+			delay = latencySimulator.getRemainingLatency(method, captureKey, capturedData.getDuration(), replayStart);
+		}
+		return new DelayedCapturedData(captureKey, capturedData, delay);
+	}
+
+	private TypeWrapper replayCapturedData(Method method, CallPlan callPlan, String captureKey) throws IOException {
+		ReplayInstances replayInstances = callPlan.replayInstances;
+		// Once a return value of the method could not be copied, its replays are deserialized without the cache.
+		if (replayInstances == ReplayInstances.SHARE || replayInstances == ReplayInstances.COPY && !callPlan.copyFailed) {
+			TypeWrapper capturedData = replayInstanceCache.get(captureKey);
+			if (capturedData == null) {
+				capturedData = loadReplayInstance(method, callPlan, captureKey);
+			}
+			if (replayInstances == ReplayInstances.COPY && isCopyable(capturedData)) {
+				capturedData = copyReplayInstance(method, callPlan, captureKey, capturedData);
+			}
+			return capturedData;
+		}
+		return readCapturedData(method, callPlan, captureKey);
+	}
+
+	private TypeWrapper readCapturedData(Method method, CallPlan callPlan, String captureKey) throws IOException {
+		TypeWrapper capturedData;
+		// Elements are read while they are consumed. Caching them would hold the whole capture in memory.
+		if (replayCache != null && !callPlan.replaysElements) {
+			// The cache holds the parsed tree of each capture and an instance deserialized from it, so a hit costs a
+			// lookup plus a copy of that instance, without touching the capture store.
+			TypeWrapper replayInstance = callPlan.copyFailed ? null : replayCache.getReplayInstance(captureKey);
+			if (replayInstance != null) {
+				capturedData = copyCapturedData(callPlan, replayInstance);
+				if (capturedData != null) {
+					replayCache.getStatistics().recordHeapHit();
+					return capturedData;
+				}
+			}
+			JsonNode cachedData = replayCache.get(captureKey);
+			if (cachedData == null) {
+				cachedData = loadCachedData(method, captureKey);
+			} else {
+				replayCache.getStatistics().recordHeapHit();
+			}
+			long deserializationStart = System.nanoTime();
+			capturedData = readCapturedData(callPlan, captureKey, cachedData.traverse());
+			metrics.recordDeserialization(method, System.nanoTime() - deserializationStart);
+			if (isCopyable(capturedData) && !callPlan.copyFailed) {
+				// The caller may modify its instance, so the cache keeps a copy of it.
+				replayInstance = copyCapturedData(callPlan, capturedData);
+				if (replayInstance != null) {
+					replayCache.putReplayInstance(captureKey, cachedData, replayInstance);
+				}
+			}
+		} else {
+			JsonParser parser = openCapturedData(method, captureKey);
+			capturedData = null;
+			try {
+				long deserializationStart = System.nanoTime();
+				capturedData = readCapturedData(callPlan, captureKey, parser);
+				metrics.recordDeserialization(method, System.nanoTime() - deserializationStart);
+				metrics.recordPayloadSize(method, (int) parser.getCurrentLocation().getByteOffset());
+			} finally {
+				// Lazily replayed elements close the parser once they have been read.
+				if (capturedData == null || !isReplayedLazily(capturedData.getObject())) {
+					parser.close();
+				}
+			}
+		}
+		if (capturedData.getPayload() != null) {
+			capturedData = readPayload(method, callPlan, capturedData);
+		}
+		return capturedData;
+	}
+
+	private TypeWrapper loadReplayInstance(Method method, CallPlan callPlan, String captureKey) throws IOException {
+		// Threads that miss the same key wait for the first one instead of deserializing the capture again, and a
+		// concurrent capture of the key cannot be overwritten by the instance read before it.
+		synchronized (captureKeyLocks.get(captureKey)) {
+			TypeWrapper capturedData = replayInstanceCache.get(captureKey);
+			if (capturedData != null) {
+				return capturedData;
+			}
+			capturedData = readCapturedData(method, callPlan, captureKey);
+			if (!capturedData.isException() && !isReplayedLazily(capturedData.getObject())) {
+				replayInstanceCache.put(captureKey, capturedData);
+			}
+			return capturedData;
+		}
+	}
+
+	private TypeWrapper copyReplayInstance(Method method, CallPlan callPlan, String captureKey, TypeWrapper replayInstance) throws IOException {
+		TypeWrapper capturedData = copyCapturedData(callPlan, replayInstance);
+		if (capturedData != null) {
+			return capturedData;
+		}
+		// The instance cannot be handed out without a copy, so it is of no use anymore.
+		replayInstanceCache.remove(captureKey);
+		return readCapturedData(method, callPlan, captureKey);
+	}
+
+	// Returns null if the return values of the method cannot be copied. They are deserialized for every replay instead.
+	private TypeWrapper copyCapturedData(CallPlan callPlan, TypeWrapper capturedData) {
+		try {
+			TypeWrapper copiedData = new TypeWrapper(capturedData.getType(), structuralCopier.copy(capturedData.getObject()));
+			copiedData.setDuration(capturedData.getDuration());
+			return copiedData;
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			callPlan.copyFailed = true;
+			return null;
+		}
+	}
+
+	// Exceptions, lazily replayed elements and references to payloads are never copied.
+	private static boolean isCopyable(TypeWrapper capturedData) {
+		return !capturedData.isException() && capturedData.getPayload() == null && !isReplayedLazily(capturedData.getObject());
+	}
+
+	@Override
+	public void warmUp(Method method) {
+		CallPlan callPlan = getCallPlan(method);
+		// Warm-up does not run on replaying threads, so it can read the recorded durations right away.
+		if (recordedDurationsLoader != null) {
+			recordedDurationsLoader.load(method);
+		}
+		// The object mapper creates and caches serializers and deserializers the first time it is asked for them.
+		objectMapper.canSerialize(TypeWrapper.class);
+		JavaType returnType = objectMapper.getTypeFactory().constructType(method.getGenericReturnType());
+		// Elements and the values of futures are captured instead of their container.
+		Class<?> rawReturnType = returnType.getRawClass();
+		boolean isContainer = returnType.hasRawClass(Iterator.class) || returnType.hasRawClass(Stream.class)
+				|| Future.class.isAssignableFrom(rawReturnType) || CompletionStage.class.isAssignableFrom(rawReturnType);
+		if (isContainer && returnType.containedTypeCount() > 0) {
+			returnType = returnType.containedType(0);
+		}
+		if (returnType.hasRawClass(void.class) || returnType.hasRawClass(Object.class)) {
+			return;
+		}
+		objectMapper.canSerialize(returnType.getRawClass());
+		objectMapper.canDeserialize(returnType);
+		if (callPlan.projectingObjectMapper != null) {
+			callPlan.projectingObjectMapper.canSerialize(TypeWrapper.class);
+			callPlan.projectingObjectMapper.canSerialize(returnType.getRawClass());
+		}
+	}
+
+	@Override
+	public int preloadCaptures(ExecutorService executorService) throws DataMappingException {
+		// Without a replay cache, preloaded captures would be read again by their first replay.
+		if (replayCache == null || !(captureStore instanceof ListableCaptureStore)) {
+			return 0;
+		}
+		return new CapturePreloader(this).preload((ListableCaptureStore) captureStore, executorService);
+	}
+
+	// Reads the capture into the replay cache and deserializes it once. Returns false for empty captures.
+	boolean preloadCapture(String captureKey) throws IOException {
+		byte[] serializedData = replayCache.needsSerializedData() ? readSerializedData(captureKey) : null;
+		JsonNode cachedData = readCaptureTree(captureKey, serializedData);
+		if (cachedData == null) {
+			return false;
+		}
+		// Captures of elements bypass the replay cache, since they are read while they are consumed.
+		if (!cachedData.has(ELEMENTS_FIELD)) {
+			replayCache.put(captureKey, cachedData, serializedData);
+		}
+		try {
+			readCaptureCompletely(captureKey, cachedData);
+			return true;
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+	}
+
+	// Reads a capture like a replay would, including all of its elements. The capture does not belong to a known
+	// method, so it is read without the capture policies and projections of one.
+	private void readCaptureCompletely(String captureKey, JsonNode capture) throws IOException {
+		JsonParser parser = capture.traverse();
+		try {
+			Object object = readCapturedData(UNBOUND_CALL_PLAN, captureKey, parser).getObject();
+			Iterator<?> elements = object instanceof Stream ? ((Stream<?>) object).iterator() : object instanceof Iterator ? (Iterator<?>) object : null;
+			while (elements != null && elements.hasNext()) {
+				elements.next();
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	// The following methods let the CaptureSetTool work on the trees of captures, without knowing the methods they
+	// belong to. Returns null for empty captures.
+	JsonNode readCaptureTree(String captureKey) throws IOException {
+		return readCaptureTree(captureKey, null);
+	}
+
+	// Deserializes the capture like a replay would and throws if it cannot be replayed as its recorded type.
+	void validateCapture(String captureKey, JsonNode capture) throws IOException {
+		try {
+			readCaptureCompletely(captureKey, capture);
+		} catch (IllegalArgumentException | UncheckedIOException e) {
+			// Objects that do not match their recorded type are converted into it while they are read.
+			throw new JsonMappingException(String.format("Captured data cannot be replayed as %s: %s", capture.path(TYPE_FIELD).asText(), e.getMessage()), e);
+		}
+	}
+
+	byte[] serializeCaptureTree(JsonNode capture) throws IOException {
+		return treeMapper.writeValueAsBytes(capture);
+	}
+
+	private JsonNode loadCachedData(Method method, String captureKey) throws IOException {
+		// Threads that miss the same key wait for the first one instead of loading the capture again.
+		synchronized (captureKeyLocks.get(captureKey)) {
+			JsonNode cachedData = replayCache.get(captureKey);
+			if (cachedData != null) {
+				replayCache.getStatistics().recordHeapHit();
+				return cachedData;
+			}
+			// Captures that have been evicted from the heap may still be kept outside of it.
+			byte[] serializedData = replayCache.getSerializedData(captureKey);
+			if (serializedData != null) {
+				replayCache.getStatistics().recordOffHeapHit();
+			} else {
+				long readStart = System.nanoTime();
+				if (replayCache.needsSerializedData()) {
+					serializedData = readSerializedData(captureKey);
+				}
+				metrics.recordRead(method, System.nanoTime() - readStart);
+				replayCache.getStatistics().recordMiss();
+			}
+			JsonParser parser = openCaptureTree(captureKey, serializedData);
+			try {
+				cachedData = treeMapper.readTree(parser);
+				if (cachedData == null) {
+					throw new FileNotFoundException(String.format("No data has been captured for capture key %s.", captureKey));
+				}
+				metrics.recordPayloadSize(method, (int) parser.getCurrentLocation().getByteOffset());
+			} finally {
+				parser.close();
+			}
+			replayCache.put(captureKey, cachedData, serializedData);
+			return cachedData;
+		}
+	}
+
+	// Returns null for empty captures.
+	private JsonNode readCaptureTree(String captureKey, byte[] serializedData) throws IOException {
+		JsonParser parser = openCaptureTree(captureKey, serializedData);
+		try {
+			return treeMapper.readTree(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	// Without the serialized capture, the tree is parsed straight from the capture store.
+	private JsonParser openCaptureTree(String captureKey, byte[] serializedData) throws IOException {
+		if (serializedData != null) {
+			return objectMapper.getFactory().createParser(serializedData);
+		}
+		return objectMapper.getFactory().createParser(captureStore.openCaptureInput(captureKey));
+	}
+
+	private byte[] readSerializedData(String captureKey) throws IOException {
+		InputStream inputStream = captureStore.openCaptureInput(captureKey);
+		try {
+			return StreamUtils.copyToByteArray(inputStream);
+		} finally {
+			inputStream.close();
 		}
 	}
 
-	protected String getCaptureFileName(Method method, Object[] arguments) {
-		return generateCaptureFileName(method.getName(), getArgumentHashCodes(arguments));
+	private JsonParser openCapturedData(Method method, String captureKey) throws IOException {
+		long readStart = System.nanoTime();
+		InputStream inputStream = captureStore.openCaptureInput(captureKey);
+		metrics.recordRead(method, System.nanoTime() - readStart);
+		// Captured data is parsed straight from the capture store. The parser closes the input stream.
+		return objectMapper.getFactory().createParser(inputStream);
 	}
 
-	private long[] getArgumentHashCodes(Object[] arguments) {
-		long[] argumentHashCodes = new long[arguments.length];
-		for (int i = 0; i < arguments.length; i++) {
-			if (arguments[i] == null) {
-				argumentHashCodes[i] = 0;
-			} else if (Enum.class.isAssignableFrom(arguments[i].getClass())) {
-				argumentHashCodes[i] = arguments[i].toString().hashCode();
+	private TypeWrapper readCapturedData(CallPlan callPlan, String captureKey, JsonParser parser) throws IOException {
+		// Capture file providers may hand out empty files for calls that have never been captured.
+		if (parser.nextToken() == null) {
+			throw new FileNotFoundException(String.format("No data has been captured for capture key %s.", captureKey));
+		}
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException("Captured data must start with an object.", parser.getCurrentLocation());
+		}
+		TypeWrapper capturedData = new TypeWrapper();
+		boolean hasType = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			if (TYPE_FIELD.equals(fieldName)) {
+				hasType = true;
+				capturedData.setType(valueToken == JsonToken.VALUE_NULL ? null : parser.getText());
+			} else if (OBJECT_FIELD.equals(fieldName)) {
+				// The object carries its own type id, so it is deserialized into its runtime type in a single pass.
+				capturedData.setObject(objectReader.readValue(parser));
+			} else if (EXCEPTION_FIELD.equals(fieldName)) {
+				capturedData.setException(parser.getValueAsBoolean());
+			} else if (DURATION_FIELD.equals(fieldName)) {
+				capturedData.setDuration(parser.getValueAsLong());
+			} else if (PAYLOAD_FIELD.equals(fieldName)) {
+				capturedData.setPayload(valueToken == JsonToken.VALUE_NULL ? null : parser.getText());
+			} else if (ELEMENTS_FIELD.equals(fieldName)) {
+				if (valueToken != JsonToken.START_ARRAY) {
+					throw new JsonParseException("Captured elements must be an array.", parser.getCurrentLocation());
+				}
+				// The elements are the last field. They are read while they are consumed.
+				capturedData.setObject(new ReplayedElements(parser, objectReader, captureKey));
+				break;
 			} else {
-				argumentHashCodes[i] = arguments[i].hashCode();
+				parser.skipChildren();
 			}
 		}
-		return argumentHashCodes;
+		if (!hasType) {
+			throw new JsonParseException("Captured data does not contain a type.", parser.getCurrentLocation());
+		}
+		if (capturedData.getPayload() != null) {
+			// The object is read from the payload.
+			return capturedData;
+		}
+		Object object = capturedData.getObject();
+		String typeName = capturedData.getType();
+		if (object instanceof ReplayedElements) {
+			capturedData.setObject(getReplayedElements(callPlan, typeName, (ReplayedElements) object));
+			return capturedData;
+		}
+		if (capturedData.isException() && !(object instanceof Throwable)) {
+			throw new JsonParseException("Captured exception is not a Throwable.", parser.getCurrentLocation());
+		}
+		if (object != null && typeName != null && !callPlan.getTypeName(object.getClass()).equals(typeName)) {
+			// Only captures whose object does not match the recorded type need a second pass.
+			capturedData.setObject(objectMapper.convertValue(object, callPlan.getJavaType(typeName, objectMapper.getTypeFactory())));
+		}
+		return capturedData;
+	}
+
+	// Completes a capture that refers to a deduplicated payload with the object of the payload.
+	private TypeWrapper readPayload(final Method method, final CallPlan callPlan, TypeWrapper reference) throws IOException {
+		TypeWrapper payload = payloadStore.read(reference.getPayload(), new PayloadStore.PayloadReader() {
+			@Override
+			public JsonParser open(String payloadKey) throws IOException {
+				return openCapturedData(method, payloadKey);
+			}
+
+			@Override
+			public TypeWrapper read(String payloadKey, JsonParser parser) throws IOException {
+				return readCapturedData(callPlan, payloadKey, parser);
+			}
+		});
+		TypeWrapper capturedData = new TypeWrapper(payload.getType(), payload.getObject(), payload.isException());
+		capturedData.setDuration(reference.getDuration());
+		return capturedData;
 	}
 
-	private String generateCaptureFileName(String methodName, long[] argumentHashCodes) {
-		StringBuilder stringBuilder = new StringBuilder();
-		stringBuilder.append(methodName);
-		for (long argumentHashCode : argumentHashCodes) {
-			stringBuilder.append("-").append(argumentHashCode);
+	private Object getReplayedElements(CallPlan callPlan, String typeName, ReplayedElements elements) throws IOException {
+		if (ITERATOR_TYPE.equals(typeName)) {
+			return elementsCleaner.register(elements, elements.getParser());
 		}
-		return stringBuilder.toString();
+		if (STREAM_TYPE.equals(typeName)) {
+			// The stream reads through the elements, so they stay reachable while the stream is consumed.
+			return elementsCleaner.register(elements, elements.getParser()).toStream();
+		}
+		Collection<Object> collection = createCollection(callPlan.getJavaType(typeName, objectMapper.getTypeFactory()).getRawClass());
+		elements.readInto(collection);
+		return collection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<Object> createCollection(Class<?> type) throws JsonMappingException {
+		if (!Collection.class.isAssignableFrom(type)) {
+			throw new JsonMappingException(String.format("Captured elements cannot be replayed as %s.", type.getName()));
+		}
+		try {
+			return (Collection<Object>) type.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			// Collections without an accessible default constructor, e.g. unmodifiable ones, are replayed as modifiable ones.
+			return Set.class.isAssignableFrom(type) ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+		}
+	}
+
+	private static boolean isReplayedLazily(Object object) {
+		return object instanceof ReplayedElements || object instanceof Stream;
+	}
+
+	private CallPlan getCallPlan(Method method) {
+		CallPlan callPlan = callPlans.get(method);
+		if (callPlan == null) {
+			Capturable capturable = AnnotationUtils.findAnnotation(method, Capturable.class);
+			ObjectMapper projectingObjectMapper = createProjectingObjectMapper(method, capturable);
+			ReplayInstances replayInstances = capturable != null ? capturable.replayInstances() : ReplayInstances.DESERIALIZE;
+			Class<?> returnType = method.getReturnType();
+			boolean replaysElements = Iterator.class.isAssignableFrom(returnType) || Stream.class.isAssignableFrom(returnType);
+			callPlan = new CallPlan(createCapturePolicy(capturable), capturable != null && capturable.captureElements(), replaysElements,
+					projectingObjectMapper, replayInstances);
+			if (callPlan.replayInstances != ReplayInstances.DESERIALIZE) {
+				createReplayInstanceCache();
+			}
+			CallPlan existingCallPlan = callPlans.putIfAbsent(method, callPlan);
+			if (existingCallPlan != null) {
+				callPlan = existingCallPlan;
+			}
+		}
+		return callPlan;
+	}
+
+	private synchronized void createReplayInstanceCache() {
+		if (replayInstanceCache == null) {
+			replayInstanceCache = new BoundedCache<String, TypeWrapper>(replayInstanceCacheSize, EvictionPolicy.LRU);
+		}
+	}
+
+	// Returns null if all properties of the return values are captured.
+	private ObjectMapper createProjectingObjectMapper(Method method, Capturable capturable) {
+		// Projections configured on the data mapper take precedence, so they can be changed without recompiling.
+		CaptureProjection captureProjection = captureProjections.get(CaptureProjection.getProjectionKey(method));
+		if (captureProjection == null && capturable != null) {
+			captureProjection = new CaptureProjection(capturable);
+		}
+		if (captureProjection == null || !captureProjection.isProjecting()) {
+			return null;
+		}
+		return CaptureProjectionFilter.createProjectingObjectMapper(objectMapper, captureProjection);
+	}
+
+	private CapturePolicy createCapturePolicy(Capturable capturable) {
+		List<CapturePolicy> capturePolicies = new ArrayList<CapturePolicy>();
+		if (capturePolicy != null) {
+			capturePolicies.add(capturePolicy);
+		}
+		// Policies declared on the method apply in addition to the global one.
+		if (capturable != null) {
+			if (capturable.sampleRate() < 1.0) {
+				capturePolicies.add(new SamplingCapturePolicy(capturable.sampleRate()));
+			}
+			if (capturable.maxCapturesPerSecond() > 0) {
+				capturePolicies.add(new RateLimitingCapturePolicy(capturable.maxCapturesPerSecond()));
+			}
+			if (capturable.maxCapturesPerKey() > 0) {
+				capturePolicies.add(new LimitPerKeyCapturePolicy(capturable.maxCapturesPerKey()));
+			}
+			if (capturable.skipCapturedKeys()) {
+				capturePolicies.add(new SkipCapturedKeysCapturePolicy());
+			}
+		}
+		if (capturePolicies.isEmpty()) {
+			return null;
+		}
+		return capturePolicies.size() == 1 ? capturePolicies.get(0) : new CompositeCapturePolicy(capturePolicies);
 	}
 
 	@Override
@@ -105,25 +866,332 @@ public class JsonDataMapper implements DataMapper, InitializingBean {
 		if (objectMapper == null) {
 			objectMapper = createObjectMapper();
 		}
-		Validate.notNull(captureFileProvider, "The capture file provider must be set.");
+		// The configuration must not change after readers and writers have been created.
+		enableTypeSupport();
+		objectReader = objectMapper.reader(Object.class);
+		typeWrapperWriter = objectMapper.writerWithType(TypeWrapper.class);
+		Validate.notNull(captureStore, "The capture store must be set.");
+		if (replayCacheSize > 0 || replayCacheHeapBudget > 0 || replayCacheOffHeapBudget > 0) {
+			// Without a size, the number of captures on the heap is only bounded by the heap budget.
+			int maximumSize = replayCacheSize > 0 ? replayCacheSize : Integer.MAX_VALUE;
+			replayCache = new ReplayCache(maximumSize, replayCacheHeapBudget, replayCacheEvictionPolicy, replayCacheOffHeapBudget);
+		}
+		structuralCopier = new StructuralCopier(immutableTypes);
+		// Trees must be parsed as they are. Default typing would expect a type id for JsonNode itself.
+		treeMapper = objectMapper.copy().disableDefaultTyping();
+		// Captures that refer to payloads are replayed even if payloads are no longer deduplicated.
+		payloadStore = new PayloadStore(captureStore, treeMapper, structuralCopier, deduplicatePayloads ? payloadCacheSize : 0);
+		if (captureSequence) {
+			captureSequences = new CaptureSequences(captureStore, sequencePlayback);
+		}
+		if (replayLatency != ReplayLatency.NONE) {
+			latencySimulator = new LatencySimulator(replayLatency, replayLatencyPercentile, replayLatencyFactor);
+			if (latencySimulator.needsRecordedDurations() && captureStore instanceof ListableCaptureStore
+					&& captureKeyStrategy instanceof PrefixedCaptureKeyStrategy) {
+				recordedDurationsLoader = new RecordedDurationsLoader((ListableCaptureStore) captureStore, (PrefixedCaptureKeyStrategy) captureKeyStrategy,
+						latencySimulator, objectMapper.getFactory());
+			}
+		}
+		if (asyncCapture) {
+			asyncCaptureWriter = createAsyncCaptureWriter();
+			asyncCaptureWriter.start();
+		}
+	}
+
+	private AsyncCaptureWriter createAsyncCaptureWriter() {
+		// The writer thread has to invalidate cached captures just like synchronous captures do. The replay instance
+		// cache may only be created later on, so the wrapper decides for each capture.
+		return new AsyncCaptureWriter(new CacheInvalidatingCaptureStore(), asyncCaptureQueueCapacity, asyncCaptureBatchSize, asyncCaptureOverflowPolicy);
+	}
+
+	// The thread that completes a future never writes to the capture store, even if async capture is disabled. Futures
+	// that complete after the data mapper has been destroyed are counted as dropped captures by the writer.
+	private synchronized AsyncCaptureWriter getCompletedFutureWriter() {
+		if (asyncCaptureWriter != null) {
+			return asyncCaptureWriter;
+		}
+		if (completedFutureWriter == null) {
+			completedFutureWriter = createAsyncCaptureWriter();
+			if (!destroyed) {
+				completedFutureWriter.start();
+			}
+		}
+		return completedFutureWriter;
 	}
 
-	private ObjectMapper createObjectMapper() {
-		ObjectMapper objectMapper = new ObjectMapper();
+	@Override
+	public void destroy() throws Exception {
+		// Pending captures are written before the application context goes down.
+		if (asyncCaptureWriter != null) {
+			asyncCaptureWriter.shutdown();
+		}
+		AsyncCaptureWriter completedFutureWriter;
+		synchronized (this) {
+			destroyed = true;
+			completedFutureWriter = this.completedFutureWriter;
+		}
+		if (completedFutureWriter != null) {
+			completedFutureWriter.shutdown();
+		}
+		if (recordedDurationsLoader != null) {
+			recordedDurationsLoader.shutdown();
+		}
+		// Captures of elements that have not been consumed completely are written with the elements consumed so far.
+		elementsCleaner.closeAll();
+	}
+
+	protected ObjectMapper createObjectMapper() {
+		return configureObjectMapper(new ObjectMapper());
+	}
+
+	protected ObjectMapper configureObjectMapper(ObjectMapper objectMapper) {
 		objectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
 		objectMapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
 		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 		objectMapper.configure(DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
+		objectMapper.addMixInAnnotations(Throwable.class, ThrowableMixIn.class);
 		return objectMapper;
 	}
 
 	public void setObjectMapper(ObjectMapper objectMapper) {
-		Validate.notNull(captureFileProvider, "The object mapper must not be null.");
+		Validate.notNull(objectMapper, "The object mapper must not be null.");
 		this.objectMapper = objectMapper;
 	}
 
 	public void setCaptureFileProvider(CaptureFileProvider captureFileProvider) {
 		Validate.notNull(captureFileProvider, "The capture file provider must not be null.");
-		this.captureFileProvider = captureFileProvider;
+		this.captureStore = new FileCaptureStore(captureFileProvider);
+	}
+
+	public void setCaptureStore(CaptureStore captureStore) {
+		Validate.notNull(captureStore, "The capture store must not be null.");
+		this.captureStore = captureStore;
+	}
+
+	public void setCaptureKeyStrategy(CaptureKeyStrategy captureKeyStrategy) {
+		Validate.notNull(captureKeyStrategy, "The capture key strategy must not be null.");
+		this.captureKeyStrategy = captureKeyStrategy;
+	}
+
+	public void setReplayCacheSize(int replayCacheSize) {
+		Validate.isTrue(replayCacheSize >= 0, "The replay cache size must not be negative.");
+		this.replayCacheSize = replayCacheSize;
+	}
+
+	public void setReplayCacheEvictionPolicy(EvictionPolicy replayCacheEvictionPolicy) {
+		Validate.notNull(replayCacheEvictionPolicy, "The replay cache eviction policy must not be null.");
+		this.replayCacheEvictionPolicy = replayCacheEvictionPolicy;
+	}
+
+	// Bounds the serialized size of the captures that are kept as parsed trees on the heap, in bytes.
+	public void setReplayCacheHeapBudget(long replayCacheHeapBudget) {
+		Validate.isTrue(replayCacheHeapBudget >= 0, "The heap budget of the replay cache must not be negative.");
+		this.replayCacheHeapBudget = replayCacheHeapBudget;
+	}
+
+	// Bytes of direct memory that keep serialized captures outside of the heap. 0 disables the off-heap cache.
+	public void setReplayCacheOffHeapBudget(long replayCacheOffHeapBudget) {
+		Validate.isTrue(replayCacheOffHeapBudget >= 0, "The off-heap budget of the replay cache must not be negative.");
+		this.replayCacheOffHeapBudget = replayCacheOffHeapBudget;
+	}
+
+	public void setAsyncCapture(boolean asyncCapture) {
+		this.asyncCapture = asyncCapture;
+	}
+
+	public void setAsyncCaptureQueueCapacity(int asyncCaptureQueueCapacity) {
+		Validate.isTrue(asyncCaptureQueueCapacity > 0, "The asynchronous capture queue capacity must be positive.");
+		this.asyncCaptureQueueCapacity = asyncCaptureQueueCapacity;
+	}
+
+	public void setAsyncCaptureBatchSize(int asyncCaptureBatchSize) {
+		Validate.isTrue(asyncCaptureBatchSize > 0, "The asynchronous capture batch size must be positive.");
+		this.asyncCaptureBatchSize = asyncCaptureBatchSize;
+	}
+
+	public void setAsyncCaptureOverflowPolicy(OverflowPolicy asyncCaptureOverflowPolicy) {
+		Validate.notNull(asyncCaptureOverflowPolicy, "The asynchronous capture overflow policy must not be null.");
+		this.asyncCaptureOverflowPolicy = asyncCaptureOverflowPolicy;
+	}
+
+	public void setCapturePolicy(CapturePolicy capturePolicy) {
+		this.capturePolicy = capturePolicy;
+	}
+
+	// Projections of the return values of methods, by simple class name and method name, e.g. "CustomerRepository.findAll".
+	public void setCaptureProjections(Map<String, CaptureProjection> captureProjections) {
+		Validate.notNull(captureProjections, "The capture projections must not be null.");
+		this.captureProjections = captureProjections;
+	}
+
+	public void setCaptureSequence(boolean captureSequence) {
+		this.captureSequence = captureSequence;
+	}
+
+	public void setSequencePlayback(SequencePlayback sequencePlayback) {
+		Validate.notNull(sequencePlayback, "The sequence playback must not be null.");
+		this.sequencePlayback = sequencePlayback;
+	}
+
+	public void setReplayLatency(ReplayLatency replayLatency) {
+		Validate.notNull(replayLatency, "The replay latency must not be null.");
+		this.replayLatency = replayLatency;
+	}
+
+	public void setReplayLatencyPercentile(double replayLatencyPercentile) {
+		Validate.isTrue(replayLatencyPercentile > 0.0 && replayLatencyPercentile <= 100.0, "The replay latency percentile must be between 0 and 100.");
+		this.replayLatencyPercentile = replayLatencyPercentile;
+	}
+
+	public void setReplayLatencyFactor(double replayLatencyFactor) {
+		Validate.isTrue(replayLatencyFactor >= 0.0, "The replay latency factor must not be negative.");
+		this.replayLatencyFactor = replayLatencyFactor;
+	}
+
+	public void setDeduplicatePayloads(boolean deduplicatePayloads) {
+		this.deduplicatePayloads = deduplicatePayloads;
+	}
+
+	public void setPayloadCacheSize(int payloadCacheSize) {
+		Validate.isTrue(payloadCacheSize >= 0, "The payload cache size must not be negative.");
+		this.payloadCacheSize = payloadCacheSize;
+	}
+
+	// Maximum number of deserialized captures kept for methods that share replayed instances.
+	public void setReplayInstanceCacheSize(int replayInstanceCacheSize) {
+		Validate.isTrue(replayInstanceCacheSize > 0, "The replay instance cache size must be positive.");
+		this.replayInstanceCacheSize = replayInstanceCacheSize;
+	}
+
+	// Types whose instances cannot be modified, so replays share them instead of copying them.
+	public void setImmutableTypes(Set<Class<?>> immutableTypes) {
+		Validate.notNull(immutableTypes, "The immutable types must not be null.");
+		this.immutableTypes = immutableTypes;
+	}
+
+	public void setMetrics(CaptureReplayMetrics metrics) {
+		Validate.notNull(metrics, "The metrics must not be null.");
+		this.metrics = metrics;
+	}
+
+	public CaptureStore getCaptureStore() {
+		return captureStore;
+	}
+
+	// Returns null if there is no replay cache.
+	public ReplayCacheStatistics getReplayCacheStatistics() {
+		return replayCache != null ? replayCache.getStatistics() : null;
+	}
+
+	public AsyncCaptureWriter getAsyncCaptureWriter() {
+		return asyncCaptureWriter;
+	}
+
+	// Waits until the captures of completed futures have been written.
+	public void flushCompletedFutures() throws InterruptedException {
+		getCompletedFutureWriter().flush();
+	}
+
+	private class CacheInvalidatingCaptureStore implements CaptureStore {
+
+		@Override
+		public OutputStream openCaptureOutput(final String captureKey) throws IOException {
+			// Without replay caches, captures are written straight to the capture store.
+			if (!hasReplayCaches()) {
+				return captureStore.openCaptureOutput(captureKey);
+			}
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() throws IOException {
+					writeCapturedData(captureKey, toByteArray());
+				}
+			};
+		}
+
+		@Override
+		public InputStream openCaptureInput(String captureKey) throws IOException {
+			return captureStore.openCaptureInput(captureKey);
+		}
+	}
+
+	// Everything that can be resolved once per captured method, so the following calls do not have to do it again.
+	private static class CallPlan {
+
+		private final CapturePolicy capturePolicy;
+
+		private final boolean captureElements;
+
+		// Set for captures that are replayed element by element. They bypass the replay caches.
+		private final boolean replaysElements;
+
+		private final ObjectMapper projectingObjectMapper;
+
+		private final ObjectWriter projectingWriter;
+
+		private final ReplayInstances replayInstances;
+
+		// Set once the recorded durations of the captures of the method have been requested from the loader.
+		private volatile boolean recordedDurationsRequested;
+
+		// Set once a return value of the method could not be copied. Its replays are deserialized from then on.
+		private volatile boolean copyFailed;
+
+		// A method usually returns values of the same type, so the last one is remembered.
+		private volatile TypeName typeName;
+
+		private volatile ResolvedType resolvedType;
+
+		private CallPlan(CapturePolicy capturePolicy, boolean captureElements, boolean replaysElements, ObjectMapper projectingObjectMapper,
+				ReplayInstances replayInstances) {
+			this.capturePolicy = capturePolicy;
+			this.captureElements = captureElements;
+			this.replaysElements = captureElements || replaysElements;
+			this.projectingObjectMapper = projectingObjectMapper;
+			this.projectingWriter = projectingObjectMapper != null ? projectingObjectMapper.writerWithType(TypeWrapper.class) : null;
+			// Collections captured element by element are replaced without invalidating cached instances.
+			this.replayInstances = this.replaysElements ? ReplayInstances.DESERIALIZE : replayInstances;
+		}
+
+		private String getTypeName(Class<?> type) {
+			TypeName typeName = this.typeName;
+			if (typeName == null || typeName.type != type) {
+				typeName = new TypeName(type, type.getCanonicalName());
+				this.typeName = typeName;
+			}
+			return typeName.canonicalName;
+		}
+
+		private JavaType getJavaType(String canonicalName, TypeFactory typeFactory) {
+			ResolvedType resolvedType = this.resolvedType;
+			if (resolvedType == null || !resolvedType.canonicalName.equals(canonicalName)) {
+				resolvedType = new ResolvedType(canonicalName, typeFactory.constructFromCanonical(canonicalName));
+				this.resolvedType = resolvedType;
+			}
+			return resolvedType.javaType;
+		}
+	}
+
+	private static class TypeName {
+
+		private final Class<?> type;
+
+		private final String canonicalName;
+
+		private TypeName(Class<?> type, String canonicalName) {
+			this.type = type;
+			this.canonicalName = canonicalName;
+		}
+	}
+
+	private static class ResolvedType {
+
+		private final String canonicalName;
+
+		private final JavaType javaType;
+
+		private ResolvedType(String canonicalName, JavaType javaType) {
+			this.canonicalName = canonicalName;
+			this.javaType = javaType;
+		}
 	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+// Delays replayed calls, so they take about as long as the captured calls did.
+public class LatencySimulator {
+
+	// Upper bound of the durations that are kept per method for percentiles.
+	private static final int MAX_DURATIONS_PER_METHOD = 10000;
+
+	private final ReplayLatency replayLatency;
+
+	private final double percentile;
+
+	private final double factor;
+
+	private final ConcurrentMap<Method, DurationDistribution> distributions = new ConcurrentHashMap<Method, DurationDistribution>();
+
+	public LatencySimulator(ReplayLatency replayLatency, double percentile, double factor) {
+		this.replayLatency = replayLatency;
+		this.percentile = percentile;
+		this.factor = factor;
+	}
+
+	// Blocks the replaying thread until the simulated latency has passed since replayStart. Time that has already
+	// been spent on replaying counts towards the latency. Replayed calls block their thread just like the captured
+	// calls did, so thread pools and timeouts behave as they would with the real dependency.
+	public void simulateLatency(Method method, String captureKey, long recordedDuration, long replayStart) {
+		delay(getRemainingLatency(method, captureKey, recordedDuration, replayStart));
+	}
+
+	// Returns the nanoseconds of the simulated latency that are left since replayStart, without blocking. Calls that
+	// complete later, like futures, are completed once they have passed.
+	public long getRemainingLatency(Method method, String captureKey, long recordedDuration, long replayStart) {
+		long latency = (long) (getLatency(method, captureKey, recordedDuration) * factor);
+		return Math.max(0, replayStart + latency - System.nanoTime());
+	}
+
+	static void delay(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(LatencySimulator.class, remaining);
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+		}
+	}
+
+	// Percentiles are computed from the durations recorded for a method, which should be added before its first replay.
+	public boolean needsRecordedDurations() {
+		return replayLatency == ReplayLatency.PERCENTILE;
+	}
+
+	// Adds the recorded durations of captures of the method, by capture key.
+	public void addRecordedDurations(Method method, Map<String, Long> recordedDurations) {
+		getDistribution(method).recordAll(recordedDurations);
+	}
+
+	long getLatency(Method method, String captureKey, long recordedDuration) {
+		if (replayLatency == ReplayLatency.RECORDED) {
+			// Captures without a recorded duration are replayed without latency.
+			return Math.max(0, recordedDuration);
+		}
+		DurationDistribution distribution = getDistribution(method);
+		// Captures without a recorded duration get the percentile of the other captures of the method.
+		if (recordedDuration > 0) {
+			distribution.record(captureKey, recordedDuration);
+		}
+		return distribution.getPercentile(percentile);
+	}
+
+	private DurationDistribution getDistribution(Method method) {
+		DurationDistribution distribution = distributions.get(method);
+		if (distribution == null) {
+			distribution = new DurationDistribution();
+			DurationDistribution existingDistribution = distributions.putIfAbsent(method, distribution);
+			if (existingDistribution != null) {
+				distribution = existingDistribution;
+			}
+		}
+		return distribution;
+	}
+
+	// The recorded durations of the captures of a method that have been added or replayed so far. Each capture counts
+	// once, no matter how often it is replayed.
+	private static class DurationDistribution {
+
+		private final ConcurrentMap<String, Long> durations = new ConcurrentHashMap<String, Long>();
+
+		private volatile long[] sortedDurations = new long[0];
+
+		private DurationDistribution record(String captureKey, long duration) {
+			if (durations.size() < MAX_DURATIONS_PER_METHOD && durations.putIfAbsent(captureKey, duration) == null) {
+				insert(duration);
+			}
+			return this;
+		}
+
+		// Inserts the duration at its position, so the other durations do not have to be sorted again.
+		private synchronized void insert(long duration) {
+			long[] sortedDurations = this.sortedDurations;
+			int index = Arrays.binarySearch(sortedDurations, duration);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			long[] insertedDurations = new long[sortedDurations.length + 1];
+			System.arraycopy(sortedDurations, 0, insertedDurations, 0, index);
+			insertedDurations[index] = duration;
+			System.arraycopy(sortedDurations, index, insertedDurations, index + 1, sortedDurations.length - index);
+			this.sortedDurations = insertedDurations;
+		}
+
+		private synchronized void recordAll(Map<String, Long> recordedDurations) {
+			long[] addedDurations = new long[recordedDurations.size()];
+			int added = 0;
+			for (Map.Entry<String, Long> recordedDuration : recordedDurations.entrySet()) {
+				if (durations.size() >= MAX_DURATIONS_PER_METHOD) {
+					break;
+				}
+				if (recordedDuration.getValue() > 0 && durations.putIfAbsent(recordedDuration.getKey(), recordedDuration.getValue()) == null) {
+					addedDurations[added++] = recordedDuration.getValue();
+				}
+			}
+			// Many durations at once are sorted together.
+			long[] sortedDurations = Arrays.copyOf(this.sortedDurations, this.sortedDurations.length + added);
+			System.arraycopy(addedDurations, 0, sortedDurations, this.sortedDurations.length, added);
+			Arrays.sort(sortedDurations);
+			this.sortedDurations = sortedDurations;
+		}
+
+		private long getPercentile(double percentile) {
+			long[] sortedDurations = this.sortedDurations;
+			if (sortedDurations.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100.0 * sortedDurations.length) - 1;
+			return sortedDurations[Math.max(0, Math.min(index, sortedDurations.length - 1))];
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Captures only the first calls of each capture key. The counters are kept in memory until the application stops.
+public class LimitPerKeyCapturePolicy implements CapturePolicy {
+
+	private final int maxCapturesPerKey;
+
+	private final ConcurrentMap<String, AtomicInteger> captures = new ConcurrentHashMap<String, AtomicInteger>();
+
+	public LimitPerKeyCapturePolicy(int maxCapturesPerKey) {
+		Validate.isTrue(maxCapturesPerKey > 0, "The maximum number of captures per key must be positive.");
+		this.maxCapturesPerKey = maxCapturesPerKey;
+	}
+
+	@Override
+	public boolean shouldCaptureCall(Method method) {
+		return true;
+	}
+
+	@Override
+	public boolean shouldCaptureKey(Method method, String captureKey) {
+		AtomicInteger capturesOfKey = captures.get(captureKey);
+		if (capturesOfKey == null) {
+			capturesOfKey = new AtomicInteger();
+			AtomicInteger existingCapturesOfKey = captures.putIfAbsent(captureKey, capturesOfKey);
+			if (existingCapturesOfKey != null) {
+				capturesOfKey = existingCapturesOfKey;
+			}
+		}
+		// Calls beyond the limit do not count any further, so the counter cannot overflow.
+		if (capturesOfKey.get() >= maxCapturesPerKey) {
+			return false;
+		}
+		return capturesOfKey.incrementAndGet() <= maxCapturesPerKey;
+	}
+}
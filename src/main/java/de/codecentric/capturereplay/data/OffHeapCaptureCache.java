@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps serialized captures in direct byte buffers, i.e. outside of the heap where they do not add to garbage
+// collection pauses. The budget is split into segments that are filled one after another. Once all segments are full,
+// the oldest segment is reused and the captures in it are dropped.
+class OffHeapCaptureCache {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private final int segmentSize;
+
+	// Segments are allocated when they are filled for the first time.
+	private final ByteBuffer[] segments = new ByteBuffer[SEGMENT_COUNT];
+
+	private final List<List<String>> segmentKeys = new ArrayList<List<String>>(SEGMENT_COUNT);
+
+	private final Map<String, Location> index = new HashMap<String, Location>();
+
+	private int currentSegment;
+
+	private int position;
+
+	// The bytes of the captures that can be read from the cache.
+	private long usedBytes;
+
+	// The bytes written into the segments, including captures that have been replaced or removed since. They are
+	// released when their segment is reused.
+	private final int[] segmentFill = new int[SEGMENT_COUNT];
+
+	private long occupiedBytes;
+
+	OffHeapCaptureCache(long budget) {
+		Validate.isTrue(budget >= SEGMENT_COUNT, "The off-heap budget must be at least %d bytes.", SEGMENT_COUNT);
+		this.segmentSize = (int) Math.min(Integer.MAX_VALUE, budget / SEGMENT_COUNT);
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segmentKeys.add(new ArrayList<String>());
+		}
+	}
+
+	synchronized byte[] get(String captureKey) {
+		Location location = index.get(captureKey);
+		if (location == null) {
+			return null;
+		}
+		byte[] capturedData = new byte[location.length];
+		ByteBuffer segment = segments[location.segment].duplicate();
+		segment.position(location.offset);
+		segment.get(capturedData);
+		return capturedData;
+	}
+
+	synchronized void put(String captureKey, byte[] capturedData) {
+		remove(captureKey);
+		// Captures that are larger than a segment are always read from the capture store.
+		if (capturedData.length > segmentSize) {
+			return;
+		}
+		if (position + capturedData.length > segmentSize) {
+			reuseNextSegment();
+		}
+		if (segments[currentSegment] == null) {
+			segments[currentSegment] = ByteBuffer.allocateDirect(segmentSize);
+		}
+		ByteBuffer segment = segments[currentSegment].duplicate();
+		segment.position(position);
+		segment.put(capturedData);
+		index.put(captureKey, new Location(currentSegment, position, capturedData.length));
+		segmentKeys.get(currentSegment).add(captureKey);
+		position += capturedData.length;
+		usedBytes += capturedData.length;
+		segmentFill[currentSegment] += capturedData.length;
+		occupiedBytes += capturedData.length;
+	}
+
+	private void reuseNextSegment() {
+		currentSegment = (currentSegment + 1) % SEGMENT_COUNT;
+		position = 0;
+		occupiedBytes -= segmentFill[currentSegment];
+		segmentFill[currentSegment] = 0;
+		List<String> keys = segmentKeys.get(currentSegment);
+		for (String captureKey : keys) {
+			Location location = index.get(captureKey);
+			// The key may have been removed or put into another segment since.
+			if (location != null && location.segment == currentSegment) {
+				remove(captureKey);
+			}
+		}
+		keys.clear();
+	}
+
+	synchronized void remove(String captureKey) {
+		Location location = index.remove(captureKey);
+		if (location != null) {
+			usedBytes -= location.length;
+		}
+	}
+
+	// Drops the segments as well, so their direct memory is freed once they have been garbage collected.
+	synchronized void clear() {
+		index.clear();
+		for (List<String> keys : segmentKeys) {
+			keys.clear();
+		}
+		Arrays.fill(segments, null);
+		currentSegment = 0;
+		position = 0;
+		usedBytes = 0;
+		Arrays.fill(segmentFill, 0);
+		occupiedBytes = 0;
+	}
+
+	synchronized int size() {
+		return index.size();
+	}
+
+	// The bytes of the captures in the cache, i.e. of live captures only.
+	synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	// The bytes taken up in the segments. Replaced and removed captures take up space until their segment is reused, so
+	// this is at least the used bytes.
+	synchronized long getOccupiedBytes() {
+		return occupiedBytes;
+	}
+
+	private static class Location {
+
+		private final int segment;
+
+		private final int offset;
+
+		private final int length;
+
+		private Location(int segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
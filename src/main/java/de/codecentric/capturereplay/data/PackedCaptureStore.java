@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.HEADER_SIZE;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.MAGIC;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.SLOT_SIZE;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.UTF_8;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.VERSION;
+
+public class PackedCaptureStore implements ListableCaptureStore, InitializingBean {
+
+	private String packedStorePath;
+
+	private ByteBuffer buffer;
+
+	private int slotCount;
+
+	private int entryCount;
+
+	private int tableOffset;
+
+	@Override
+	public OutputStream openCaptureOutput(String captureKey) throws IOException {
+		throw new UnsupportedOperationException("The packed capture store is read-only.");
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		int dataOffset = findData(captureKey.getBytes(UTF_8));
+		if (dataOffset < 0) {
+			throw new FileNotFoundException(String.format("The packed capture store does not contain capture key %s.", captureKey));
+		}
+		// Reading is done on a view of the mapped file. Only the page cache is touched, no system call is made.
+		ByteBuffer data = buffer.duplicate();
+		data.limit(dataOffset + buffer.getInt(dataOffset - 4)).position(dataOffset);
+		return new ByteBufferInputStream(data.slice());
+	}
+
+	public boolean containsCapture(String captureKey) {
+		return findData(captureKey.getBytes(UTF_8)) >= 0;
+	}
+
+	public int size() {
+		return entryCount;
+	}
+
+	@Override
+	public List<String> getCaptureKeys() {
+		List<String> captureKeys = new ArrayList<String>(entryCount);
+		for (int slot = 0; slot < slotCount; slot++) {
+			int slotOffset = tableOffset + slot * SLOT_SIZE;
+			if (buffer.getLong(slotOffset) != 0) {
+				int entryOffset = (int) buffer.getLong(slotOffset + 8);
+				byte[] key = new byte[buffer.getInt(entryOffset)];
+				ByteBuffer keyBuffer = buffer.duplicate();
+				keyBuffer.position(entryOffset + 4);
+				keyBuffer.get(key);
+				captureKeys.add(new String(key, UTF_8));
+			}
+		}
+		return captureKeys;
+	}
+
+	private int findData(byte[] key) {
+		long hash = PackedCaptureStoreFormat.hash(key);
+		int slot = (int) hash & (slotCount - 1);
+		while (true) {
+			int slotOffset = tableOffset + slot * SLOT_SIZE;
+			long slotHash = buffer.getLong(slotOffset);
+			if (slotHash == 0) {
+				return -1;
+			}
+			if (slotHash == hash) {
+				int entryOffset = (int) buffer.getLong(slotOffset + 8);
+				if (keyEquals(key, entryOffset)) {
+					return entryOffset + 4 + key.length + 4;
+				}
+			}
+			slot = (slot + 1) & (slotCount - 1);
+		}
+	}
+
+	private boolean keyEquals(byte[] key, int entryOffset) {
+		if (buffer.getInt(entryOffset) != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(entryOffset + 4 + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void setPackedStorePath(String packedStorePath) {
+		Validate.notNull(packedStorePath, "The packed store path must not be null.");
+		this.packedStorePath = packedStorePath;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Validate.notNull(packedStorePath, "You must specify the path of the packed capture store.");
+		File packedStoreFile = new File(packedStorePath);
+		if (!packedStoreFile.exists()) {
+			throw new FileNotFoundException(String.format("The packed capture store %s does not exist.", packedStorePath));
+		}
+		RandomAccessFile file = new RandomAccessFile(packedStoreFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			Validate.isTrue(channel.size() <= Integer.MAX_VALUE, "A packed capture store must not be larger than 2 GB.");
+			// The mapping stays valid after the channel has been closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+
+		Validate.isTrue(buffer.limit() >= HEADER_SIZE && buffer.getInt(0) == MAGIC, "%s is not a packed capture store.", packedStorePath);
+		Validate.isTrue(buffer.getInt(4) == VERSION, "The packed capture store %s has an unsupported version.", packedStorePath);
+		slotCount = buffer.getInt(8);
+		entryCount = buffer.getInt(12);
+		long tableOffset = buffer.getLong(16);
+		// Lookups probe the table until they find an empty slot, so the table needs a power of two slots and at least
+		// one of them has to be empty.
+		Validate.isTrue(slotCount > 0 && (slotCount & (slotCount - 1)) == 0, "The packed capture store %s has an invalid slot count.", packedStorePath);
+		Validate.isTrue(entryCount >= 0 && entryCount < slotCount, "The packed capture store %s has an invalid entry count.", packedStorePath);
+		Validate.isTrue(tableOffset >= HEADER_SIZE && tableOffset + (long) slotCount * SLOT_SIZE <= buffer.limit(),
+				"The hash table of the packed capture store %s is out of bounds.", packedStorePath);
+		this.tableOffset = (int) tableOffset;
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int read = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class PackedCaptureStoreConverter {
+
+	private static final Log LOG = LogFactory.getLog(PackedCaptureStoreConverter.class);
+
+	private static final String DEFAULT_CAPTURE_FILE_EXTENSION = ".json";
+
+	public int convert(File captureFilesDirectory, final String captureFileExtension, File packedStoreFile) throws IOException {
+		Validate.isTrue(captureFilesDirectory.isDirectory(), "%s is not a directory.", captureFilesDirectory);
+		Validate.notNull(captureFileExtension, "The capture file extension must not be null.");
+
+		File[] captureFiles = captureFilesDirectory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(captureFileExtension);
+			}
+		});
+		// Sorting makes the packed store reproducible for the same set of capture files.
+		Arrays.sort(captureFiles);
+
+		PackedCaptureStoreWriter writer = new PackedCaptureStoreWriter(packedStoreFile);
+		boolean written = false;
+		try {
+			for (File captureFile : captureFiles) {
+				String fileName = captureFile.getName();
+				writer.add(fileName.substring(0, fileName.length() - captureFileExtension.length()), readFile(captureFile));
+			}
+			writer.close();
+			written = true;
+		} finally {
+			// A store that lacks some of the capture files must not look like a complete one.
+			if (!written) {
+				writer.abort();
+			}
+		}
+		return captureFiles.length;
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			byte[] content = new byte[(int) randomAccessFile.length()];
+			randomAccessFile.readFully(content);
+			return content;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	// Runs the converter from the command line through CaptureTools and returns its exit code.
+	static int run(String... args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			LOG.error("Usage: CaptureTools pack <capture files directory> <packed store file> [capture file extension]");
+			return CaptureTools.EXIT_USAGE;
+		}
+		String captureFileExtension = args.length == 3 ? args[2] : DEFAULT_CAPTURE_FILE_EXTENSION;
+		int captures = new PackedCaptureStoreConverter().convert(new File(args[0]), captureFileExtension, new File(args[1]));
+		LOG.info(String.format("Packed %d captures into %s.", captures, args[1]));
+		return CaptureTools.EXIT_SUCCESS;
+	}
+}
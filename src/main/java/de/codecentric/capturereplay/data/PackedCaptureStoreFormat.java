@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.nio.charset.Charset;
+
+final class PackedCaptureStoreFormat {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static final int MAGIC = 0x4352504b;
+
+	static final int VERSION = 1;
+
+	// magic, version, slot count, entry count and the offset of the hash table
+	static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+	// hash of the capture key and offset of its entry
+	static final int SLOT_SIZE = 8 + 8;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private PackedCaptureStoreFormat() {
+	}
+
+	static long hash(byte[] key) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : key) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		// Zero marks empty slots.
+		return hash == 0 ? 1 : hash;
+	}
+
+	static int slotCount(int entryCount) {
+		// Keep the load factor of the open addressing table below 0.5.
+		int slotCount = 2;
+		while (slotCount < entryCount * 2) {
+			slotCount <<= 1;
+		}
+		return slotCount;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.HEADER_SIZE;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.MAGIC;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.SLOT_SIZE;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.UTF_8;
+import static de.codecentric.capturereplay.data.PackedCaptureStoreFormat.VERSION;
+
+public class PackedCaptureStoreWriter implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(PackedCaptureStoreWriter.class);
+
+	private final File packedStoreFile;
+
+	private final FileChannel channel;
+
+	private final Set<String> captureKeys = new HashSet<String>();
+
+	private long[] hashes = new long[1024];
+
+	private long[] offsets = new long[1024];
+
+	private long position = HEADER_SIZE;
+
+	public PackedCaptureStoreWriter(File packedStoreFile) throws IOException {
+		Validate.notNull(packedStoreFile, "The packed store file must not be null.");
+		this.packedStoreFile = packedStoreFile;
+		RandomAccessFile file = new RandomAccessFile(packedStoreFile, "rw");
+		file.setLength(0);
+		this.channel = file.getChannel();
+	}
+
+	public void add(String captureKey, byte[] capturedData) throws IOException {
+		Validate.isTrue(!captureKeys.contains(captureKey), "The capture key %s has already been added.", captureKey);
+		byte[] key = captureKey.getBytes(UTF_8);
+		long entryLength = 4L + key.length + 4 + capturedData.length;
+		// The store is checked before anything is written, so a store that is too large fails on the first capture
+		// that does not fit, not after all of them have been written.
+		Validate.validState(getStoreSize(position + entryLength, captureKeys.size() + 1) <= Integer.MAX_VALUE,
+				"A packed capture store must not be larger than 2 GB.");
+		ByteBuffer entry = ByteBuffer.allocate((int) entryLength);
+		entry.putInt(key.length).put(key).putInt(capturedData.length).put(capturedData);
+		entry.flip();
+
+		captureKeys.add(captureKey);
+		int index = captureKeys.size() - 1;
+		if (index == hashes.length) {
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		hashes[index] = PackedCaptureStoreFormat.hash(key);
+		offsets[index] = position;
+		write(entry, position);
+		position += entry.limit();
+	}
+
+	// Writes the hash table and the header. Only call this once all captures have been added successfully.
+	@Override
+	public void close() throws IOException {
+		try {
+			int entryCount = captureKeys.size();
+			int slotCount = PackedCaptureStoreFormat.slotCount(entryCount);
+			long tableOffset = position;
+
+			ByteBuffer table = ByteBuffer.allocate(slotCount * SLOT_SIZE);
+			for (int i = 0; i < entryCount; i++) {
+				int slot = (int) hashes[i] & (slotCount - 1);
+				while (table.getLong(slot * SLOT_SIZE) != 0) {
+					slot = (slot + 1) & (slotCount - 1);
+				}
+				table.putLong(slot * SLOT_SIZE, hashes[i]);
+				table.putLong(slot * SLOT_SIZE + 8, offsets[i]);
+			}
+			write(table, tableOffset);
+
+			// The header is written last, so an interrupted conversion never produces a valid store.
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(slotCount).putInt(entryCount).putLong(tableOffset);
+			header.flip();
+			channel.force(false);
+			write(header, 0);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Discards a store whose captures could not all be added. It never gets a header and its file is deleted.
+	public void abort() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.warn(String.format("Could not close the packed capture store %s.", packedStoreFile), e);
+		}
+		if (!packedStoreFile.delete() && packedStoreFile.exists()) {
+			LOG.warn(String.format("Could not delete the incomplete packed capture store %s.", packedStoreFile));
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	// The entries are followed by the hash table.
+	private static long getStoreSize(long entriesEnd, int entryCount) {
+		return entriesEnd + (long) PackedCaptureStoreFormat.slotCount(entryCount) * SLOT_SIZE;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static de.codecentric.capturereplay.data.CaptureFormat.DURATION_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.ELEMENTS_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.EXCEPTION_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.OBJECT_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.PAYLOAD_FIELD;
+import static de.codecentric.capturereplay.data.CaptureFormat.TYPE_FIELD;
+
+// Stores deduplicated payloads in the capture store under the hash of their content, and reads them for the captures
+// that refer to them. Payloads never change, so they are neither invalidated in the replay caches nor in the payload
+// cache.
+class PayloadStore {
+
+	private static final String PAYLOAD_KEY_PREFIX = "payload-";
+
+	// Payloads that have been evicted from the stored payloads are written once more when they are captured again.
+	private static final int STORED_PAYLOADS_SIZE = 64 * 1024;
+
+	private final CaptureStore captureStore;
+
+	private final ObjectMapper treeMapper;
+
+	private final StructuralCopier structuralCopier;
+
+	// Writes of the payloads that have been stored while the application is running, or are being stored. Other
+	// payloads are stored again once.
+	private final BoundedCache<String, FutureTask<Void>> storedPayloads = new BoundedCache<String, FutureTask<Void>>(STORED_PAYLOADS_SIZE, EvictionPolicy.LRU);
+
+	// Keeps payloads during replay, or null without a payload cache.
+	private final BoundedCache<String, Object> payloadCache;
+
+	PayloadStore(CaptureStore captureStore, ObjectMapper treeMapper, StructuralCopier structuralCopier, int payloadCacheSize) {
+		this.captureStore = captureStore;
+		this.treeMapper = treeMapper;
+		this.structuralCopier = structuralCopier;
+		this.payloadCache = payloadCacheSize > 0 ? new BoundedCache<String, Object>(payloadCacheSize, EvictionPolicy.LRU) : null;
+	}
+
+	// Stores the payload, unless it has been stored before, and returns its key. New payloads are written synchronously,
+	// so a capture never refers to a payload that is still queued.
+	String store(final byte[] payloadData) throws IOException {
+		final String payloadKey = getPayloadKey(payloadData);
+		FutureTask<Void> payloadWrite = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				OutputStream outputStream = captureStore.openCaptureOutput(payloadKey);
+				try {
+					outputStream.write(payloadData);
+				} finally {
+					outputStream.close();
+				}
+				return null;
+			}
+		});
+		FutureTask<Void> storedPayload = storedPayloads.putIfAbsent(payloadKey, payloadWrite);
+		if (storedPayload == null) {
+			storedPayload = payloadWrite;
+			payloadWrite.run();
+		}
+		// Captures of the same payload on other threads wait until it has been written, and fail with it.
+		try {
+			storedPayload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(String.format("Interrupted while payload %s was written.", payloadKey));
+		} catch (ExecutionException e) {
+			storedPayloads.remove(payloadKey, storedPayload);
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		return payloadKey;
+	}
+
+	TypeWrapper read(String payloadKey, PayloadReader payloadReader) throws IOException {
+		if (payloadCache == null) {
+			JsonParser parser = payloadReader.open(payloadKey);
+			try {
+				return payloadReader.read(payloadKey, parser);
+			} finally {
+				parser.close();
+			}
+		}
+		Object cachedPayload = payloadCache.get(payloadKey);
+		if (cachedPayload instanceof TypeWrapper) {
+			return (TypeWrapper) cachedPayload;
+		}
+		if (cachedPayload != null) {
+			return payloadReader.read(payloadKey, ((JsonNode) cachedPayload).traverse());
+		}
+		JsonNode tree = readTree(payloadKey, payloadReader);
+		TypeWrapper payload = payloadReader.read(payloadKey, tree.traverse());
+		// Immutable objects are shared by all replays. Others are read from the tree again for each replay, so callers
+		// never see each other's modifications.
+		payloadCache.put(payloadKey, isImmutable(payload) ? payload : tree);
+		return payload;
+	}
+
+	private JsonNode readTree(String payloadKey, PayloadReader payloadReader) throws IOException {
+		JsonParser parser = payloadReader.open(payloadKey);
+		try {
+			JsonNode tree = treeMapper.readTree(parser);
+			if (tree == null) {
+				throw new FileNotFoundException(String.format("The payload %s is empty.", payloadKey));
+			}
+			return tree;
+		} finally {
+			parser.close();
+		}
+	}
+
+	private boolean isImmutable(TypeWrapper payload) {
+		return !payload.isException() && structuralCopier.isImmutable(payload.getObject());
+	}
+
+	static String getPayloadKey(byte[] payloadData) {
+		HashingOutputStream hashingOutputStream = new HashingOutputStream();
+		hashingOutputStream.write(payloadData, 0, payloadData.length);
+		hashingOutputStream.finish();
+		return String.format("%s%016x%016x", PAYLOAD_KEY_PREFIX, hashingOutputStream.getHash1(), hashingOutputStream.getHash2());
+	}
+
+	static boolean isPayloadKey(String captureKey) {
+		return captureKey.startsWith(PAYLOAD_KEY_PREFIX);
+	}
+
+	// The following methods let the CaptureSetTool deduplicate the trees of captures.
+
+	// Returns the key of the payload the capture refers to, or null if it holds its object itself.
+	static String getPayloadReference(JsonNode capture) {
+		JsonNode payload = capture.get(PAYLOAD_FIELD);
+		return payload != null && payload.isTextual() ? payload.asText() : null;
+	}
+
+	// Returns the payload of a capture that holds its object itself, or null if it cannot refer to a payload.
+	static ObjectNode extractPayload(JsonNode capture) {
+		if (!capture.isObject() || !capture.has(OBJECT_FIELD) || capture.has(ELEMENTS_FIELD) || capture.has(PAYLOAD_FIELD)) {
+			return null;
+		}
+		// The fields are written in the same order the data mapper writes them, so equal results have equal payloads.
+		ObjectNode payload = JsonNodeFactory.instance.objectNode();
+		payload.set(TYPE_FIELD, capture.get(TYPE_FIELD));
+		payload.set(OBJECT_FIELD, capture.get(OBJECT_FIELD));
+		payload.put(EXCEPTION_FIELD, capture.path(EXCEPTION_FIELD).asBoolean());
+		payload.put(DURATION_FIELD, 0L);
+		return payload;
+	}
+
+	static ObjectNode createPayloadReference(JsonNode capture, String payloadKey) {
+		ObjectNode reference = JsonNodeFactory.instance.objectNode();
+		reference.set(TYPE_FIELD, capture.get(TYPE_FIELD));
+		reference.putNull(OBJECT_FIELD);
+		reference.put(EXCEPTION_FIELD, capture.path(EXCEPTION_FIELD).asBoolean());
+		reference.put(DURATION_FIELD, capture.path(DURATION_FIELD).asLong());
+		reference.put(PAYLOAD_FIELD, payloadKey);
+		return reference;
+	}
+
+	// Parses payloads the way the data mapper parses captures.
+	interface PayloadReader {
+
+		JsonParser open(String payloadKey) throws IOException;
+
+		TypeWrapper read(String payloadKey, JsonParser parser) throws IOException;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Limits the captures of each method with a token bucket. Bursts of up to one second worth of captures are allowed.
+public class RateLimitingCapturePolicy implements CapturePolicy {
+
+	private final double capturesPerSecond;
+
+	private final ConcurrentMap<Method, TokenBucket> tokenBuckets = new ConcurrentHashMap<Method, TokenBucket>();
+
+	public RateLimitingCapturePolicy(double capturesPerSecond) {
+		Validate.isTrue(capturesPerSecond > 0.0, "The number of captures per second must be positive.");
+		this.capturesPerSecond = capturesPerSecond;
+	}
+
+	@Override
+	public boolean shouldCaptureCall(Method method) {
+		TokenBucket tokenBucket = tokenBuckets.get(method);
+		if (tokenBucket == null) {
+			tokenBucket = new TokenBucket(capturesPerSecond);
+			TokenBucket existingTokenBucket = tokenBuckets.putIfAbsent(method, tokenBucket);
+			if (existingTokenBucket != null) {
+				tokenBucket = existingTokenBucket;
+			}
+		}
+		return tokenBucket.tryAcquire();
+	}
+
+	@Override
+	public boolean shouldCaptureKey(Method method, String captureKey) {
+		return true;
+	}
+
+	private static class TokenBucket {
+
+		private final double tokensPerNano;
+
+		private final double capacity;
+
+		private double tokens;
+
+		private long lastRefill;
+
+		private TokenBucket(double capturesPerSecond) {
+			this.tokensPerNano = capturesPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.capacity = Math.max(1.0, capturesPerSecond);
+			this.tokens = capacity;
+			this.lastRefill = System.nanoTime();
+		}
+
+		private synchronized boolean tryAcquire() {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+			if (tokens < 1.0) {
+				return false;
+			}
+			tokens -= 1.0;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import static de.codecentric.capturereplay.data.CaptureFormat.DURATION_FIELD;
+
+// Adds the durations of all captures of a method to the latency simulator, not only of those that have been replayed
+// so far. They can only be found in capture stores that list their keys, if all capture keys of a method start with the
+// same prefix.
+class RecordedDurationsLoader {
+
+	private final ListableCaptureStore captureStore;
+
+	private final PrefixedCaptureKeyStrategy captureKeyStrategy;
+
+	private final LatencySimulator latencySimulator;
+
+	private final JsonFactory jsonFactory;
+
+	// Methods whose durations have been read or are being read.
+	private final ConcurrentMap<Method, Boolean> claimedMethods = new ConcurrentHashMap<Method, Boolean>();
+
+	// Reads the durations of methods that are replayed before they have been warmed up. It is created by the first of
+	// them.
+	private ExecutorService executorService;
+
+	private boolean shutdown;
+
+	RecordedDurationsLoader(ListableCaptureStore captureStore, PrefixedCaptureKeyStrategy captureKeyStrategy, LatencySimulator latencySimulator,
+			JsonFactory jsonFactory) {
+		this.captureStore = captureStore;
+		this.captureKeyStrategy = captureKeyStrategy;
+		this.latencySimulator = latencySimulator;
+		this.jsonFactory = jsonFactory;
+	}
+
+	// Reads the durations on the calling thread, unless they have been read before.
+	void load(Method method) {
+		if (claim(method)) {
+			addRecordedDurations(method);
+		}
+	}
+
+	// Reading the durations lists the whole capture store, so methods that have not been warmed up do not pay for it on
+	// their first replay. Their replays use the durations of the captures replayed so far until they have been added.
+	void loadLater(final Method method) {
+		ExecutorService executorService = getExecutorService();
+		if (executorService == null || !claim(method)) {
+			return;
+		}
+		try {
+			executorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					addRecordedDurations(method);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The loader has been shut down.
+		}
+	}
+
+	void shutdown() {
+		ExecutorService executorService;
+		synchronized (this) {
+			shutdown = true;
+			executorService = this.executorService;
+		}
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
+	}
+
+	private synchronized ExecutorService getExecutorService() {
+		if (executorService == null && !shutdown) {
+			executorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "capture-replay-recorded-durations");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executorService;
+	}
+
+	// Returns true for the first caller only, so the durations of a method are read once.
+	private boolean claim(Method method) {
+		return claimedMethods.putIfAbsent(method, Boolean.TRUE) == null;
+	}
+
+	private void addRecordedDurations(Method method) {
+		String captureKeyPrefix = captureKeyStrategy.getCaptureKeyPrefix(method);
+		Map<String, Long> recordedDurations = new HashMap<String, Long>();
+		try {
+			for (String captureKey : captureStore.getCaptureKeys()) {
+				if (captureKey.startsWith(captureKeyPrefix)) {
+					recordedDurations.put(captureKey, readDuration(captureKey));
+				}
+			}
+		} catch (IOException e) {
+			// Captures that cannot be read are added to the distribution when they are replayed.
+		}
+		latencySimulator.addRecordedDurations(method, recordedDurations);
+	}
+
+	// Reads the recorded duration of a capture without deserializing its object.
+	private long readDuration(String captureKey) throws IOException {
+		JsonParser parser = jsonFactory.createParser(captureStore.openCaptureInput(captureKey));
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return 0;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				parser.nextToken();
+				if (DURATION_FIELD.equals(fieldName)) {
+					return parser.getValueAsLong();
+				}
+				parser.skipChildren();
+			}
+			return 0;
+		} finally {
+			parser.close();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.commons.lang3.Validate;
+
+// Keeps recently replayed captures as parsed trees on the heap, together with an instance deserialized from each tree
+// that replays copy. With an off-heap budget, the serialized captures are also kept outside of the heap, so captures
+// that have been evicted from the heap do not have to be read again.
+public class ReplayCache {
+
+	private final BoundedCache<String, HeapEntry> entries;
+
+	private final OffHeapCaptureCache offHeapCache;
+
+	private final boolean weighed;
+
+	private final ReplayCacheStatistics statistics = new ReplayCacheStatistics();
+
+	public ReplayCache(int maximumSize, EvictionPolicy evictionPolicy) {
+		this(maximumSize, 0, evictionPolicy, 0);
+	}
+
+	// The heap budget bounds the serialized size of the captures whose trees are kept on the heap. The trees themselves
+	// take several times as much memory. A budget of 0 means no bound on the heap and no off-heap cache, respectively.
+	public ReplayCache(int maximumSize, long heapBudget, EvictionPolicy evictionPolicy, long offHeapBudget) {
+		Validate.isTrue(maximumSize > 0, "The maximum size of the replay cache must be positive.");
+		Validate.isTrue(heapBudget >= 0, "The heap budget of the replay cache must not be negative.");
+		Validate.isTrue(offHeapBudget >= 0, "The off-heap budget of the replay cache must not be negative.");
+		Validate.notNull(evictionPolicy, "The eviction policy must not be null.");
+		this.entries = new BoundedCache<String, HeapEntry>(maximumSize, heapBudget, evictionPolicy, new BoundedCache.Weigher<HeapEntry>() {
+			@Override
+			public long weigh(HeapEntry entry) {
+				return entry.weight;
+			}
+		});
+		this.offHeapCache = offHeapBudget > 0 ? new OffHeapCaptureCache(offHeapBudget) : null;
+		this.weighed = heapBudget > 0;
+	}
+
+	// Captures only have to be read as a whole if they are weighed against the heap budget or kept off the heap.
+	// Otherwise, they can be parsed straight from the capture store.
+	public boolean needsSerializedData() {
+		return weighed || offHeapCache != null;
+	}
+
+	public JsonNode get(String captureKey) {
+		HeapEntry entry = entries.get(captureKey);
+		return entry != null ? entry.capturedData : null;
+	}
+
+	// Returns the instance deserialized from the cached tree or null, if none has been kept yet.
+	public TypeWrapper getReplayInstance(String captureKey) {
+		HeapEntry entry = entries.get(captureKey);
+		return entry != null ? entry.replayInstance : null;
+	}
+
+	// Keeps an instance deserialized from the tree, unless the tree has been replaced or evicted in the meantime.
+	public void putReplayInstance(String captureKey, JsonNode capturedData, TypeWrapper replayInstance) {
+		HeapEntry entry = entries.get(captureKey);
+		if (entry != null && entry.capturedData == capturedData) {
+			entry.replayInstance = replayInstance;
+		}
+	}
+
+	public void put(String captureKey, JsonNode capturedData) {
+		put(captureKey, capturedData, null);
+	}
+
+	// The serialized capture weighs the tree against the heap budget and is kept off the heap, if there is a budget.
+	public void put(String captureKey, JsonNode capturedData, byte[] serializedData) {
+		int weight = serializedData != null ? serializedData.length : 0;
+		entries.put(captureKey, new HeapEntry(capturedData, weight));
+		if (offHeapCache != null && serializedData != null) {
+			offHeapCache.put(captureKey, serializedData);
+		}
+	}
+
+	// Returns the serialized capture from outside of the heap or null.
+	public byte[] getSerializedData(String captureKey) {
+		return offHeapCache != null ? offHeapCache.get(captureKey) : null;
+	}
+
+	public void invalidate(String captureKey) {
+		entries.remove(captureKey);
+		if (offHeapCache != null) {
+			offHeapCache.remove(captureKey);
+		}
+	}
+
+	public void clear() {
+		entries.clear();
+		if (offHeapCache != null) {
+			offHeapCache.clear();
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHeapWeight() {
+		return entries.getWeight();
+	}
+
+	public int getOffHeapSize() {
+		return offHeapCache != null ? offHeapCache.size() : 0;
+	}
+
+	// The bytes of the captures kept off the heap.
+	public long getOffHeapBytes() {
+		return offHeapCache != null ? offHeapCache.getUsedBytes() : 0;
+	}
+
+	// The bytes of the off-heap segments that have been filled, including the space of replaced captures.
+	public long getOffHeapOccupiedBytes() {
+		return offHeapCache != null ? offHeapCache.getOccupiedBytes() : 0;
+	}
+
+	public ReplayCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private static class HeapEntry {
+
+		private final JsonNode capturedData;
+
+		private final int weight;
+
+		// Set after the entry has been put, by the first replay that deserializes the tree.
+		private volatile TypeWrapper replayInstance;
+
+		private HeapEntry(JsonNode capturedData, int weight) {
+			this.capturedData = capturedData;
+			this.weight = weight;
+		}
+	}
+}
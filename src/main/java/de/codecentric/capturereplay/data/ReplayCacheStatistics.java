@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts where the replay cache has found the captures that have been replayed.
+public class ReplayCacheStatistics {
+
+	private final AtomicLong heapHits = new AtomicLong();
+
+	private final AtomicLong offHeapHits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	void recordHeapHit() {
+		heapHits.incrementAndGet();
+	}
+
+	void recordOffHeapHit() {
+		offHeapHits.incrementAndGet();
+	}
+
+	void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	// Captures that have been replayed from parsed trees on the heap.
+	public long getHeapHits() {
+		return heapHits.get();
+	}
+
+	// Captures that have been parsed from their serialized form outside of the heap.
+	public long getOffHeapHits() {
+		return offHeapHits.get();
+	}
+
+	// Captures that have been read from the capture store.
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getRequests() {
+		return getHeapHits() + getOffHeapHits() + getMisses();
+	}
+
+	public double getHeapHitRatio() {
+		return ratio(getHeapHits());
+	}
+
+	public double getOffHeapHitRatio() {
+		return ratio(getOffHeapHits());
+	}
+
+	public double getMissRatio() {
+		return ratio(getMisses());
+	}
+
+	private double ratio(long count) {
+		long requests = getRequests();
+		return requests == 0 ? 0.0 : (double) count / requests;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("heap hits: %d, off-heap hits: %d, misses: %d", getHeapHits(), getOffHeapHits(), getMisses());
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+public enum ReplayInstances {
+	// Every replay gets a new instance deserialized from the capture. With a replay cache, hits copy the instance
+	// deserialized from the cached tree instead.
+	DESERIALIZE,
+	// The capture is deserialized once. Every replay gets a copy of this instance, immutable objects are shared.
+	COPY,
+	// The capture is deserialized once and all replays get the same instance. Callers must not modify it.
+	SHARE
+}
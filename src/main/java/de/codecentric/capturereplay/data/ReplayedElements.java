@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Reads captured elements one by one while they are consumed, so only the current element is kept in memory. The
+// parser is closed when all elements have been read, or by the ElementsCleaner once the elements have been abandoned.
+class ReplayedElements implements Iterator<Object>, Closeable {
+
+	private final JsonParser parser;
+
+	private final ObjectReader elementReader;
+
+	private final String captureKey;
+
+	private JsonToken nextToken;
+
+	private boolean closed;
+
+	ReplayedElements(JsonParser parser, ObjectReader elementReader, String captureKey) {
+		this.parser = parser;
+		this.elementReader = elementReader;
+		this.captureKey = captureKey;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		try {
+			if (nextToken == null) {
+				nextToken = parser.nextToken();
+			}
+			if (nextToken == null) {
+				throw new JsonParseException("Captured elements end unexpectedly.", parser.getCurrentLocation());
+			}
+			if (nextToken == JsonToken.END_ARRAY) {
+				close();
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("Could not read test data for capture key %s.", captureKey), e);
+		}
+	}
+
+	@Override
+	public Object next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		nextToken = null;
+		try {
+			return elementReader.readValue(parser);
+		} catch (IOException e) {
+			throw new UncheckedIOException(String.format("Could not read test data for capture key %s.", captureKey), e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Replayed elements cannot be removed.");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			parser.close();
+		}
+	}
+
+	JsonParser getParser() {
+		return parser;
+	}
+
+	void readInto(Collection<Object> collection) throws IOException {
+		try {
+			while (hasNext()) {
+				collection.add(next());
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			close();
+		}
+	}
+
+	Stream<Object> toStream() {
+		Spliterator<Object> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+}
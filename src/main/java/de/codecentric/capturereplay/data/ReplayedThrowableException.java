@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+// Signals that a replayed call has thrown an exception when it was captured. The cause is the replayed exception.
+public class ReplayedThrowableException extends DataMappingException {
+
+	public ReplayedThrowableException(String message, Throwable replayedThrowable) {
+		// Captured errors are replayed as well, so the cause is not necessarily an exception.
+		super(message);
+		initCause(replayedThrowable);
+	}
+
+	public Throwable getReplayedThrowable() {
+		return getCause();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class SamplingCapturePolicy implements CapturePolicy {
+
+	private final double sampleRate;
+
+	public SamplingCapturePolicy(double sampleRate) {
+		Validate.isTrue(sampleRate >= 0.0 && sampleRate <= 1.0, "The sample rate must be between 0 and 1.");
+		this.sampleRate = sampleRate;
+	}
+
+	@Override
+	public boolean shouldCaptureCall(Method method) {
+		return ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	@Override
+	public boolean shouldCaptureKey(Method method, String captureKey) {
+		return true;
+	}
+}
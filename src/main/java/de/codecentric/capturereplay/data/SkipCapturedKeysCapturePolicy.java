@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Captures each capture key only once. The keys that have been seen are kept in memory until the application stops.
+public class SkipCapturedKeysCapturePolicy implements CapturePolicy {
+
+	private final Set<String> capturedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	@Override
+	public boolean shouldCaptureCall(Method method) {
+		return true;
+	}
+
+	@Override
+	public boolean shouldCaptureKey(Method method, String captureKey) {
+		return capturedKeys.add(captureKey);
+	}
+}
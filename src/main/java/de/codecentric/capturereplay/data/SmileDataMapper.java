@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+public class SmileDataMapper extends JsonDataMapper {
+
+	public SmileDataMapper(CaptureFileProvider captureFileProvider) {
+		super(captureFileProvider);
+	}
+
+	public SmileDataMapper(CaptureStore captureStore) {
+		super(captureStore);
+	}
+
+	@Override
+	protected ObjectMapper createObjectMapper() {
+		// Smile is a binary JSON format. Captures keep the structure of TypeWrapper but are smaller and faster to parse.
+		return configureObjectMapper(new ObjectMapper(new SmileFactory()));
+	}
+}
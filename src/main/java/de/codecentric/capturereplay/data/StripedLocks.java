@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+// Maps capture keys to a fixed number of locks, so threads working on the same key are coordinated
+// without keeping a lock per key.
+class StripedLocks {
+
+	private final Object[] locks;
+
+	StripedLocks(int stripes) {
+		locks = new Object[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	Object get(String captureKey) {
+		int hash = captureKey.hashCode();
+		// Spread the hash, so keys that only differ in their last characters do not share a lock.
+		hash ^= (hash >>> 16);
+		return locks[(hash & Integer.MAX_VALUE) % locks.length];
+	}
+}
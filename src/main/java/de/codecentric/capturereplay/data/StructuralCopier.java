@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Copies object graphs field by field, so callers cannot modify a shared replayed instance through their copy. Immutable
+// objects are shared instead of copied. The fields of each class are resolved once into method handles.
+class StructuralCopier {
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final Set<Class<?>> immutableTypes;
+
+	private final ConcurrentMap<Class<?>, ClassCopier> classCopiers = new ConcurrentHashMap<Class<?>, ClassCopier>();
+
+	StructuralCopier(Set<Class<?>> immutableTypes) {
+		this.immutableTypes = immutableTypes;
+	}
+
+	boolean isImmutable(Object object) {
+		return object == null || object instanceof String || object instanceof Boolean || object instanceof Character
+				|| object instanceof Enum || object instanceof Integer || object instanceof Long || object instanceof Short
+				|| object instanceof Byte || object instanceof Double || object instanceof Float
+				|| object instanceof BigInteger || object instanceof BigDecimal || object instanceof UUID
+				|| object.getClass().getName().startsWith("java.time.") || immutableTypes.contains(object.getClass());
+	}
+
+	// Throws an IllegalArgumentException if the graph contains an object that cannot be copied.
+	Object copy(Object object) {
+		return copy(object, new IdentityHashMap<Object, Object>());
+	}
+
+	private Object copy(Object object, Map<Object, Object> copies) {
+		if (isImmutable(object)) {
+			return object;
+		}
+		// Objects referred to more than once are copied once, which also keeps cycles intact.
+		Object copy = copies.get(object);
+		if (copy != null) {
+			return copy;
+		}
+		if (object.getClass().isArray()) {
+			return copyArray(object, copies);
+		}
+		if (object instanceof Collection) {
+			return copyCollection((Collection<?>) object, copies);
+		}
+		if (object instanceof Map) {
+			return copyMap((Map<?, ?>) object, copies);
+		}
+		if (object instanceof Date) {
+			copy = ((Date) object).clone();
+			copies.put(object, copy);
+			return copy;
+		}
+		return getClassCopier(object.getClass()).copy(object, copies);
+	}
+
+	private Object copyArray(Object array, Map<Object, Object> copies) {
+		int length = Array.getLength(array);
+		Class<?> componentType = array.getClass().getComponentType();
+		Object copy = Array.newInstance(componentType, length);
+		copies.put(array, copy);
+		if (componentType.isPrimitive()) {
+			System.arraycopy(array, 0, copy, 0, length);
+		} else {
+			Object[] elements = (Object[]) array;
+			Object[] copiedElements = (Object[]) copy;
+			for (int i = 0; i < length; i++) {
+				copiedElements[i] = copy(elements[i], copies);
+			}
+		}
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Collection<Object> copyCollection(Collection<?> collection, Map<Object, Object> copies) {
+		Collection<Object> copy;
+		if (collection instanceof EnumSet) {
+			// Enum constants are immutable, so the set is copied as a whole.
+			copy = (Collection<Object>) (Collection<?>) copyEnumSet((EnumSet<?>) collection);
+			copies.put(collection, copy);
+			return copy;
+		}
+		if (collection instanceof SortedSet) {
+			copy = new TreeSet<Object>(((SortedSet<Object>) collection).comparator());
+		} else {
+			// Other collections without a default constructor, e.g. unmodifiable ones, cannot be copied as the same type.
+			copy = (Collection<Object>) newInstance(collection.getClass());
+		}
+		copies.put(collection, copy);
+		for (Object element : collection) {
+			copy.add(copy(element, copies));
+		}
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Object, Object> copyMap(Map<?, ?> map, Map<Object, Object> copies) {
+		Map<Object, Object> copy;
+		if (map instanceof EnumMap) {
+			// The keys are enum constants, so only the values are copied into the clone.
+			copy = (Map<Object, Object>) (Map<?, ?>) ((EnumMap<?, ?>) map).clone();
+		} else if (map instanceof SortedMap) {
+			copy = new TreeMap<Object, Object>(((SortedMap<Object, Object>) map).comparator());
+		} else {
+			copy = (Map<Object, Object>) newInstance(map.getClass());
+		}
+		copies.put(map, copy);
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+		}
+		return copy;
+	}
+
+	private static <E extends Enum<E>> EnumSet<E> copyEnumSet(EnumSet<E> enumSet) {
+		return EnumSet.copyOf(enumSet);
+	}
+
+	private static Object newInstance(Class<?> type) {
+		try {
+			return type.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException(String.format("Objects of %s cannot be copied: %s", type.getName(), e));
+		}
+	}
+
+	private ClassCopier getClassCopier(Class<?> type) {
+		ClassCopier classCopier = classCopiers.get(type);
+		if (classCopier == null) {
+			classCopier = new ClassCopier(type);
+			ClassCopier existingClassCopier = classCopiers.putIfAbsent(type, classCopier);
+			if (existingClassCopier != null) {
+				classCopier = existingClassCopier;
+			}
+		}
+		return classCopier;
+	}
+
+	private class ClassCopier {
+
+		private final Class<?> type;
+
+		private MethodHandle constructor;
+
+		private MethodHandle[] getters;
+
+		private MethodHandle[] setters;
+
+		// True for fields that refer to objects, whose values are copied as well.
+		private boolean[] references;
+
+		// Why the class cannot be copied, or null if it can.
+		private String unsupportedReason;
+
+		private ClassCopier(Class<?> type) {
+			this.type = type;
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				Constructor<?> defaultConstructor = type.getDeclaredConstructor();
+				defaultConstructor.setAccessible(true);
+				constructor = lookup.unreflectConstructor(defaultConstructor).asType(CONSTRUCTOR_TYPE);
+				List<Field> fields = new ArrayList<Field>();
+				for (Class<?> declaringType = type; declaringType != Object.class; declaringType = declaringType.getSuperclass()) {
+					for (Field field : declaringType.getDeclaredFields()) {
+						if (Modifier.isStatic(field.getModifiers())) {
+							continue;
+						}
+						field.setAccessible(true);
+						fields.add(field);
+					}
+				}
+				getters = new MethodHandle[fields.size()];
+				setters = new MethodHandle[fields.size()];
+				references = new boolean[fields.size()];
+				for (int i = 0; i < fields.size(); i++) {
+					getters[i] = lookup.unreflectGetter(fields.get(i)).asType(GETTER_TYPE);
+					setters[i] = lookup.unreflectSetter(fields.get(i)).asType(SETTER_TYPE);
+					references[i] = !fields.get(i).getType().isPrimitive();
+				}
+			} catch (NoSuchMethodException e) {
+				unsupportedReason = "it has no default constructor";
+			} catch (IllegalAccessException | RuntimeException e) {
+				// Final fields and fields of classes in closed modules cannot be written.
+				unsupportedReason = e.toString();
+			}
+		}
+
+		private Object copy(Object object, Map<Object, Object> copies) {
+			if (unsupportedReason != null) {
+				throw new IllegalArgumentException(String.format("Objects of %s cannot be copied: %s", type.getName(), unsupportedReason));
+			}
+			try {
+				Object copy = constructor.invokeExact();
+				copies.put(object, copy);
+				for (int i = 0; i < getters.length; i++) {
+					Object value = getters[i].invokeExact(object);
+					setters[i].invokeExact(copy, references[i] ? StructuralCopier.this.copy(value, copies) : value);
+				}
+				return copy;
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(String.format("Could not copy an object of %s.", type.getName()), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class StructuralHashCaptureKeyStrategy implements CollisionDetectingCaptureKeyStrategy, PrefixedCaptureKeyStrategy {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final int DEFAULT_COLLISION_DETECTION_CACHE_SIZE = 65536;
+
+	private final ObjectMapper objectMapper = createObjectMapper();
+
+	private final ConcurrentMap<Method, String> captureKeyPrefixes = new ConcurrentHashMap<Method, String>();
+
+	// Fingerprints of the arguments of recently captured calls, by capture key. Collisions with calls that have been
+	// evicted are not detected.
+	private BoundedCache<String, Long> fingerprints = new BoundedCache<String, Long>(DEFAULT_COLLISION_DETECTION_CACHE_SIZE, EvictionPolicy.LRU);
+
+	private final ThreadLocal<HashingOutputStream> hashingOutputStreams = new ThreadLocal<HashingOutputStream>() {
+		@Override
+		protected HashingOutputStream initialValue() {
+			return new HashingOutputStream();
+		}
+	};
+
+	private boolean collisionDetection = true;
+
+	@Override
+	public String getCaptureKey(Method method, Object[] arguments) {
+		HashingOutputStream hashingOutputStream = hashArguments(arguments);
+		return appendHex(getCaptureKeyPrefix(method), hashingOutputStream.getHash1(), 16);
+	}
+
+	@Override
+	public String getCaptureKeyForCapture(Method method, Object[] arguments) {
+		HashingOutputStream hashingOutputStream = hashArguments(arguments);
+		String captureKey = appendHex(getCaptureKeyPrefix(method), hashingOutputStream.getHash1(), 16);
+		if (collisionDetection) {
+			detectCollision(captureKey, hashingOutputStream.getHash2());
+		}
+		return captureKey;
+	}
+
+	private HashingOutputStream hashArguments(Object[] arguments) {
+		HashingOutputStream hashingOutputStream = hashingOutputStreams.get();
+		hashingOutputStream.reset();
+		for (Object argument : arguments) {
+			writeArgument(hashingOutputStream, argument);
+		}
+		hashingOutputStream.finish();
+		return hashingOutputStream;
+	}
+
+	private void writeArgument(HashingOutputStream hashingOutputStream, Object argument) {
+		// The type is part of the canonical form, so that e.g. 1 and 1L result in different capture keys.
+		if (argument == null) {
+			hashingOutputStream.write(0);
+			return;
+		}
+		hashingOutputStream.write(1);
+		hashingOutputStream.writeString(argument.getClass().getName());
+		try {
+			objectMapper.writeValue(hashingOutputStream, argument);
+		} catch (IOException e) {
+			// Arguments that cannot be serialized fall back to their hash code, which may differ between JVM runs. So do
+			// beans without properties, as all of them would have the same canonical form.
+			hashingOutputStream.write(2);
+			hashingOutputStream.writeString(Integer.toString(argument.hashCode()));
+		}
+	}
+
+	@Override
+	public String getCaptureKeyPrefix(Method method) {
+		String captureKeyPrefix = captureKeyPrefixes.get(method);
+		if (captureKeyPrefix == null) {
+			captureKeyPrefix = createCaptureKeyPrefix(method);
+			captureKeyPrefixes.putIfAbsent(method, captureKeyPrefix);
+		}
+		return captureKeyPrefix;
+	}
+
+	private String createCaptureKeyPrefix(Method method) {
+		// The declaring class and the parameter types are hashed, so overloaded methods get different capture keys.
+		HashingOutputStream hashingOutputStream = new HashingOutputStream();
+		hashingOutputStream.writeString(method.getDeclaringClass().getName());
+		hashingOutputStream.writeString(method.getName());
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			hashingOutputStream.writeString(parameterType.getName());
+		}
+		hashingOutputStream.finish();
+		String prefix = method.getDeclaringClass().getSimpleName() + "." + method.getName() + "-";
+		return appendHex(prefix, hashingOutputStream.getHash1(), 8) + "-";
+	}
+
+	private void detectCollision(String captureKey, long fingerprint) {
+		Long previousFingerprint = fingerprints.putIfAbsent(captureKey, fingerprint);
+		if (previousFingerprint != null && previousFingerprint != fingerprint) {
+			throw new CaptureKeyCollisionException(String.format("Different arguments result in the same capture key %s.", captureKey));
+		}
+	}
+
+	private static String appendHex(String prefix, long value, int digits) {
+		char[] chars = new char[prefix.length() + digits];
+		prefix.getChars(0, prefix.length(), chars, 0);
+		for (int i = chars.length - 1; i >= prefix.length(); i--) {
+			chars[i] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+		return new String(chars);
+	}
+
+	private static ObjectMapper createObjectMapper() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
+		objectMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+		return objectMapper;
+	}
+
+	public void setCollisionDetection(boolean collisionDetection) {
+		this.collisionDetection = collisionDetection;
+	}
+
+	// Number of capture keys whose arguments are remembered to detect collisions.
+	public void setCollisionDetectionCacheSize(int collisionDetectionCacheSize) {
+		Validate.isTrue(collisionDetectionCacheSize > 0, "The collision detection cache size must be positive.");
+		this.fingerprints = new BoundedCache<String, Long>(collisionDetectionCacheSize, EvictionPolicy.LRU);
+	}
+}
@@ -22,14 +22,14 @@ import org.springframework.beans.factory.DisposableBean;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class TemporaryCaptureFileProvider implements CaptureFileProvider, DisposableBean {
 
 	private TemporaryFolder temporaryFolder = new TemporaryFolder();
 
-	private Map<String, File> fileMap = new WeakHashMap<String, File>();
+	private final ConcurrentMap<String, File> fileMap = new ConcurrentHashMap<String, File>();
 
 	public TemporaryCaptureFileProvider() throws IOException {
 		temporaryFolder.create();
@@ -38,16 +38,23 @@ public class TemporaryCaptureFileProvider implements CaptureFileProvider, Dispos
 	@Override
 	public File getCaptureFile(String fileName) throws IOException {
 		Validate.notNull("You cannot use getCaptureFile() without setting a temporary folder first.");
-		if (fileMap.containsKey(fileName)) {
-			return fileMap.get(fileName);
+		File file = fileMap.get(fileName);
+		if (file != null) {
+			return file;
 		}
-		File file = new File(temporaryFolder.getRoot(), fileName);
-		if (file.exists()) {
-			file.delete();
+		// Files are created once, even if several threads ask for the same file at the same time.
+		synchronized (fileMap) {
+			file = fileMap.get(fileName);
+			if (file == null) {
+				file = new File(temporaryFolder.getRoot(), fileName);
+				if (file.exists()) {
+					file.delete();
+				}
+				file = temporaryFolder.newFile(fileName);
+				fileMap.put(fileName, file);
+			}
+			return file;
 		}
-		file = temporaryFolder.newFile(fileName);
-		fileMap.put(fileName, file);
-		return file;
 	}
 
 	@Override
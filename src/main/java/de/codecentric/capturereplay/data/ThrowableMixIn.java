@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Throwable has no setters for its message and cause, so they would be skipped because of REQUIRE_SETTERS_FOR_GETTERS.
+@JsonIgnoreProperties({"localizedMessage", "suppressed"})
+abstract class ThrowableMixIn {
+
+	// Newer Java versions do not allow to make the field and the package-private setter of the cause accessible. The
+	// cause is set with initCause instead.
+	@JsonIgnore
+	private Throwable cause;
+
+	@JsonProperty("message")
+	abstract String getMessage();
+
+	@JsonProperty("cause")
+	abstract Throwable getCause();
+
+	@JsonIgnore
+	abstract void setCause(Throwable cause);
+}
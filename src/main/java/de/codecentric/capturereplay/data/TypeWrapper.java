@@ -16,11 +16,23 @@
 
 package de.codecentric.capturereplay.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class TypeWrapper {
 	public String type;
 
 	public Object object;
 
+	// True if the object is an exception that has been thrown instead of returning a value.
+	public boolean exception;
+
+	// Time in nanoseconds the captured method took, or 0 if it is not known.
+	public long duration;
+
+	// Key of the payload holding the object if payloads are deduplicated.
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String payload;
+
 	public TypeWrapper() {
 	}
 
@@ -29,6 +41,12 @@ public class TypeWrapper {
 		this.object = object;
 	}
 
+	public TypeWrapper(String type, Object object, boolean exception) {
+		this.type = type;
+		this.object = object;
+		this.exception = exception;
+	}
+
 	public String getType() {
 		return type;
 	}
@@ -44,4 +62,28 @@ public class TypeWrapper {
 	public void setObject(Object object) {
 		this.object = object;
 	}
+
+	public boolean isException() {
+		return exception;
+	}
+
+	public void setException(boolean exception) {
+		this.exception = exception;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.metrics;
+
+import de.codecentric.capturereplay.Mode;
+
+import java.lang.reflect.Method;
+
+// Receives measurements of capturing and replaying. Implementations are called on the hot path of every
+// intercepted method and must neither block nor allocate more than necessary.
+public interface CaptureReplayMetrics {
+
+	// Time spent by the advice itself, i.e. without the time of the captured method.
+	void recordAdviceOverhead(Method method, Mode mode, long nanos);
+
+	void recordSerialization(Method method, long nanos);
+
+	void recordDeserialization(Method method, long nanos);
+
+	void recordWrite(Method method, long nanos);
+
+	void recordRead(Method method, long nanos);
+
+	void recordPayloadSize(Method method, int bytes);
+
+	void recordReplayHit(Method method);
+
+	void recordReplayMiss(Method method);
+
+	void recordError(Method method);
+}
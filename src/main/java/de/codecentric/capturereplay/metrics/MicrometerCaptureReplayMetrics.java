@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.metrics;
+
+import de.codecentric.capturereplay.Mode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.Validate;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Publishes the measurements to a Micrometer registry. It requires io.micrometer:micrometer-core on the classpath.
+public class MicrometerCaptureReplayMetrics implements CaptureReplayMetrics {
+
+	public static final String DEFAULT_PREFIX = "capture.replay";
+
+	private final MeterRegistry meterRegistry;
+
+	private final String prefix;
+
+	// Meters are looked up once per method, so recording does not allocate tags on every call.
+	private final ConcurrentMap<Method, MethodMeters> methodMeters = new ConcurrentHashMap<Method, MethodMeters>();
+
+	public MicrometerCaptureReplayMetrics(MeterRegistry meterRegistry) {
+		this(meterRegistry, DEFAULT_PREFIX);
+	}
+
+	public MicrometerCaptureReplayMetrics(MeterRegistry meterRegistry, String prefix) {
+		Validate.notNull(meterRegistry, "The meter registry must not be null.");
+		Validate.notNull(prefix, "The prefix must not be null.");
+		this.meterRegistry = meterRegistry;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public void recordAdviceOverhead(Method method, Mode mode, long nanos) {
+		MethodMeters meters = getMethodMeters(method);
+		(Mode.REPLAY.equals(mode) ? meters.replayOverhead : meters.captureOverhead).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordSerialization(Method method, long nanos) {
+		getMethodMeters(method).serialization.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordDeserialization(Method method, long nanos) {
+		getMethodMeters(method).deserialization.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordWrite(Method method, long nanos) {
+		getMethodMeters(method).write.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordRead(Method method, long nanos) {
+		getMethodMeters(method).read.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordPayloadSize(Method method, int bytes) {
+		getMethodMeters(method).payloadSize.record(bytes);
+	}
+
+	@Override
+	public void recordReplayHit(Method method) {
+		getMethodMeters(method).replayHits.increment();
+	}
+
+	@Override
+	public void recordReplayMiss(Method method) {
+		getMethodMeters(method).replayMisses.increment();
+	}
+
+	@Override
+	public void recordError(Method method) {
+		getMethodMeters(method).errors.increment();
+	}
+
+	private MethodMeters getMethodMeters(Method method) {
+		MethodMeters meters = methodMeters.get(method);
+		if (meters == null) {
+			meters = new MethodMeters(method);
+			MethodMeters existingMeters = methodMeters.putIfAbsent(method, meters);
+			if (existingMeters != null) {
+				meters = existingMeters;
+			}
+		}
+		return meters;
+	}
+
+	private class MethodMeters {
+
+		private final Timer captureOverhead;
+
+		private final Timer replayOverhead;
+
+		private final Timer serialization;
+
+		private final Timer deserialization;
+
+		private final Timer write;
+
+		private final Timer read;
+
+		private final DistributionSummary payloadSize;
+
+		private final Counter replayHits;
+
+		private final Counter replayMisses;
+
+		private final Counter errors;
+
+		private MethodMeters(Method method) {
+			Tags tags = Tags.of("class", method.getDeclaringClass().getName(), "method", method.getName());
+			captureOverhead = timer("advice", tags.and("mode", "capture"));
+			replayOverhead = timer("advice", tags.and("mode", "replay"));
+			serialization = timer("serialization", tags);
+			deserialization = timer("deserialization", tags);
+			write = timer("io", tags.and("operation", "write"));
+			read = timer("io", tags.and("operation", "read"));
+			payloadSize = DistributionSummary.builder(prefix + ".payload.size").baseUnit("bytes").tags(tags).register(meterRegistry);
+			replayHits = Counter.builder(prefix + ".replay").tags(tags.and("result", "hit")).register(meterRegistry);
+			replayMisses = Counter.builder(prefix + ".replay").tags(tags.and("result", "miss")).register(meterRegistry);
+			errors = Counter.builder(prefix + ".errors").tags(tags).register(meterRegistry);
+		}
+
+		private Timer timer(String name, Tags tags) {
+			return Timer.builder(prefix + "." + name).tags(tags).register(meterRegistry);
+		}
+	}
+}
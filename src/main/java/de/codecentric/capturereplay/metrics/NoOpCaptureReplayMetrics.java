@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.metrics;
+
+import de.codecentric.capturereplay.Mode;
+
+import java.lang.reflect.Method;
+
+public final class NoOpCaptureReplayMetrics implements CaptureReplayMetrics {
+
+	public static final NoOpCaptureReplayMetrics INSTANCE = new NoOpCaptureReplayMetrics();
+
+	private NoOpCaptureReplayMetrics() {
+	}
+
+	@Override
+	public void recordAdviceOverhead(Method method, Mode mode, long nanos) {
+	}
+
+	@Override
+	public void recordSerialization(Method method, long nanos) {
+	}
+
+	@Override
+	public void recordDeserialization(Method method, long nanos) {
+	}
+
+	@Override
+	public void recordWrite(Method method, long nanos) {
+	}
+
+	@Override
+	public void recordRead(Method method, long nanos) {
+	}
+
+	@Override
+	public void recordPayloadSize(Method method, int bytes) {
+	}
+
+	@Override
+	public void recordReplayHit(Method method) {
+	}
+
+	@Override
+	public void recordReplayMiss(Method method) {
+	}
+
+	@Override
+	public void recordError(Method method) {
+	}
+}
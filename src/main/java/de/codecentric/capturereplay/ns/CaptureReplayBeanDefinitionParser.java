@@ -17,10 +17,15 @@
 package de.codecentric.capturereplay.ns;
 
 import de.codecentric.capturereplay.CaptureReplayAdvice;
+import de.codecentric.capturereplay.CaptureReplayProxyCreator;
+import de.codecentric.capturereplay.CaptureReplayWarmUp;
 import de.codecentric.capturereplay.Mode;
-import org.springframework.aop.config.AopConfigUtils;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
 import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.beans.factory.xml.AbstractBeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.w3c.dom.Element;
@@ -40,12 +45,35 @@ public class CaptureReplayBeanDefinitionParser extends AbstractBeanDefinitionPar
 		BeanDefinitionBuilder builder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayAdvice.class);
 		builder.addPropertyValue("mode", mode);
 		builder.addPropertyReference("dataMapper", dataMapperRef);
+		if (element.hasAttribute("metrics-ref")) {
+			builder.addPropertyReference("metrics", element.getAttribute("metrics-ref"));
+		}
 
-		AopConfigUtils.registerAspectJAnnotationAutoProxyCreatorIfNecessary(parserContext.getRegistry());
+		boolean preloadCaptures = Boolean.parseBoolean(element.getAttribute("preload-captures"));
+		if (Boolean.parseBoolean(element.getAttribute("warm-up")) || preloadCaptures) {
+			BeanDefinitionBuilder warmUpBuilder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayWarmUp.class);
+			warmUpBuilder.addPropertyReference("dataMapper", dataMapperRef);
+			warmUpBuilder.addPropertyValue("mode", mode);
+			warmUpBuilder.addPropertyValue("preloadCaptures", preloadCaptures);
+			if (element.hasAttribute("preload-threads")) {
+				warmUpBuilder.addPropertyValue("preloadThreads", element.getAttribute("preload-threads"));
+			}
+			parserContext.getReaderContext().registerWithGeneratedName(warmUpBuilder.getBeanDefinition());
+		}
 
 		return builder.getBeanDefinition();
 	}
 
+	@Override
+	protected void registerBeanDefinition(BeanDefinitionHolder definition, BeanDefinitionRegistry registry) {
+		super.registerBeanDefinition(definition, registry);
+		// The proxy creator looks up the advice by its id, which is only known once it has been resolved.
+		BeanDefinitionBuilder proxyCreatorBuilder = BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayProxyCreator.class);
+		proxyCreatorBuilder.addPropertyValue("captureReplayAdviceBeanName", definition.getBeanName());
+		proxyCreatorBuilder.setRole(BeanDefinition.ROLE_INFRASTRUCTURE);
+		BeanDefinitionReaderUtils.registerWithGeneratedName(proxyCreatorBuilder.getBeanDefinition(), registry);
+	}
+
 	@Override
 	protected boolean shouldGenerateIdAsFallback() {
 		return true;
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import de.codecentric.capturereplay.data.InMemoryCaptureStore;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import de.codecentric.capturereplay.data.ReplayedThrowableException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncResultsTest {
+
+	@Test
+	public void testFailureOfFutureIsReplayedWithoutCompletionException() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.afterPropertiesSet();
+		Method method = AsyncService.class.getMethod("find", int.class);
+		// Stages that depend on a failed one fail with a CompletionException, which is not captured.
+		Throwable failure = AsyncResults.wrapFailure(new CompletionException(new IOException("remote failure")));
+		dataMapper.writeCompletedFuture(method, null, failure, new Object[]{1}, 0);
+		dataMapper.flushCompletedFutures();
+
+		try {
+			dataMapper.getCapturedData(method, new Object[]{1});
+			fail("Expected the failure of the future to be replayed.");
+		} catch (ReplayedThrowableException e) {
+			Throwable replayedThrowable = e.getReplayedThrowable();
+			assertTrue(AsyncResults.isWrappedFailure(replayedThrowable));
+			assertTrue(replayedThrowable.getCause() instanceof IOException);
+			assertEquals("remote failure", replayedThrowable.getCause().getMessage());
+		}
+	}
+
+	public static class AsyncService {
+
+		public CompletableFuture<String> find(int id) {
+			return null;
+		}
+	}
+}
@@ -17,12 +17,24 @@
 package de.codecentric.capturereplay;
 
 import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class CapturableBean {
 
 	private String string;
 
+	private boolean failing;
+
+	private int touches;
+
 	public void setString(String string) {
 		this.string = string;
 	}
@@ -32,4 +44,53 @@ public class CapturableBean {
 		return string;
 	}
 
+	public void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+
+	@Capturable
+	public String getStringOrFail() throws IOException {
+		if (failing) {
+			throw new IOException("remote failure");
+		}
+		return string;
+	}
+
+	@Capturable
+	public CompletableFuture<String> getStringAsync() {
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		if (failing) {
+			future.completeExceptionally(new IOException("remote failure"));
+		} else {
+			future.complete(string);
+		}
+		return future;
+	}
+
+	@Capturable
+	public ListenableFuture<String> getStringListenable() {
+		ListenableFutureTask<String> future = new ListenableFutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() {
+				return string;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	@Capturable
+	public void touch() {
+		touches++;
+	}
+
+	public int getTouches() {
+		return touches;
+	}
+
+	@Capturable
+	public Iterator<String> getWords() {
+		return Arrays.asList(string.split(" ")).iterator();
+	}
+
 }
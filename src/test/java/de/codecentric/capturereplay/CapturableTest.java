@@ -16,13 +16,31 @@
 
 package de.codecentric.capturereplay;
 
+import de.codecentric.capturereplay.data.CaptureStore;
+import de.codecentric.capturereplay.data.DataMapper;
+import de.codecentric.capturereplay.data.JsonDataMapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration
@@ -34,6 +52,9 @@ public class CapturableTest {
 	@Autowired
 	private CaptureReplayAdvice captureReplayAdvice;
 
+	@Autowired
+	private DataMapper dataMapper;
+
 	@Test
 	public void testCaptureReplayAdvice() {
 		// Call getString() and capture the return value "captured text". Assert that it is "captured text".
@@ -58,6 +79,158 @@ public class CapturableTest {
 		assertEquals("captured text", capturableBean.getString());
 	}
 
+	@Test
+	public void testDisabledModeRemovesAdvisor() {
+		Advised proxy = (Advised) capturableBean;
+
+		captureReplayAdvice.setMode(Mode.DISABLED);
+		assertEquals(0, proxy.getAdvisors().length);
+
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		assertEquals(1, proxy.getAdvisors().length);
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		assertEquals(1, proxy.getAdvisors().length);
+	}
+
+	@Test
+	public void testCaptureReplayNullResult() {
+		capturableBean.setString(null);
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		assertNull(capturableBean.getString());
+
+		capturableBean.setString("other text");
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		assertNull(capturableBean.getString());
+	}
+
+	@Test
+	public void testCaptureReplayVoidMethod() {
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		int touches = capturableBean.getTouches();
+		capturableBean.touch();
+		assertEquals(touches + 1, capturableBean.getTouches());
+
+		// The void method is not called in replay mode.
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		capturableBean.touch();
+		assertEquals(touches + 1, capturableBean.getTouches());
+	}
+
+	@Test
+	public void testCaptureReplayException() throws Exception {
+		capturableBean.setFailing(true);
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		try {
+			capturableBean.getStringOrFail();
+			fail("The captured method must throw its exception.");
+		} catch (IOException e) {
+			assertEquals("remote failure", e.getMessage());
+		}
+
+		// The exception is replayed, although the method would not fail anymore.
+		capturableBean.setFailing(false);
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		try {
+			capturableBean.getStringOrFail();
+			fail("The replayed method must throw the captured exception.");
+		} catch (IOException e) {
+			assertEquals("remote failure", e.getMessage());
+			assertTrue(e.getStackTrace().length > 0);
+		}
+	}
+
+	@Test
+	public void testExceptionIsThrownIfItCannotBeCaptured() throws Exception {
+		JsonDataMapper failingDataMapper = new JsonDataMapper(new CaptureStore() {
+			@Override
+			public OutputStream openCaptureOutput(String captureKey) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public InputStream openCaptureInput(String captureKey) throws IOException {
+				throw new FileNotFoundException(captureKey);
+			}
+		});
+		failingDataMapper.afterPropertiesSet();
+		capturableBean.setFailing(true);
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		captureReplayAdvice.setDataMapper(failingDataMapper);
+		try {
+			capturableBean.getStringOrFail();
+			fail("The captured method must throw its exception.");
+		} catch (IOException e) {
+			// A failure of the capture does not change what the caller sees.
+			assertEquals("remote failure", e.getMessage());
+		} finally {
+			captureReplayAdvice.setDataMapper(dataMapper);
+			capturableBean.setFailing(false);
+		}
+	}
+
+	@Test
+	public void testCaptureReplayIterator() {
+		capturableBean.setString("captured words");
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		Iterator<String> words = capturableBean.getWords();
+		assertEquals("captured", words.next());
+		assertEquals("words", words.next());
+		assertFalse(words.hasNext());
+
+		capturableBean.setString("other words");
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		words = capturableBean.getWords();
+		assertEquals("captured", words.next());
+		assertEquals("words", words.next());
+		assertFalse(words.hasNext());
+	}
+
+	@Test
+	public void testCaptureReplayCompletableFuture() throws Exception {
+		capturableBean.setString("captured text");
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		assertEquals("captured text", capturableBean.getStringAsync().get());
+		((JsonDataMapper) dataMapper).flushCompletedFutures();
+
+		capturableBean.setString("other text");
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		CompletableFuture<String> replayed = capturableBean.getStringAsync();
+		assertEquals("captured text", replayed.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCaptureReplayFailedFuture() throws Exception {
+		capturableBean.setFailing(true);
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		assertTrue(capturableBean.getStringAsync().isCompletedExceptionally());
+		((JsonDataMapper) dataMapper).flushCompletedFutures();
+
+		// The failed future is replayed instead of an exception being thrown.
+		capturableBean.setFailing(false);
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		CompletableFuture<String> replayed = capturableBean.getStringAsync();
+		try {
+			replayed.get(10, TimeUnit.SECONDS);
+			fail("The replayed future must fail with the captured exception.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertEquals("remote failure", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testCaptureReplayListenableFuture() throws Exception {
+		capturableBean.setString("captured text");
+		captureReplayAdvice.setMode(Mode.CAPTURE);
+		assertEquals("captured text", capturableBean.getStringListenable().get());
+		((JsonDataMapper) dataMapper).flushCompletedFutures();
+
+		capturableBean.setString("other text");
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		ListenableFuture<String> replayed = capturableBean.getStringListenable();
+		assertEquals("captured text", replayed.get(10, TimeUnit.SECONDS));
+	}
+
 	@Test(expected = CaptureReplayAdvice.IllegalCaptureReplayUsageException.class)
 	public void testSwitchOffCaptureReplayAdvice() {
 		captureReplayAdvice.setMode(Mode.OFF);
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import de.codecentric.capturereplay.data.InMemoryCaptureStore;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AnnotationAwareAspectJAutoProxyCreator;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureReplayProxyCreatorTest {
+
+	@Test
+	public void testAdviceIsProcessedByAllPostProcessors() {
+		GenericApplicationContext applicationContext = createApplicationContext();
+		applicationContext.registerBeanDefinition("recordingPostProcessor", BeanDefinitionBuilder.rootBeanDefinition(RecordingPostProcessor.class).getBeanDefinition());
+		applicationContext.registerBeanDefinition("captureReplayProxyCreator", BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayProxyCreator.class)
+				.addPropertyValue("captureReplayAdviceBeanName", "captureReplayAdvice").getBeanDefinition());
+		applicationContext.refresh();
+		try {
+			Set<String> processedBeans = applicationContext.getBean(RecordingPostProcessor.class).processedBeans;
+			assertTrue(processedBeans.contains("captureReplayAdvice"));
+			assertTrue(processedBeans.contains("dataMapper"));
+			assertCallsAreCapturedAndReplayed(applicationContext);
+			assertTrue(applicationContext.getBean(CapturableBean.class) instanceof Advised);
+		} finally {
+			applicationContext.close();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedAspectCapturesAndReplaysCalls() {
+		GenericApplicationContext applicationContext = createApplicationContext();
+		applicationContext.registerBeanDefinition("aspectJAutoProxyCreator", BeanDefinitionBuilder.rootBeanDefinition(AnnotationAwareAspectJAutoProxyCreator.class).getBeanDefinition());
+		applicationContext.registerBeanDefinition("captureReplayAspect", BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayAspect.class)
+				.addPropertyReference("captureReplayAdvice", "captureReplayAdvice").getBeanDefinition());
+		applicationContext.refresh();
+		try {
+			assertCallsAreCapturedAndReplayed(applicationContext);
+		} finally {
+			applicationContext.close();
+		}
+	}
+
+	private static GenericApplicationContext createApplicationContext() {
+		GenericApplicationContext applicationContext = new GenericApplicationContext();
+		applicationContext.registerBeanDefinition("captureStore", BeanDefinitionBuilder.rootBeanDefinition(InMemoryCaptureStore.class).getBeanDefinition());
+		applicationContext.registerBeanDefinition("dataMapper", BeanDefinitionBuilder.rootBeanDefinition(JsonDataMapper.class)
+				.addConstructorArgReference("captureStore").getBeanDefinition());
+		applicationContext.registerBeanDefinition("captureReplayAdvice", BeanDefinitionBuilder.rootBeanDefinition(CaptureReplayAdvice.class)
+				.addPropertyValue("mode", Mode.CAPTURE).addPropertyReference("dataMapper", "dataMapper").getBeanDefinition());
+		applicationContext.registerBeanDefinition("capturableBean", BeanDefinitionBuilder.rootBeanDefinition(CapturableBean.class).getBeanDefinition());
+		return applicationContext;
+	}
+
+	private static void assertCallsAreCapturedAndReplayed(GenericApplicationContext applicationContext) {
+		CapturableBean capturableBean = applicationContext.getBean(CapturableBean.class);
+		CaptureReplayAdvice captureReplayAdvice = applicationContext.getBean(CaptureReplayAdvice.class);
+		capturableBean.setString("captured text");
+		assertEquals("captured text", capturableBean.getString());
+		assertEquals(1, applicationContext.getBean(InMemoryCaptureStore.class).size());
+
+		capturableBean.setString("other text");
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		assertEquals("captured text", capturableBean.getString());
+	}
+
+	public static class RecordingPostProcessor implements BeanPostProcessor {
+
+		private final Set<String> processedBeans = new HashSet<String>();
+
+		@Override
+		public Object postProcessBeforeInitialization(Object bean, String beanName) {
+			processedBeans.add(beanName);
+			return bean;
+		}
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) {
+			return bean;
+		}
+	}
+}
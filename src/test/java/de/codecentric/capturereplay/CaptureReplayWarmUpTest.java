@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay;
+
+import de.codecentric.capturereplay.data.DefaultCaptureFileProvider;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureReplayWarmUpTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File captureFilesDirectory;
+
+	private StaticApplicationContext applicationContext;
+
+	@Before
+	public void setUp() throws Exception {
+		captureFilesDirectory = temporaryFolder.newFolder("captures");
+		applicationContext = new StaticApplicationContext();
+		applicationContext.registerSingleton("capturableBean", CapturableBean.class);
+		applicationContext.refresh();
+	}
+
+	@Test
+	public void testCapturableMethodsAreWarmedUp() throws Exception {
+		CaptureReplayWarmUp warmUp = createWarmUp(createDataMapper(0), false);
+		warmUp.start();
+
+		assertTrue(warmUp.isRunning());
+		assertEquals(6, warmUp.getWarmedUpMethods());
+		assertEquals(0, warmUp.getPreloadedCaptures());
+	}
+
+	@Test
+	public void testNothingIsWarmedUpWhileCapturing() throws Exception {
+		JsonDataMapper captureDataMapper = createDataMapper(0);
+		captureDataMapper.writeCapturedData(CapturableBean.class.getMethod("getString"), "captured text", new Object[0]);
+
+		CaptureReplayWarmUp warmUp = createWarmUp(createDataMapper(16), true);
+		warmUp.setMode(Mode.CAPTURE);
+		warmUp.start();
+
+		assertTrue(warmUp.isRunning());
+		assertEquals(0, warmUp.getWarmedUpMethods());
+		assertEquals(0, warmUp.getPreloadedCaptures());
+	}
+
+	@Test
+	public void testCapturesArePreloadedIntoReplayCache() throws Exception {
+		JsonDataMapper captureDataMapper = createDataMapper(0);
+		captureDataMapper.writeCapturedData(CapturableBean.class.getMethod("getString"), "captured text", new Object[0]);
+		Iterator<?> words = (Iterator<?>) captureDataMapper.writeCapturedElements(CapturableBean.class.getMethod("getWords"),
+				Arrays.asList("captured", "text").iterator(), new Object[0], 0);
+		while (words.hasNext()) {
+			words.next();
+		}
+		// Capture file providers may hand out empty files for calls that have never been captured.
+		new FileOutputStream(new File(captureFilesDirectory, "empty.json")).close();
+		// A broken capture is skipped without stopping the other captures from being preloaded.
+		FileOutputStream brokenCapture = new FileOutputStream(new File(captureFilesDirectory, "broken.json"));
+		brokenCapture.write("{\"type\":".getBytes("UTF-8"));
+		brokenCapture.close();
+
+		JsonDataMapper replayDataMapper = createDataMapper(16);
+		CaptureReplayWarmUp warmUp = createWarmUp(replayDataMapper, true);
+		warmUp.start();
+		assertEquals(2, warmUp.getPreloadedCaptures());
+
+		// Captured elements bypass the replay cache and are read from the capture store while they are consumed.
+		Iterator<?> replayedWords = (Iterator<?>) replayDataMapper.getCapturedData(CapturableBean.class.getMethod("getWords"), new Object[0]);
+		assertEquals("captured", replayedWords.next());
+		assertEquals("text", replayedWords.next());
+
+		// The other captures are replayed from the replay cache once they have been preloaded.
+		for (File captureFile : captureFilesDirectory.listFiles()) {
+			assertTrue(captureFile.delete());
+		}
+		assertEquals("captured text", replayDataMapper.getCapturedData(CapturableBean.class.getMethod("getString"), new Object[0]));
+	}
+
+	@Test
+	public void testCapturesAreNotPreloadedWithoutReplayCache() throws Exception {
+		JsonDataMapper captureDataMapper = createDataMapper(0);
+		captureDataMapper.writeCapturedData(CapturableBean.class.getMethod("getString"), "captured text", new Object[0]);
+
+		CaptureReplayWarmUp warmUp = createWarmUp(createDataMapper(0), true);
+		warmUp.start();
+
+		assertEquals(6, warmUp.getWarmedUpMethods());
+		assertEquals(0, warmUp.getPreloadedCaptures());
+	}
+
+	private CaptureReplayWarmUp createWarmUp(JsonDataMapper dataMapper, boolean preloadCaptures) {
+		CaptureReplayWarmUp warmUp = new CaptureReplayWarmUp();
+		warmUp.setApplicationContext(applicationContext);
+		warmUp.setDataMapper(dataMapper);
+		warmUp.setPreloadCaptures(preloadCaptures);
+		warmUp.setPreloadThreads(2);
+		return warmUp;
+	}
+
+	private JsonDataMapper createDataMapper(int replayCacheSize) throws Exception {
+		DefaultCaptureFileProvider captureFileProvider = new DefaultCaptureFileProvider();
+		captureFileProvider.setCaptureFilesPath(captureFilesDirectory.getPath());
+		captureFileProvider.afterPropertiesSet();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureFileProvider);
+		dataMapper.setReplayCacheSize(replayCacheSize);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncCaptureWriterTest {
+
+	@Test
+	public void testShutdownFlushesPendingCaptures() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 100, 10, OverflowPolicy.BLOCK);
+		asyncCaptureWriter.start();
+		for (int i = 0; i < 50; i++) {
+			asyncCaptureWriter.write("key-" + i, ("value-" + i).getBytes());
+		}
+		asyncCaptureWriter.shutdown();
+
+		for (int i = 0; i < 50; i++) {
+			assertEquals("value-" + i, captureStore.getCapture("key-" + i));
+		}
+	}
+
+	@Test
+	public void testWritesOfSameKeyAreCoalesced() throws Exception {
+		BlockingCaptureStore captureStore = new BlockingCaptureStore();
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 100, 100, OverflowPolicy.BLOCK);
+		asyncCaptureWriter.start();
+
+		// The first capture blocks the writer thread, so the following ones end up in the same batch.
+		asyncCaptureWriter.write("blocker", "blocker".getBytes());
+		captureStore.awaitBlocked();
+		for (int i = 0; i < 10; i++) {
+			asyncCaptureWriter.write("key", ("value-" + i).getBytes());
+		}
+		captureStore.unblock();
+		asyncCaptureWriter.shutdown();
+
+		assertEquals("value-9", captureStore.getCapture("key"));
+		assertEquals(2, captureStore.getWrites());
+	}
+
+	@Test
+	public void testDropOnOverflow() throws Exception {
+		BlockingCaptureStore captureStore = new BlockingCaptureStore();
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 1, 1, OverflowPolicy.DROP);
+		asyncCaptureWriter.start();
+
+		asyncCaptureWriter.write("blocker", "blocker".getBytes());
+		captureStore.awaitBlocked();
+		asyncCaptureWriter.write("queued", "queued".getBytes());
+		asyncCaptureWriter.write("dropped", "dropped".getBytes());
+		captureStore.unblock();
+		asyncCaptureWriter.shutdown();
+
+		assertEquals(1, asyncCaptureWriter.getDroppedCaptures());
+		assertEquals("queued", captureStore.getCapture("queued"));
+		assertEquals(null, captureStore.getCapture("dropped"));
+	}
+
+	@Test
+	public void testSynchronousWriteOnOverflow() throws Exception {
+		BlockingCaptureStore captureStore = new BlockingCaptureStore();
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 1, 1, OverflowPolicy.SYNC);
+		asyncCaptureWriter.start();
+
+		asyncCaptureWriter.write("blocker", "blocker".getBytes());
+		captureStore.awaitBlocked();
+		asyncCaptureWriter.write("queued", "queued".getBytes());
+		asyncCaptureWriter.write("sync", "sync".getBytes());
+
+		// The overflowing capture has been written on the calling thread, while the writer thread is still blocked.
+		assertEquals("sync", captureStore.getCapture("sync"));
+		captureStore.unblock();
+		asyncCaptureWriter.shutdown();
+
+		assertEquals(0, asyncCaptureWriter.getDroppedCaptures());
+		assertEquals(3, captureStore.getWrites());
+	}
+
+	@Test
+	public void testShutdownWritesQueuedCapturesWithoutInterrupting() throws Exception {
+		BlockingCaptureStore captureStore = new BlockingCaptureStore();
+		final AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 100, 10, OverflowPolicy.BLOCK);
+		asyncCaptureWriter.start();
+
+		asyncCaptureWriter.write("blocker", "blocker".getBytes());
+		captureStore.awaitBlocked();
+		asyncCaptureWriter.write("queued", "queued".getBytes());
+		Thread shutdownThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					asyncCaptureWriter.shutdown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		shutdownThread.start();
+		while (shutdownThread.getState() != Thread.State.WAITING && shutdownThread.getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(1);
+		}
+
+		// The blocked store would fail if the writer thread was interrupted.
+		captureStore.unblock();
+		shutdownThread.join();
+		assertEquals(0, asyncCaptureWriter.getFailedCaptures());
+		assertEquals("blocker", captureStore.getCapture("blocker"));
+		assertEquals("queued", captureStore.getCapture("queued"));
+
+		// Captures after the shutdown are dropped instead of failing the captured call.
+		asyncCaptureWriter.write("late", "late".getBytes());
+		assertEquals(1, asyncCaptureWriter.getDroppedCaptures());
+		assertEquals(null, captureStore.getCapture("late"));
+	}
+
+	@Test
+	public void testSynchronousWriteIsNotOverwrittenByQueuedCapture() throws Exception {
+		BlockingCaptureStore captureStore = new BlockingCaptureStore();
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 1, 1, OverflowPolicy.SYNC);
+		asyncCaptureWriter.start();
+
+		asyncCaptureWriter.write("blocker", "blocker".getBytes());
+		captureStore.awaitBlocked();
+		asyncCaptureWriter.write("key", "older".getBytes());
+		asyncCaptureWriter.write("key", "newer".getBytes());
+		captureStore.unblock();
+		asyncCaptureWriter.shutdown();
+
+		assertEquals("newer", captureStore.getCapture("key"));
+	}
+
+	@Test
+	public void testRuntimeExceptionOfStoreDoesNotStopWriter() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore() {
+			@Override
+			public OutputStream openCaptureOutput(String captureKey) throws IOException {
+				if ("failing".equals(captureKey)) {
+					throw new UnsupportedOperationException("The store is read-only.");
+				}
+				return super.openCaptureOutput(captureKey);
+			}
+		};
+		AsyncCaptureWriter asyncCaptureWriter = new AsyncCaptureWriter(captureStore, 1, 1, OverflowPolicy.BLOCK);
+		asyncCaptureWriter.start();
+
+		asyncCaptureWriter.write("failing", "failing".getBytes());
+		for (int i = 0; i < 10; i++) {
+			asyncCaptureWriter.write("key-" + i, ("value-" + i).getBytes());
+		}
+		asyncCaptureWriter.shutdown();
+
+		assertEquals(1, asyncCaptureWriter.getFailedCaptures());
+		assertEquals("value-9", captureStore.getCapture("key-9"));
+	}
+
+	private static class BlockingCaptureStore extends InMemoryCaptureStore {
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+
+		private final CountDownLatch unblocked = new CountDownLatch(1);
+
+		@Override
+		public OutputStream openCaptureOutput(String captureKey) throws IOException {
+			if ("blocker".equals(captureKey)) {
+				blocked.countDown();
+				try {
+					unblocked.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			return super.openCaptureOutput(captureKey);
+		}
+
+		public void awaitBlocked() throws InterruptedException {
+			blocked.await();
+		}
+
+		public void unblock() {
+			unblocked.countDown();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>(2, EvictionPolicy.LRU);
+		cache.put("first", "1");
+		cache.put("second", "2");
+		cache.get("first");
+		cache.put("third", "3");
+
+		assertEquals("1", cache.get("first"));
+		assertNull(cache.get("second"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testFirstInsertedEntryIsEvicted() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>(2, EvictionPolicy.FIFO);
+		cache.put("first", "1");
+		cache.put("second", "2");
+		cache.get("first");
+		cache.put("third", "3");
+
+		assertNull(cache.get("first"));
+		assertEquals("2", cache.get("second"));
+	}
+
+	@Test
+	public void testEntriesAreEvictedByWeight() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 5, EvictionPolicy.LRU, new BoundedCache.Weigher<String>() {
+			@Override
+			public long weigh(String value) {
+				return value.length();
+			}
+		});
+		cache.put("first", "12");
+		cache.put("second", "123");
+		assertEquals(5, cache.getWeight());
+
+		cache.put("first", "1");
+		assertEquals(4, cache.getWeight());
+		// Replacing the first entry has made the second one the least recently used.
+		cache.put("third", "123");
+
+		assertNull(cache.get("second"));
+		assertEquals(2, cache.size());
+		assertEquals(4, cache.getWeight());
+	}
+}
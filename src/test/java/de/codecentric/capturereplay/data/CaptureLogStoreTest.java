@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureLogStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private CaptureLogStore captureLogStore;
+
+	@Before
+	public void setUp() throws Exception {
+		captureLogStore = createCaptureLogStore(1024);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		captureLogStore.destroy();
+	}
+
+	@Test
+	public void testReadLatestCapture() throws Exception {
+		write(captureLogStore, "key", "first");
+		write(captureLogStore, "key", "second");
+		write(captureLogStore, "other", "other");
+
+		assertEquals("second", read(captureLogStore, "key"));
+		assertEquals("other", read(captureLogStore, "other"));
+		assertEquals(2, captureLogStore.size());
+	}
+
+	@Test
+	public void testIndexIsRebuiltFromSegments() throws Exception {
+		captureLogStore.destroy();
+		captureLogStore = createCaptureLogStore(64);
+		for (int i = 0; i < 20; i++) {
+			write(captureLogStore, "key-" + i, "value-" + i);
+		}
+		write(captureLogStore, "key-0", "latest");
+		captureLogStore.destroy();
+
+		// Small segments make the log roll over several times.
+		assertTrue(temporaryFolder.getRoot().listFiles().length > 1);
+
+		captureLogStore = createCaptureLogStore(64);
+		assertEquals("latest", read(captureLogStore, "key-0"));
+		for (int i = 1; i < 20; i++) {
+			assertEquals("value-" + i, read(captureLogStore, "key-" + i));
+		}
+	}
+
+	@Test
+	public void testIncompleteRecordIsDiscarded() throws Exception {
+		write(captureLogStore, "key", "value");
+		write(captureLogStore, "broken", "this record will be truncated");
+		captureLogStore.destroy();
+
+		File segment = new File(temporaryFolder.getRoot(), "captures-00000.log");
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 5);
+		file.close();
+
+		captureLogStore = createCaptureLogStore(1024);
+		assertEquals("value", read(captureLogStore, "key"));
+		assertFalse(captureLogStore.containsCapture("broken"));
+
+		// New records are appended right behind the last complete record.
+		write(captureLogStore, "next", "next");
+		assertEquals("next", read(captureLogStore, "next"));
+	}
+
+	@Test
+	public void testCorruptSealedSegmentIsNotTruncated() throws Exception {
+		captureLogStore.destroy();
+		captureLogStore = createCaptureLogStore(64);
+		for (int i = 0; i < 20; i++) {
+			write(captureLogStore, "key-" + i, "value-" + i);
+		}
+		captureLogStore.destroy();
+
+		File segment = new File(temporaryFolder.getRoot(), "captures-00000.log");
+		long segmentLength = segment.length();
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		// Breaks the length of the second record, so the records after the first one cannot be read anymore.
+		file.seek(20);
+		file.writeInt(Integer.MAX_VALUE);
+		file.close();
+
+		captureLogStore = createCaptureLogStore(64);
+		assertEquals(segmentLength, segment.length());
+		assertEquals("value-0", read(captureLogStore, "key-0"));
+		assertEquals("value-19", read(captureLogStore, "key-19"));
+	}
+
+	@Test
+	public void testInterruptedThreadsDoNotCloseSegments() throws Exception {
+		write(captureLogStore, "key", "value");
+
+		Thread.currentThread().interrupt();
+		try {
+			assertEquals("value", read(captureLogStore, "key"));
+			write(captureLogStore, "other", "other");
+		} finally {
+			// The interrupt is kept for the caller.
+			assertTrue(Thread.interrupted());
+		}
+
+		assertEquals("value", read(captureLogStore, "key"));
+		assertEquals("other", read(captureLogStore, "other"));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingCapture() throws Exception {
+		captureLogStore.openCaptureInput("missing");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAppendAfterDestroy() throws Exception {
+		captureLogStore.destroy();
+		write(captureLogStore, "key", "value");
+	}
+
+	private CaptureLogStore createCaptureLogStore(long segmentSize) throws Exception {
+		CaptureLogStore captureLogStore = new CaptureLogStore();
+		captureLogStore.setCaptureLogPath(temporaryFolder.getRoot().getPath());
+		captureLogStore.setSegmentSize(segmentSize);
+		captureLogStore.afterPropertiesSet();
+		return captureLogStore;
+	}
+
+	private void write(CaptureStore captureStore, String captureKey, String capturedData) throws IOException {
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		outputStream.write(capturedData.getBytes("UTF-8"));
+		outputStream.close();
+	}
+
+	private String read(CaptureStore captureStore, String captureKey) throws IOException {
+		InputStream inputStream = captureStore.openCaptureInput(captureKey);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = inputStream.read(buffer)) >= 0) {
+			outputStream.write(buffer, 0, read);
+		}
+		inputStream.close();
+		return outputStream.toString("UTF-8");
+	}
+}
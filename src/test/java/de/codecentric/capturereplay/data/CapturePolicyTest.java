@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import de.codecentric.capturereplay.Capturable;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CapturePolicyTest {
+
+	@Test
+	public void testSampling() throws Exception {
+		Method method = getMethod("find");
+		assertFalse(new SamplingCapturePolicy(0.0).shouldCaptureCall(method));
+		assertTrue(new SamplingCapturePolicy(1.0).shouldCaptureCall(method));
+	}
+
+	@Test
+	public void testRateLimitingAllowsBurstOfOneSecond() throws Exception {
+		RateLimitingCapturePolicy capturePolicy = new RateLimitingCapturePolicy(3);
+		Method method = getMethod("find");
+		assertTrue(capturePolicy.shouldCaptureCall(method));
+		assertTrue(capturePolicy.shouldCaptureCall(method));
+		assertTrue(capturePolicy.shouldCaptureCall(method));
+		assertFalse(capturePolicy.shouldCaptureCall(method));
+
+		// Every method has a bucket of its own.
+		assertTrue(capturePolicy.shouldCaptureCall(getMethod("findRarely")));
+	}
+
+	@Test
+	public void testLimitPerKey() throws Exception {
+		LimitPerKeyCapturePolicy capturePolicy = new LimitPerKeyCapturePolicy(2);
+		Method method = getMethod("find");
+		assertTrue(capturePolicy.shouldCaptureKey(method, "a"));
+		assertTrue(capturePolicy.shouldCaptureKey(method, "a"));
+		assertFalse(capturePolicy.shouldCaptureKey(method, "a"));
+		assertTrue(capturePolicy.shouldCaptureKey(method, "b"));
+	}
+
+	@Test
+	public void testSkipCapturedKeys() throws Exception {
+		SkipCapturedKeysCapturePolicy capturePolicy = new SkipCapturedKeysCapturePolicy();
+		Method method = getMethod("find");
+		assertTrue(capturePolicy.shouldCaptureKey(method, "a"));
+		assertFalse(capturePolicy.shouldCaptureKey(method, "a"));
+	}
+
+	@Test
+	public void testCompositeRequiresAllPolicies() throws Exception {
+		CompositeCapturePolicy capturePolicy = new CompositeCapturePolicy(Arrays.<CapturePolicy>asList(
+				new SamplingCapturePolicy(1.0), new SkipCapturedKeysCapturePolicy()));
+		Method method = getMethod("find");
+		assertTrue(capturePolicy.shouldCaptureCall(method));
+		assertTrue(capturePolicy.shouldCaptureKey(method, "a"));
+		assertFalse(capturePolicy.shouldCaptureKey(method, "a"));
+	}
+
+	@Test
+	public void testDataMapperAppliesGlobalAndMethodPolicies() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setCapturePolicy(new LimitPerKeyCapturePolicy(2));
+		dataMapper.afterPropertiesSet();
+
+		Method find = getMethod("find");
+		for (int i = 0; i < 5; i++) {
+			dataMapper.writeCapturedData(find, "result", new Object[]{1});
+		}
+		assertEquals(2, captureStore.getWrites());
+
+		Method findOnce = getMethod("findOnce");
+		for (int i = 0; i < 5; i++) {
+			dataMapper.writeCapturedData(findOnce, "result", new Object[]{1});
+		}
+		assertEquals(3, captureStore.getWrites());
+
+		Method findRarely = getMethod("findRarely");
+		for (int i = 0; i < 5; i++) {
+			dataMapper.writeCapturedData(findRarely, "result", new Object[]{i});
+		}
+		assertEquals(3, captureStore.getWrites());
+	}
+
+	private Method getMethod(String name) throws NoSuchMethodException {
+		return CapturedService.class.getMethod(name, int.class);
+	}
+
+	public static class CapturedService {
+
+		@Capturable
+		public String find(int id) {
+			return "result";
+		}
+
+		@Capturable(skipCapturedKeys = true)
+		public String findOnce(int id) {
+			return "result";
+		}
+
+		@Capturable(sampleRate = 0.0)
+		public String findRarely(int id) {
+			return "result";
+		}
+	}
+}
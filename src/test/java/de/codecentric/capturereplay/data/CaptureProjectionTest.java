@@ -0,0 +1,355 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import de.codecentric.capturereplay.Capturable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CaptureProjectionTest {
+
+	private InMemoryCaptureStore captureStore;
+
+	private JsonDataMapper dataMapper;
+
+	@Before
+	public void setUp() throws Exception {
+		captureStore = new InMemoryCaptureStore();
+		dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+	}
+
+	@Test
+	public void testOnlyIncludedPropertiesAreCaptured() throws Exception {
+		Method method = CustomerService.class.getMethod("findCustomerSummary", int.class);
+		Customer customer = createCustomer("Alice");
+		dataMapper.writeCapturedData(method, customer, new Object[]{1});
+
+		Customer replayed = (Customer) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals("Alice", replayed.getName());
+		assertEquals("Berlin", replayed.getAddress().getCity());
+		assertNull(replayed.getAddress().getStreet());
+		assertNull(replayed.getOrders());
+		// Left out associations are not even read.
+		assertEquals(0, customer.getOrdersReads());
+	}
+
+	@Test
+	public void testExcludedPropertiesAreNotCaptured() throws Exception {
+		Method method = CustomerService.class.getMethod("findCustomerWithoutOrders", int.class);
+		dataMapper.writeCapturedData(method, createCustomer("Alice"), new Object[]{1});
+
+		Customer replayed = (Customer) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals("Alice", replayed.getName());
+		assertEquals("Main Street", replayed.getAddress().getStreet());
+		assertNull(replayed.getOrders());
+		assertFalse(captureStore.getCapture(captureStore.getCaptureKeys().get(0)).contains("amount"));
+	}
+
+	@Test
+	public void testPropertiesBelowMaxDepthAreNotCaptured() throws Exception {
+		Method method = CustomerService.class.getMethod("findCustomerShallow", int.class);
+		dataMapper.writeCapturedData(method, createCustomer("Alice"), new Object[]{1});
+
+		Customer replayed = (Customer) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals("Alice", replayed.getName());
+		assertNotNull(replayed.getAddress());
+		assertNull(replayed.getAddress().getCity());
+		assertNull(replayed.getOrders().get(0).getId());
+	}
+
+	@Test
+	public void testPathsLeadThroughCollections() throws Exception {
+		Method method = CustomerService.class.getMethod("findOrderAmounts", int.class);
+		dataMapper.writeCapturedData(method, new ArrayList<Customer>(Arrays.asList(createCustomer("Alice"), createCustomer("Bob"))), new Object[]{1});
+
+		List<?> replayed = (List<?>) dataMapper.getCapturedData(method, new Object[]{1});
+		Customer bob = (Customer) replayed.get(1);
+		assertNull(bob.getName());
+		assertNull(bob.getOrders().get(0).getId());
+		assertEquals(42, bob.getOrders().get(0).getAmount());
+	}
+
+	@Test
+	public void testElementsAreProjected() throws Exception {
+		Method method = CustomerService.class.getMethod("iterateCustomerNames", int.class);
+		Iterator<?> captured = (Iterator<?>) dataMapper.writeCapturedElements(method, Arrays.asList(createCustomer("Alice")).iterator(), new Object[]{1}, 0);
+		while (captured.hasNext()) {
+			captured.next();
+		}
+
+		Iterator<?> replayed = (Iterator<?>) dataMapper.getCapturedData(method, new Object[]{1});
+		Customer alice = (Customer) replayed.next();
+		assertEquals("Alice", alice.getName());
+		assertNull(alice.getAddress());
+	}
+
+	@Test
+	public void testProjectionsOfDataMapperTakePrecedence() throws Exception {
+		CaptureProjection captureProjection = new CaptureProjection();
+		captureProjection.setExcludeProperties(Arrays.asList("name", "address.street"));
+		dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setCaptureProjections(Collections.singletonMap(
+				"de.codecentric.capturereplay.data.CaptureProjectionTest$CustomerService.findCustomerSummary(int)", captureProjection));
+		dataMapper.afterPropertiesSet();
+		Method method = CustomerService.class.getMethod("findCustomerSummary", int.class);
+		dataMapper.writeCapturedData(method, createCustomer("Alice"), new Object[]{1});
+
+		Customer replayed = (Customer) dataMapper.getCapturedData(method, new Object[]{1});
+		assertNull(replayed.getName());
+		assertEquals("Berlin", replayed.getAddress().getCity());
+		assertNull(replayed.getAddress().getStreet());
+		assertEquals(1, replayed.getOrders().size());
+	}
+
+	@Test
+	public void testProjectionKeyTellsOverloadedMethodsApart() throws Exception {
+		assertEquals("de.codecentric.capturereplay.data.CaptureProjectionTest$CustomerService.findCustomers(int,java.lang.String[])",
+				CaptureProjection.getProjectionKey(CustomerService.class.getMethod("findCustomers", int.class, String[].class)));
+		assertEquals("de.codecentric.capturereplay.data.CaptureProjectionTest$CustomerService.findCustomers()",
+				CaptureProjection.getProjectionKey(CustomerService.class.getMethod("findCustomers")));
+	}
+
+	@Test
+	public void testOwnFilterOfClassIsApplied() throws Exception {
+		ObjectMapper objectMapper = dataMapper.configureObjectMapper(new ObjectMapper());
+		objectMapper.setFilters(new SimpleFilterProvider().addFilter("secretFilter", SimpleBeanPropertyFilter.serializeAllExcept("secret")));
+		dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setObjectMapper(objectMapper);
+		dataMapper.afterPropertiesSet();
+		Method method = CustomerService.class.getMethod("findAccount", int.class);
+		Account account = new Account();
+		account.setName("Alice");
+		account.setSecret("password");
+		account.setNotes("notes");
+		dataMapper.writeCapturedData(method, account, new Object[]{1});
+
+		Account replayed = (Account) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals("Alice", replayed.getName());
+		assertNull(replayed.getSecret());
+		assertNull(replayed.getNotes());
+	}
+
+	@Test
+	public void testExceptionsAreCapturedAsAWhole() throws Exception {
+		Method method = CustomerService.class.getMethod("findCustomerShallow", int.class);
+		dataMapper.writeCapturedException(method, new IllegalStateException("Not found"), new Object[]{1}, 0);
+
+		try {
+			dataMapper.getCapturedData(method, new Object[]{1});
+			fail("Expected the captured exception to be replayed.");
+		} catch (ReplayedThrowableException e) {
+			assertEquals("Not found", e.getCause().getMessage());
+		}
+	}
+
+	private static Customer createCustomer(String name) {
+		Customer customer = new Customer();
+		customer.setName(name);
+		Address address = new Address();
+		address.setStreet("Main Street");
+		address.setCity("Berlin");
+		customer.setAddress(address);
+		Order order = new Order();
+		order.setId("order-1");
+		order.setAmount(42);
+		customer.setOrders(new ArrayList<Order>(Arrays.asList(order)));
+		return customer;
+	}
+
+	public static class CustomerService {
+
+		@Capturable(includeProperties = {"name", "address.city"})
+		public Customer findCustomerSummary(int id) {
+			return null;
+		}
+
+		@Capturable(excludeProperties = "orders")
+		public Customer findCustomerWithoutOrders(int id) {
+			return null;
+		}
+
+		@Capturable(maxDepth = 1)
+		public Customer findCustomerShallow(int id) {
+			return null;
+		}
+
+		@Capturable(includeProperties = "orders.amount")
+		public List<Customer> findOrderAmounts(int page) {
+			return null;
+		}
+
+		@Capturable(includeProperties = "name")
+		public Iterator<Customer> iterateCustomerNames(int page) {
+			return null;
+		}
+
+		@Capturable(excludeProperties = "notes")
+		public Account findAccount(int id) {
+			return null;
+		}
+
+		public List<Customer> findCustomers(int page, String... names) {
+			return null;
+		}
+
+		public List<Customer> findCustomers() {
+			return null;
+		}
+	}
+
+	@JsonFilter("secretFilter")
+	public static class Account {
+
+		private String name;
+
+		private String secret;
+
+		private String notes;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getSecret() {
+			return secret;
+		}
+
+		public void setSecret(String secret) {
+			this.secret = secret;
+		}
+
+		public String getNotes() {
+			return notes;
+		}
+
+		public void setNotes(String notes) {
+			this.notes = notes;
+		}
+	}
+
+	public static class Customer {
+
+		private String name;
+
+		private Address address;
+
+		private List<Order> orders;
+
+		private int ordersReads;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+
+		public void setAddress(Address address) {
+			this.address = address;
+		}
+
+		public List<Order> getOrders() {
+			ordersReads++;
+			return orders;
+		}
+
+		public void setOrders(List<Order> orders) {
+			this.orders = orders;
+		}
+
+		public int getOrdersReads() {
+			return ordersReads;
+		}
+
+		public void setOrdersReads(int ordersReads) {
+			// Only the getter is needed. Properties without a setter are not captured.
+		}
+	}
+
+	public static class Address {
+
+		private String street;
+
+		private String city;
+
+		public String getStreet() {
+			return street;
+		}
+
+		public void setStreet(String street) {
+			this.street = street;
+		}
+
+		public String getCity() {
+			return city;
+		}
+
+		public void setCity(String city) {
+			this.city = city;
+		}
+	}
+
+	public static class Order {
+
+		private String id;
+
+		private int amount;
+
+		public String getId() {
+			return id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public int getAmount() {
+			return amount;
+		}
+
+		public void setAmount(int amount) {
+			this.amount = amount;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureSequencesTest {
+
+	@Test
+	public void testSequentialPlaybackRepeatsLastCapture() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), SequencePlayback.SEQUENTIAL);
+		capture(dataMapper, "first", "second", "third");
+
+		assertEquals("first", replay(dataMapper));
+		assertEquals("second", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+	}
+
+	@Test
+	public void testRoundRobinPlaybackStartsOver() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), SequencePlayback.ROUND_ROBIN);
+		capture(dataMapper, "first", "second");
+
+		assertEquals("first", replay(dataMapper));
+		assertEquals("second", replay(dataMapper));
+		assertEquals("first", replay(dataMapper));
+		assertEquals("second", replay(dataMapper));
+	}
+
+	@Test
+	public void testLastPlaybackReplaysLatestCapture() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), SequencePlayback.LAST);
+		capture(dataMapper, "first", "second");
+
+		assertEquals("second", replay(dataMapper));
+		assertEquals("second", replay(dataMapper));
+	}
+
+	@Test
+	public void testRandomPlaybackReplaysCapturedValues() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), SequencePlayback.RANDOM);
+		capture(dataMapper, "first", "second");
+
+		for (int i = 0; i < 20; i++) {
+			Object replayed = replay(dataMapper);
+			assertTrue("first".equals(replayed) || "second".equals(replayed));
+		}
+	}
+
+	@Test
+	public void testSequenceIsContinuedByLaterRuns() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		capture(createDataMapper(captureStore, SequencePlayback.SEQUENTIAL), "first");
+		capture(createDataMapper(captureStore, SequencePlayback.SEQUENTIAL), "second");
+
+		JsonDataMapper dataMapper = createDataMapper(captureStore, SequencePlayback.SEQUENTIAL);
+		assertEquals("first", replay(dataMapper));
+		assertEquals("second", replay(dataMapper));
+	}
+
+	@Test
+	public void testGapsInListedSequenceAreSkipped() throws Exception {
+		InMemoryCaptureStore captureStore = createSequenceWithGap();
+
+		JsonDataMapper dataMapper = createDataMapper(captureStore, SequencePlayback.SEQUENTIAL);
+		capture(dataMapper, "fourth");
+		// The sequence is loaded from the listing without opening its captures.
+		assertEquals(0, captureStore.getReads());
+		assertEquals("first", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+		assertEquals("fourth", replay(dataMapper));
+	}
+
+	@Test
+	public void testGapsInProbedSequenceAreSkipped() throws Exception {
+		final InMemoryCaptureStore captureStore = createSequenceWithGap();
+		CaptureStore unlistedCaptureStore = new CaptureStore() {
+			@Override
+			public OutputStream openCaptureOutput(String captureKey) throws IOException {
+				return captureStore.openCaptureOutput(captureKey);
+			}
+
+			@Override
+			public InputStream openCaptureInput(String captureKey) throws IOException {
+				return captureStore.openCaptureInput(captureKey);
+			}
+		};
+
+		JsonDataMapper dataMapper = createDataMapper(unlistedCaptureStore, SequencePlayback.SEQUENTIAL);
+		capture(dataMapper, "fourth");
+		assertEquals("first", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+		assertEquals("fourth", replay(dataMapper));
+	}
+
+	@Test
+	public void testMissingCapturesOfSameRunAreSkipped() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, SequencePlayback.ROUND_ROBIN);
+		capture(dataMapper, "first", "second", "third");
+		// Stands in for a capture that has been dropped or could not be written.
+		captureStore.removeCapture(getElementKey(1));
+
+		assertEquals("first", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+		assertEquals("first", replay(dataMapper));
+		assertEquals("third", replay(dataMapper));
+	}
+
+	@Test
+	public void testConcurrentRoundRobinReplayDistributesCaptures() throws Exception {
+		final JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), SequencePlayback.ROUND_ROBIN);
+		capture(dataMapper, "first", "second", "third", "fourth");
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 400; i++) {
+				futures.add(executorService.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return replay(dataMapper);
+					}
+				}));
+			}
+			List<Object> replayed = new ArrayList<Object>();
+			for (Future<Object> future : futures) {
+				replayed.add(future.get());
+			}
+			assertEquals(new HashSet<Object>(replayed), set("first", "second", "third", "fourth"));
+			assertEquals(100, Collections.frequency(replayed, "first"));
+			assertEquals(100, Collections.frequency(replayed, "fourth"));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore, SequencePlayback sequencePlayback) throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setCaptureSequence(true);
+		dataMapper.setSequencePlayback(sequencePlayback);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	// A sequence of three captures whose second capture has been lost.
+	private static InMemoryCaptureStore createSequenceWithGap() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		capture(createDataMapper(captureStore, SequencePlayback.SEQUENTIAL), "first", "second", "third");
+		captureStore.removeCapture(getElementKey(1));
+		return captureStore;
+	}
+
+	private static String getElementKey(int index) throws Exception {
+		return new StructuralHashCaptureKeyStrategy().getCaptureKey(getMethod(), new Object[]{1}) + CaptureSequences.INDEX_SEPARATOR + index;
+	}
+
+	private static void capture(JsonDataMapper dataMapper, String... values) throws Exception {
+		for (String value : values) {
+			dataMapper.writeCapturedData(getMethod(), value, new Object[]{1});
+		}
+	}
+
+	private static Object replay(JsonDataMapper dataMapper) throws Exception {
+		return dataMapper.getCapturedData(getMethod(), new Object[]{1});
+	}
+
+	private static Method getMethod() throws NoSuchMethodException {
+		return PollingService.class.getMethod("poll", int.class);
+	}
+
+	private static Set<Object> set(Object... values) {
+		Set<Object> set = new HashSet<Object>();
+		Collections.addAll(set, values);
+		return set;
+	}
+
+	public static class PollingService {
+
+		public String poll(int id) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureSetToolTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testValidateReportsInvalidCaptures() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, false);
+		Method method = CountryService.class.getMethod("findCapital", int.class);
+		dataMapper.writeCapturedData(method, "Berlin", new Object[]{1});
+		dataMapper.writeCapturedData(method, "Paris", new Object[]{2});
+		captureStore.putCapture("broken", "{\"type\":\"java.lang.String\",\"object\":");
+		captureStore.putCapture("empty", "");
+		captureStore.putCapture("unknown-type", "{\"type\":\"com.example.Missing\",\"object\":\"Rome\"}");
+		captureStore.putCapture("missing-payload", "{\"type\":\"java.lang.String\",\"object\":null,\"payload\":\"payload-0\"}");
+
+		CaptureSetTool tool = new CaptureSetTool(dataMapper);
+		tool.setThreads(4);
+		CaptureSetReport report = tool.validate();
+
+		assertEquals(6, report.getCaptures());
+		assertEquals(6, report.getProcessedCaptures());
+		assertEquals(Arrays.asList("broken", "empty", "missing-payload", "unknown-type"), Arrays.asList(report.getInvalidCaptures().keySet().toArray()));
+		assertEquals(0, report.getWrittenCaptures());
+	}
+
+	@Test
+	public void testCopyLeavesOutInvalidCapturesAndUnreferencedPayloads() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, false);
+		dataMapper.setDeduplicatePayloads(true);
+		dataMapper.afterPropertiesSet();
+		Method method = CountryService.class.getMethod("findCountries", int.class);
+		dataMapper.writeCapturedData(method, countries("France", "Germany"), new Object[]{1});
+		// The payload of the first capture is not referred to any more.
+		dataMapper.writeCapturedData(method, countries("Austria", "Italy"), new Object[]{1});
+		captureStore.putCapture("broken", "{\"type\":");
+
+		InMemoryCaptureStore targetStore = new InMemoryCaptureStore();
+		JsonDataMapper targetDataMapper = createDataMapper(targetStore, false);
+		CaptureSetReport report = new CaptureSetTool(dataMapper).copy(targetDataMapper);
+
+		assertEquals(1, report.getInvalidCaptureCount());
+		assertEquals(1, report.getUnreferencedPayloads());
+		assertEquals(2, report.getWrittenCaptures());
+		assertEquals(2, targetStore.size());
+		assertEquals(countries("Austria", "Italy"), targetDataMapper.getCapturedData(method, new Object[]{1}));
+	}
+
+	@Test
+	public void testCopyDeduplicatesPayloads() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, false);
+		Method method = CountryService.class.getMethod("findCountries", int.class);
+		for (int i = 0; i < 3; i++) {
+			dataMapper.writeCapturedData(method, countries("France", "Germany"), new Object[]{i}, i);
+		}
+
+		InMemoryCaptureStore targetStore = new InMemoryCaptureStore();
+		JsonDataMapper targetDataMapper = createDataMapper(targetStore, false);
+		CaptureSetTool tool = new CaptureSetTool(dataMapper);
+		tool.setDeduplicatePayloads(true);
+		CaptureSetReport report = tool.copy(targetDataMapper);
+
+		// Three captures refer to one payload.
+		assertEquals(4, targetStore.size());
+		assertEquals(2, report.getDeduplicatedCaptures());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(countries("France", "Germany"), targetDataMapper.getCapturedData(method, new Object[]{i}));
+		}
+	}
+
+	@Test
+	public void testCopyMigratesCaptureKeys() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setCaptureKeyStrategy(new HashCodeCaptureKeyStrategy());
+		dataMapper.afterPropertiesSet();
+		Method method = CountryService.class.getMethod("findCapital", int.class);
+		CaptureKeyMigration captureKeyMigration = new CaptureKeyMigration();
+		for (int i = 0; i < 10; i++) {
+			dataMapper.writeCapturedData(method, "Capital " + i, new Object[]{i});
+			captureKeyMigration.addCall(method, new Object[]{i}, new HashCodeCaptureKeyStrategy(), new StructuralHashCaptureKeyStrategy());
+		}
+
+		JsonDataMapper targetDataMapper = createDataMapper(new InMemoryCaptureStore(), false);
+		CaptureSetTool tool = new CaptureSetTool(dataMapper);
+		tool.setCaptureKeyMapping(captureKeyMigration);
+		CaptureSetReport report = tool.copy(targetDataMapper);
+
+		assertEquals(10, report.getWrittenCaptures());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("Capital " + i, targetDataMapper.getCapturedData(method, new Object[]{i}));
+		}
+	}
+
+	@Test
+	public void testCaptureKeyMigrationKeepsSequenceIndex() {
+		CaptureKeyMigration captureKeyMigration = new CaptureKeyMigration();
+		captureKeyMigration.addCaptureKey("old", "new");
+
+		assertEquals("new", captureKeyMigration.getCaptureKey("old"));
+		assertEquals("new~3", captureKeyMigration.getCaptureKey("old~3"));
+		assertEquals("other~3", captureKeyMigration.getCaptureKey("other~3"));
+	}
+
+	@Test
+	public void testCopyConvertsFormat() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), false);
+		Method method = CountryService.class.getMethod("findCountries", int.class);
+		dataMapper.writeCapturedData(method, countries("France", "Germany"), new Object[]{1});
+
+		InMemoryCaptureStore targetStore = new InMemoryCaptureStore();
+		JsonDataMapper targetDataMapper = createDataMapper(targetStore, true);
+		CaptureSetTool tool = new CaptureSetTool(dataMapper);
+		final AtomicInteger progressReports = new AtomicInteger();
+		tool.setProgressListener(new CaptureSetTool.ProgressListener() {
+			@Override
+			public void reportProgress(CaptureSetReport report) {
+				progressReports.incrementAndGet();
+			}
+		});
+		tool.copy(targetDataMapper);
+
+		String captureKey = targetStore.getCaptureKeys().get(0);
+		// Smile content starts with ":)\n".
+		assertTrue(new String(targetStore.getCapturedData(captureKey), "ISO-8859-1").startsWith(":)\n"));
+		assertEquals(countries("France", "Germany"), targetDataMapper.getCapturedData(method, new Object[]{1}));
+		assertTrue(progressReports.get() > 0);
+	}
+
+	@Test
+	public void testValidateFromCommandLine() throws Exception {
+		File captureFilesDirectory = temporaryFolder.newFolder("captures");
+		writeCaptureFile(captureFilesDirectory, "valid.json", String.format("{\"@class\":\"%s\",\"type\":\"java.lang.String\",\"object\":\"Berlin\"}", TypeWrapper.class.getName()));
+		writeCaptureFile(captureFilesDirectory, "broken.json", "{\"type\":");
+
+		assertEquals(CaptureTools.EXIT_USAGE, CaptureTools.run("validate"));
+		assertEquals(CaptureTools.EXIT_INVALID_CAPTURES, CaptureTools.run("validate", captureFilesDirectory.getPath(), "--threads", "2"));
+		assertTrue(new File(captureFilesDirectory, "broken.json").delete());
+		assertEquals(CaptureTools.EXIT_SUCCESS, CaptureTools.run("validate", captureFilesDirectory.getPath()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapturesCannotBeCopiedIntoTheirOwnStore() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), false);
+		new CaptureSetTool(dataMapper).copy(dataMapper);
+	}
+
+	private static void writeCaptureFile(File directory, String fileName, String capture) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(new File(directory, fileName));
+		try {
+			outputStream.write(capture.getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	// Arrays.asList returns a private list type, which cannot be replayed as its recorded type.
+	private static List<String> countries(String... countries) {
+		return new ArrayList<String>(Arrays.asList(countries));
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore, boolean smile) throws Exception {
+		JsonDataMapper dataMapper = smile ? new SmileDataMapper(captureStore) : new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	public static class CountryService {
+
+		public String findCapital(int id) {
+			return null;
+		}
+
+		public List<String> findCountries(int page) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import de.codecentric.capturereplay.Capturable;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CapturedElementsTest {
+
+	@Test
+	public void testIteratorIsCapturedWhileConsumed() throws Exception {
+		assertIteratorIsReplayed(0);
+	}
+
+	@Test
+	public void testIteratorBypassesReplayCache() throws Exception {
+		assertIteratorIsReplayed(16);
+	}
+
+	@Test
+	public void testAbandonedIteratorCompletesItsCapture() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = ElementService.class.getMethod("iterateItems", int.class);
+		String captureKey = new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{1});
+
+		consumeFirstElement(dataMapper, method, 1);
+		// Abandoned elements are closed when the next elements are captured after they have been collected.
+		for (int i = 0; i < 100 && captureStore.getCapture(captureKey) == null; i++) {
+			System.gc();
+			Thread.sleep(10);
+			dataMapper.writeCapturedElements(method, createItems(1).iterator(), new Object[]{2}, 0);
+		}
+
+		Iterator<?> replayed = (Iterator<?>) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals(new Item("item 0"), replayed.next());
+		assertFalse(replayed.hasNext());
+	}
+
+	@Test
+	public void testDestroyCompletesOpenCaptures() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = ElementService.class.getMethod("iterateItems", int.class);
+		Iterator<?> captured = (Iterator<?>) dataMapper.writeCapturedElements(method, createItems(3).iterator(), new Object[]{1}, 0);
+		captured.next();
+		assertEquals(0, captureStore.size());
+
+		dataMapper.destroy();
+
+		assertEquals(1, captureStore.size());
+		assertEquals(createItems(1), toList((Iterator<?>) dataMapper.getCapturedData(method, new Object[]{1})));
+	}
+
+	@Test
+	public void testStreamCapturesConsumedElements() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore());
+		Method method = ElementService.class.getMethod("streamItems", int.class);
+
+		Stream<?> stream = (Stream<?>) dataMapper.writeCapturedElements(method, createItems(5).stream(), new Object[]{1}, 0);
+		try {
+			assertEquals(createItems(2), stream.limit(2).collect(Collectors.toList()));
+		} finally {
+			stream.close();
+		}
+
+		Stream<?> replayed = (Stream<?>) dataMapper.getCapturedData(method, new Object[]{1});
+		try {
+			assertEquals(createItems(2), replayed.collect(Collectors.toList()));
+		} finally {
+			replayed.close();
+		}
+	}
+
+	@Test
+	public void testCollectionIsCapturedElementByElement() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = ElementService.class.getMethod("findItems", int.class);
+		LinkedList<Item> items = new LinkedList<Item>(createItems(3));
+
+		dataMapper.writeCapturedData(method, items, new Object[]{1});
+
+		Object replayed = dataMapper.getCapturedData(method, new Object[]{1});
+		assertTrue(replayed instanceof LinkedList);
+		assertEquals(items, replayed);
+	}
+
+	@Test
+	public void testElementsAreReadWhileConsumed() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = ElementService.class.getMethod("iterateItems", int.class);
+
+		// The capture breaks off after the first element. It is only noticed when the second element is read.
+		String captureKey = new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{1});
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		outputStream.write(("{\"type\":\"java.util.Iterator\",\"duration\":0,\"elements\":["
+				+ "{\"@class\":\"de.codecentric.capturereplay.data.CapturedElementsTest$Item\",\"name\":\"item 0\"},{").getBytes("UTF-8"));
+		outputStream.close();
+
+		Iterator<?> replayed = (Iterator<?>) dataMapper.getCapturedData(method, new Object[]{1});
+		assertTrue(replayed.hasNext());
+		assertEquals(new Item("item 0"), replayed.next());
+		try {
+			replayed.next();
+			fail("Expected the incomplete capture to be detected.");
+		} catch (UncheckedIOException e) {
+			assertTrue(e.getMessage().startsWith("Could not read test data"));
+		}
+	}
+
+	private static void consumeFirstElement(JsonDataMapper dataMapper, Method method, int page) throws Exception {
+		Iterator<?> captured = (Iterator<?>) dataMapper.writeCapturedElements(method, createItems(3).iterator(), new Object[]{page}, 0);
+		captured.next();
+	}
+
+	private static List<Object> toList(Iterator<?> iterator) {
+		List<Object> list = new ArrayList<Object>();
+		while (iterator.hasNext()) {
+			list.add(iterator.next());
+		}
+		return list;
+	}
+
+	private void assertIteratorIsReplayed(int replayCacheSize) throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setReplayCacheSize(replayCacheSize);
+		dataMapper.afterPropertiesSet();
+		Method method = ElementService.class.getMethod("iterateItems", int.class);
+		List<Item> items = createItems(3);
+
+		Iterator<?> captured = (Iterator<?>) dataMapper.writeCapturedElements(method, items.iterator(), new Object[]{1}, 0);
+		List<Object> consumed = new ArrayList<Object>();
+		while (captured.hasNext()) {
+			consumed.add(captured.next());
+		}
+		assertEquals(items, consumed);
+
+		for (int i = 0; i < 2; i++) {
+			Iterator<?> replayed = (Iterator<?>) dataMapper.getCapturedData(method, new Object[]{1});
+			for (Item item : items) {
+				assertTrue(replayed.hasNext());
+				assertEquals(item, replayed.next());
+			}
+			assertFalse(replayed.hasNext());
+		}
+		// Elements are read from the capture store on every replay, even with a replay cache.
+		assertEquals(2, captureStore.getReads());
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore) throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	private static List<Item> createItems(int count) {
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < count; i++) {
+			items.add(new Item("item " + i));
+		}
+		return items;
+	}
+
+	public static class ElementService {
+
+		public Iterator<Item> iterateItems(int page) {
+			return null;
+		}
+
+		public Stream<Item> streamItems(int page) {
+			return null;
+		}
+
+		@Capturable(captureElements = true)
+		public List<Item> findItems(int page) {
+			return null;
+		}
+	}
+
+	public static class Item {
+
+		private String name;
+
+		public Item() {
+		}
+
+		public Item(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Item && name.equals(((Item) o).name);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+}
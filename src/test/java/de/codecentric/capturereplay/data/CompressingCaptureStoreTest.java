@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressingCaptureStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testCompressedCapturesAreReplayed() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(new CompressingCaptureStore(captureStore));
+		dataMapper.afterPropertiesSet();
+		Method method = OrderService.class.getMethod("findOrders", int.class);
+		List<String> orders = createOrders(0, 100);
+
+		dataMapper.writeCapturedData(method, orders, new Object[]{1});
+
+		assertEquals(orders, dataMapper.getCapturedData(method, new Object[]{1}));
+		String captureKey = new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{1});
+		assertTrue(read(captureStore, captureKey).length < createCapture(orders).length / 4);
+	}
+
+	@Test
+	public void testUncompressedCapturesAreReplayed() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper uncompressedDataMapper = new JsonDataMapper(captureStore);
+		uncompressedDataMapper.afterPropertiesSet();
+		Method method = OrderService.class.getMethod("findOrders", int.class);
+		List<String> orders = createOrders(0, 3);
+		uncompressedDataMapper.writeCapturedData(method, orders, new Object[]{1});
+
+		JsonDataMapper dataMapper = new JsonDataMapper(new CompressingCaptureStore(captureStore));
+		dataMapper.afterPropertiesSet();
+
+		assertEquals(orders, dataMapper.getCapturedData(method, new Object[]{1}));
+	}
+
+	@Test
+	public void testDictionaryImprovesCompressionOfSmallCaptures() throws Exception {
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < 50; i++) {
+			samples.add(createCapture(createOrders(i * 3, 3)));
+		}
+		byte[] dictionary = new CaptureDictionaryTrainer().train(samples);
+		assertTrue(dictionary.length > 0);
+
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		CompressingCaptureStore compressingCaptureStore = new CompressingCaptureStore(captureStore);
+		CompressingCaptureStore dictionaryCaptureStore = new CompressingCaptureStore(captureStore);
+		dictionaryCaptureStore.setDictionary(dictionary);
+		byte[] capture = createCapture(createOrders(1000, 3));
+
+		write(compressingCaptureStore, "plain", capture);
+		write(dictionaryCaptureStore, "dictionary", capture);
+
+		assertArrayEquals(capture, read(dictionaryCaptureStore, "dictionary"));
+		assertTrue(read(captureStore, "dictionary").length < read(captureStore, "plain").length / 2);
+	}
+
+	@Test
+	public void testCaptureWithDifferentDictionaryIsRejected() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		CompressingCaptureStore writingCaptureStore = new CompressingCaptureStore(captureStore);
+		writingCaptureStore.setDictionary("{\"type\":\"java.util.ArrayList\"}".getBytes("UTF-8"));
+		write(writingCaptureStore, "key", createCapture(createOrders(0, 3)));
+
+		try {
+			read(new CompressingCaptureStore(captureStore), "key");
+			fail("Expected the capture to be rejected.");
+		} catch (IOException e) {
+			assertEquals("The capture has been compressed with a different dictionary.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testDictionaryIsTrainedFromCompressedCaptureFiles() throws Exception {
+		File captureFilesDirectory = temporaryFolder.newFolder("captures");
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		CompressingCaptureStore compressingCaptureStore = new CompressingCaptureStore(captureStore);
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < 20; i++) {
+			byte[] capture = createCapture(createOrders(i * 3, 3));
+			samples.add(capture);
+			String captureKey = String.format("capture%02d", i);
+			write(compressingCaptureStore, captureKey, capture);
+			writeFile(new File(captureFilesDirectory, captureKey + ".json"), read(captureStore, captureKey));
+		}
+		File dictionaryFile = new File(temporaryFolder.getRoot(), "captures.dict");
+
+		assertEquals(CaptureTools.EXIT_USAGE, CaptureTools.run("train", captureFilesDirectory.getPath()));
+		assertEquals(CaptureTools.EXIT_SUCCESS, CaptureTools.run("train", captureFilesDirectory.getPath(), dictionaryFile.getPath()));
+
+		assertArrayEquals(new CaptureDictionaryTrainer().train(samples), Files.readAllBytes(dictionaryFile.toPath()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCaptureFilesCompressedWithDictionaryAreRejected() throws Exception {
+		File captureFilesDirectory = temporaryFolder.newFolder("captures");
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		CompressingCaptureStore dictionaryCaptureStore = new CompressingCaptureStore(captureStore);
+		dictionaryCaptureStore.setDictionary("{\"type\":\"java.util.ArrayList\"}".getBytes("UTF-8"));
+		write(dictionaryCaptureStore, "key", createCapture(createOrders(0, 3)));
+		writeFile(new File(captureFilesDirectory, "key.json"), read(captureStore, "key"));
+
+		new CaptureDictionaryTrainer().train(captureFilesDirectory, ".json");
+	}
+
+	private static void writeFile(File file, byte[] content) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(content);
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private static List<String> createOrders(int first, int count) {
+		List<String> orders = new ArrayList<String>();
+		for (int i = first; i < first + count; i++) {
+			orders.add(String.format("order %d shipped to customer %d in Solingen", i, i % 7));
+		}
+		return orders;
+	}
+
+	private static byte[] createCapture(List<String> orders) throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		Method method = OrderService.class.getMethod("findOrders", int.class);
+		dataMapper.writeCapturedData(method, orders, new Object[]{1});
+		return read(captureStore, new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{1}));
+	}
+
+	private static void write(CaptureStore captureStore, String captureKey, byte[] capture) throws IOException {
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		try {
+			outputStream.write(capture);
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	private static byte[] read(CaptureStore captureStore, String captureKey) throws IOException {
+		InputStream inputStream = captureStore.openCaptureInput(captureKey);
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	public static class OrderService {
+
+		public List<String> findOrders(int page) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentCaptureReplayTest {
+
+	private static final int THREADS = 8;
+
+	private static final int ITERATIONS = 200;
+
+	private static final int KEYS = 4;
+
+	private static final int VALUE_SIZE = 500;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testDefaultCaptureFileProvider() throws Exception {
+		DefaultCaptureFileProvider captureFileProvider = new DefaultCaptureFileProvider();
+		captureFileProvider.setCaptureFilesPath(temporaryFolder.getRoot().getPath());
+		captureFileProvider.afterPropertiesSet();
+		assertConsistentUnderLoad(new JsonDataMapper(captureFileProvider));
+		// No temporary files are left behind.
+		assertEquals(KEYS, temporaryFolder.getRoot().listFiles().length);
+	}
+
+	@Test
+	public void testTemporaryCaptureFileProvider() throws Exception {
+		TemporaryCaptureFileProvider captureFileProvider = new TemporaryCaptureFileProvider();
+		try {
+			assertConsistentUnderLoad(new JsonDataMapper(captureFileProvider));
+		} finally {
+			captureFileProvider.destroy();
+		}
+	}
+
+	@Test
+	public void testCaptureLogStoreWithReplayCache() throws Exception {
+		CaptureLogStore captureLogStore = new CaptureLogStore();
+		captureLogStore.setCaptureLogPath(temporaryFolder.getRoot().getPath());
+		captureLogStore.setSegmentSize(64 * 1024);
+		captureLogStore.afterPropertiesSet();
+		try {
+			JsonDataMapper dataMapper = new JsonDataMapper(captureLogStore);
+			dataMapper.setReplayCacheSize(KEYS / 2);
+			assertConsistentUnderLoad(dataMapper);
+		} finally {
+			captureLogStore.destroy();
+		}
+	}
+
+	@Test
+	public void testAsyncCaptureWithReplayCache() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayCacheSize(KEYS);
+		dataMapper.setAsyncCapture(true);
+		try {
+			assertConsistentUnderLoad(dataMapper);
+		} finally {
+			dataMapper.destroy();
+		}
+	}
+
+	// Every thread captures values that consist of its own token only. A replayed value that mixes tokens or has
+	// the wrong size has been torn by concurrent writes.
+	private void assertConsistentUnderLoad(final JsonDataMapper dataMapper) throws Exception {
+		dataMapper.setCaptureKeyStrategy(new HashCodeCaptureKeyStrategy());
+		dataMapper.afterPropertiesSet();
+		final Method method = CapturedService.class.getMethod("find", int.class);
+		for (int key = 0; key < KEYS; key++) {
+			dataMapper.writeCapturedData(method, createValue("initial"), new Object[]{key});
+		}
+		if (dataMapper.getAsyncCaptureWriter() != null) {
+			dataMapper.getAsyncCaptureWriter().flush();
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			final String token = "thread-" + thread;
+			futures.add(executorService.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					for (int i = 0; i < ITERATIONS; i++) {
+						Object[] arguments = new Object[]{i % KEYS};
+						dataMapper.writeCapturedData(method, createValue(token), arguments);
+						assertConsistent(dataMapper.getCapturedData(method, arguments));
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		try {
+			for (Future<Void> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	private static List<String> createValue(String token) {
+		List<String> value = new ArrayList<String>(VALUE_SIZE);
+		for (int i = 0; i < VALUE_SIZE; i++) {
+			value.add(token);
+		}
+		return value;
+	}
+
+	private static void assertConsistent(Object replayedValue) {
+		assertTrue(replayedValue instanceof List);
+		List<?> value = (List<?>) replayedValue;
+		assertEquals(VALUE_SIZE, value.size());
+		for (Object element : value) {
+			assertEquals(value.get(0), element);
+		}
+	}
+
+	public static class CapturedService {
+		public List<String> find(int key) {
+			return null;
+		}
+	}
+}
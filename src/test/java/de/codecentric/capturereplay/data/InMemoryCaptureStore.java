@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemoryCaptureStore implements ListableCaptureStore {
+
+	private final ConcurrentMap<String, byte[]> captures = new ConcurrentHashMap<String, byte[]>();
+
+	private final AtomicInteger writes = new AtomicInteger();
+
+	private final AtomicInteger reads = new AtomicInteger();
+
+	@Override
+	public OutputStream openCaptureOutput(final String captureKey) throws IOException {
+		return new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				captures.put(captureKey, toByteArray());
+				writes.incrementAndGet();
+			}
+		};
+	}
+
+	@Override
+	public InputStream openCaptureInput(String captureKey) throws IOException {
+		byte[] capturedData = captures.get(captureKey);
+		if (capturedData == null) {
+			throw new FileNotFoundException(captureKey);
+		}
+		reads.incrementAndGet();
+		return new ByteArrayInputStream(capturedData);
+	}
+
+	@Override
+	public List<String> getCaptureKeys() {
+		return new ArrayList<String>(captures.keySet());
+	}
+
+	public void putCapture(String captureKey, String capturedData) {
+		captures.put(captureKey, capturedData.getBytes());
+	}
+
+	public void removeCapture(String captureKey) {
+		captures.remove(captureKey);
+	}
+
+	public byte[] getCapturedData(String captureKey) {
+		return captures.get(captureKey);
+	}
+
+	public String getCapture(String captureKey) {
+		byte[] capturedData = captures.get(captureKey);
+		return capturedData == null ? null : new String(capturedData);
+	}
+
+	public int size() {
+		return captures.size();
+	}
+
+	public int getWrites() {
+		return writes.get();
+	}
+
+	public int getReads() {
+		return reads.get();
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonDataMapperTest {
+
+	@Test
+	public void testReplayNestedAndFinalTypes() throws Exception {
+		assertReplayedValues(0);
+	}
+
+	@Test
+	public void testReplayNestedAndFinalTypesFromReplayCache() throws Exception {
+		assertReplayedValues(16);
+	}
+
+	@Test
+	public void testReplayCaptureWithObjectBeforeType() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setCaptureKeyStrategy(new HashCodeCaptureKeyStrategy());
+		dataMapper.afterPropertiesSet();
+		Method method = CapturedService.class.getMethod("findCount", int.class);
+
+		String captureKey = new HashCodeCaptureKeyStrategy().getCaptureKey(method, new Object[]{1});
+		OutputStream outputStream = captureStore.openCaptureOutput(captureKey);
+		outputStream.write("{\"object\":[\"java.lang.Long\",42],\"type\":\"java.lang.Long\"}".getBytes("UTF-8"));
+		outputStream.close();
+
+		assertEquals(42L, dataMapper.getCapturedData(method, new Object[]{1}));
+	}
+
+	@Test
+	public void testReplayCacheHitCopiesInstanceWithoutReadingCaptureStore() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setReplayCacheSize(16);
+		dataMapper.afterPropertiesSet();
+		Method method = CapturedService.class.getMethod("findItems", int.class);
+		List<Item> items = new ArrayList<Item>(Arrays.asList(new Item(1, "first"), new Item(2, "second")));
+		dataMapper.writeCapturedData(method, items, new Object[]{1});
+
+		@SuppressWarnings("unchecked")
+		List<Item> firstReplay = (List<Item>) dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals(items, firstReplay);
+		firstReplay.get(0).setName("modified");
+		firstReplay.add(new Item(3, "third"));
+
+		for (int i = 0; i < 2; i++) {
+			@SuppressWarnings("unchecked")
+			List<Item> replayed = (List<Item>) dataMapper.getCapturedData(method, new Object[]{1});
+			assertEquals(items, replayed);
+			assertNotSame(firstReplay, replayed);
+			replayed.clear();
+		}
+		assertEquals(1, captureStore.getReads());
+		assertEquals(2, dataMapper.getReplayCacheStatistics().getHeapHits());
+		assertEquals(1, dataMapper.getReplayCacheStatistics().getMisses());
+
+		// A new capture of the key replaces the cached instance.
+		dataMapper.writeCapturedData(method, new ArrayList<Item>(Arrays.asList(new Item(4, "fourth"))), new Object[]{1});
+		assertEquals(Arrays.asList(new Item(4, "fourth")), dataMapper.getCapturedData(method, new Object[]{1}));
+		assertEquals(2, captureStore.getReads());
+	}
+
+	@Test
+	public void testTieredReplayCacheStatistics() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayCacheSize(1);
+		dataMapper.setReplayCacheOffHeapBudget(1024 * 1024);
+		dataMapper.afterPropertiesSet();
+		Method method = CapturedService.class.getMethod("findItem", long.class);
+		dataMapper.writeCapturedData(method, new Item(1, "first"), new Object[]{1L});
+		dataMapper.writeCapturedData(method, new Item(2, "second"), new Object[]{2L});
+
+		assertEquals(new Item(1, "first"), dataMapper.getCapturedData(method, new Object[]{1L}));
+		assertEquals(new Item(1, "first"), dataMapper.getCapturedData(method, new Object[]{1L}));
+		assertEquals(new Item(2, "second"), dataMapper.getCapturedData(method, new Object[]{2L}));
+		// The first item has been evicted from the heap by the second one, but is still kept off the heap.
+		assertEquals(new Item(1, "first"), dataMapper.getCapturedData(method, new Object[]{1L}));
+
+		ReplayCacheStatistics statistics = dataMapper.getReplayCacheStatistics();
+		assertEquals(1, statistics.getHeapHits());
+		assertEquals(1, statistics.getOffHeapHits());
+		assertEquals(2, statistics.getMisses());
+		assertEquals(0.25, statistics.getHeapHitRatio(), 0.0);
+	}
+
+	private void assertReplayedValues(int replayCacheSize) throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayCacheSize(replayCacheSize);
+		dataMapper.afterPropertiesSet();
+
+		Method findItems = CapturedService.class.getMethod("findItems", int.class);
+		List<Item> items = new ArrayList<Item>(Arrays.asList(new Item(1, "first"), new Item(2, "second")));
+		dataMapper.writeCapturedData(findItems, items, new Object[]{1});
+
+		Method findItem = CapturedService.class.getMethod("findItem", long.class);
+		dataMapper.writeCapturedData(findItem, new Item(3, "third"), new Object[]{3L});
+
+		Method findCount = CapturedService.class.getMethod("findCount", int.class);
+		dataMapper.writeCapturedData(findCount, 42L, new Object[]{1});
+
+		for (int i = 0; i < 2; i++) {
+			Object replayedItems = dataMapper.getCapturedData(findItems, new Object[]{1});
+			assertTrue(replayedItems instanceof ArrayList);
+			assertEquals(items, replayedItems);
+			assertEquals(new Item(3, "third"), dataMapper.getCapturedData(findItem, new Object[]{3L}));
+			assertEquals(42L, dataMapper.getCapturedData(findCount, new Object[]{1}));
+		}
+	}
+
+	public static class CapturedService {
+
+		public List<Item> findItems(int page) {
+			return null;
+		}
+
+		public Item findItem(long id) {
+			return null;
+		}
+
+		public long findCount(int page) {
+			return 0;
+		}
+	}
+
+	public static final class Item {
+
+		private long id;
+
+		private String name;
+
+		public Item() {
+		}
+
+		public Item(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Item && ((Item) other).id == id && ((Item) other).name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) id;
+		}
+	}
+}
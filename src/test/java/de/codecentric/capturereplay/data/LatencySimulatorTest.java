@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencySimulatorTest {
+
+	@Test
+	public void testReplayTakesRecordedDuration() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayLatency(ReplayLatency.RECORDED);
+		dataMapper.setReplayLatencyFactor(2.0);
+		dataMapper.afterPropertiesSet();
+		Method method = getMethod();
+		dataMapper.writeCapturedData(method, "result", new Object[]{1}, TimeUnit.MILLISECONDS.toNanos(50));
+
+		long start = System.nanoTime();
+		assertEquals("result", dataMapper.getCapturedData(method, new Object[]{1}));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void testDelayedReplayReturnsRemainingLatency() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayLatency(ReplayLatency.RECORDED);
+		dataMapper.afterPropertiesSet();
+		Method method = getMethod();
+		dataMapper.writeCapturedData(method, "result", new Object[]{1}, TimeUnit.SECONDS.toNanos(10));
+
+		// The latency is left to the caller, which completes futures once it has passed.
+		DelayedCapturedData capturedData = dataMapper.getDelayedCapturedData(method, new Object[]{1});
+		assertEquals("result", capturedData.getCapturedData());
+		assertTrue(capturedData.getDelay() > TimeUnit.SECONDS.toNanos(5));
+		assertTrue(capturedData.getDelay() <= TimeUnit.SECONDS.toNanos(10));
+	}
+
+	@Test
+	public void testPercentileOfCapturesOfMethod() throws Exception {
+		LatencySimulator latencySimulator = new LatencySimulator(ReplayLatency.PERCENTILE, 50.0, 1.0);
+		Method method = getMethod();
+		for (int i = 1; i <= 4; i++) {
+			latencySimulator.getLatency(method, "key-" + i, i * 100);
+		}
+		// Replaying a capture again does not change the distribution.
+		latencySimulator.getLatency(method, "key-4", 400);
+		assertEquals(200, latencySimulator.getLatency(method, "key-1", 100));
+		// Captures without a recorded duration are replayed with the percentile of the others.
+		assertEquals(200, latencySimulator.getLatency(method, "unknown", 0));
+	}
+
+	@Test
+	public void testPercentileOfRecordedDurations() throws Exception {
+		LatencySimulator latencySimulator = new LatencySimulator(ReplayLatency.PERCENTILE, 75.0, 1.0);
+		Method method = getMethod();
+		Map<String, Long> recordedDurations = new HashMap<String, Long>();
+		for (int i = 1; i <= 4; i++) {
+			recordedDurations.put("key-" + i, i * 100L);
+		}
+		latencySimulator.addRecordedDurations(method, recordedDurations);
+
+		// The first replay already uses the durations of all captures of the method.
+		assertEquals(300, latencySimulator.getLatency(method, "key-1", 100));
+		latencySimulator.getLatency(method, "key-5", 50);
+		latencySimulator.getLatency(method, "key-6", 500);
+		assertEquals(400, latencySimulator.getLatency(method, "key-1", 100));
+	}
+
+	@Test
+	public void testFirstReplayAfterWarmUpUsesPercentileOfAllCaptures() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayLatency(ReplayLatency.PERCENTILE);
+		dataMapper.setReplayLatencyPercentile(100.0);
+		dataMapper.afterPropertiesSet();
+		Method method = getMethod();
+		for (int i = 1; i <= 3; i++) {
+			dataMapper.writeCapturedData(method, "result", new Object[]{i}, TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		dataMapper.writeCapturedData(method, "slow result", new Object[]{4}, TimeUnit.MILLISECONDS.toNanos(100));
+		dataMapper.warmUp(method);
+
+		long start = System.nanoTime();
+		assertEquals("result", dataMapper.getCapturedData(method, new Object[]{1}));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test(timeout = 10000)
+	public void testFirstReplayDoesNotWaitForRecordedDurations() throws Exception {
+		final CountDownLatch listingAllowed = new CountDownLatch(1);
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore() {
+			@Override
+			public List<String> getCaptureKeys() {
+				try {
+					listingAllowed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getCaptureKeys();
+			}
+		};
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setReplayLatency(ReplayLatency.PERCENTILE);
+		dataMapper.afterPropertiesSet();
+		Method method = getMethod();
+		dataMapper.writeCapturedData(method, "result", new Object[]{1}, TimeUnit.MILLISECONDS.toNanos(1));
+
+		// The capture store is listed by another thread, so the replay returns while the listing is blocked.
+		assertEquals("result", dataMapper.getCapturedData(method, new Object[]{1}));
+		listingAllowed.countDown();
+		dataMapper.destroy();
+	}
+
+	@Test
+	public void testRecordedLatency() throws Exception {
+		LatencySimulator latencySimulator = new LatencySimulator(ReplayLatency.RECORDED, 99.0, 1.0);
+		assertEquals(300, latencySimulator.getLatency(getMethod(), "key", 300));
+	}
+
+	private Method getMethod() throws NoSuchMethodException {
+		return CapturedService.class.getMethod("find", int.class);
+	}
+
+	public static class CapturedService {
+		public String find(int id) {
+			return "result";
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackedCaptureStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File packedStoreFile;
+
+	@Before
+	public void setUp() throws Exception {
+		File captureFilesDirectory = temporaryFolder.newFolder("captures");
+		writeCaptureFile(captureFilesDirectory, "getString.json", "captured text");
+		for (int i = 0; i < 100; i++) {
+			writeCaptureFile(captureFilesDirectory, "getString-" + i + ".json", "captured text " + i);
+		}
+		writeCaptureFile(captureFilesDirectory, "ignored.txt", "not a capture file");
+
+		packedStoreFile = new File(temporaryFolder.getRoot(), "captures.pack");
+		int captures = new PackedCaptureStoreConverter().convert(captureFilesDirectory, ".json", packedStoreFile);
+		assertEquals(101, captures);
+	}
+
+	@Test
+	public void testReplayFromPackedStore() throws Exception {
+		PackedCaptureStore packedCaptureStore = createPackedCaptureStore();
+		JsonDataMapper jsonDataMapper = new JsonDataMapper(packedCaptureStore);
+		// The capture files have been named after the hash codes of the arguments.
+		jsonDataMapper.setCaptureKeyStrategy(new HashCodeCaptureKeyStrategy());
+		jsonDataMapper.afterPropertiesSet();
+
+		assertEquals(101, packedCaptureStore.size());
+		assertEquals("captured text", jsonDataMapper.getCapturedData(CapturedService.class.getMethod("getString"), new Object[0]));
+		for (int i = 0; i < 100; i++) {
+			Method method = CapturedService.class.getMethod("getString", int.class);
+			assertEquals("captured text " + i, jsonDataMapper.getCapturedData(method, new Object[]{i}));
+		}
+	}
+
+	@Test
+	public void testContainsCapture() throws Exception {
+		PackedCaptureStore packedCaptureStore = createPackedCaptureStore();
+
+		assertTrue(packedCaptureStore.containsCapture("getString-42"));
+		assertFalse(packedCaptureStore.containsCapture("getString-100"));
+		assertFalse(packedCaptureStore.containsCapture("ignored"));
+	}
+
+	@Test
+	public void testGetCaptureKeys() throws Exception {
+		List<String> captureKeys = createPackedCaptureStore().getCaptureKeys();
+
+		assertEquals(101, captureKeys.size());
+		assertTrue(captureKeys.contains("getString"));
+		assertTrue(captureKeys.contains("getString-42"));
+		assertFalse(captureKeys.contains("ignored"));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingCapture() throws Exception {
+		createPackedCaptureStore().openCaptureInput("missing");
+	}
+
+	@Test
+	public void testPackFromCommandLine() throws Exception {
+		File commandLineStoreFile = new File(temporaryFolder.getRoot(), "command-line.pack");
+		assertEquals(CaptureTools.EXIT_USAGE, CaptureTools.run("pack", temporaryFolder.getRoot().getPath()));
+		assertEquals(CaptureTools.EXIT_SUCCESS, CaptureTools.run("pack", new File(temporaryFolder.getRoot(), "captures").getPath(), commandLineStoreFile.getPath()));
+
+		PackedCaptureStore packedCaptureStore = new PackedCaptureStore();
+		packedCaptureStore.setPackedStorePath(commandLineStoreFile.getPath());
+		packedCaptureStore.afterPropertiesSet();
+		assertEquals(101, packedCaptureStore.getCaptureKeys().size());
+	}
+
+	@Test
+	public void testAbortedStoreIsDeleted() throws Exception {
+		File abortedStoreFile = new File(temporaryFolder.getRoot(), "aborted.pack");
+		PackedCaptureStoreWriter writer = new PackedCaptureStoreWriter(abortedStoreFile);
+		writer.add("getString", "captured text".getBytes("UTF-8"));
+		writer.abort();
+
+		assertFalse(abortedStoreFile.exists());
+	}
+
+	@Test
+	public void testCorruptHeaderIsRejected() throws Exception {
+		// A slot count that is not a power of two, a table without an empty slot and a table beyond the end of the file
+		assertCorruptHeaderIsRejected(8, 3);
+		assertCorruptHeaderIsRejected(12, 256);
+		assertCorruptHeaderIsRejected(16, Integer.MAX_VALUE);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testPackedStoreIsReadOnly() throws Exception {
+		createPackedCaptureStore().openCaptureOutput("getString");
+	}
+
+	private void assertCorruptHeaderIsRejected(int headerOffset, int value) throws Exception {
+		File corruptStoreFile = new File(temporaryFolder.getRoot(), "corrupt.pack");
+		Files.copy(packedStoreFile.toPath(), corruptStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		RandomAccessFile file = new RandomAccessFile(corruptStoreFile, "rw");
+		try {
+			file.seek(headerOffset);
+			if (headerOffset == 16) {
+				file.writeLong(value);
+			} else {
+				file.writeInt(value);
+			}
+		} finally {
+			file.close();
+		}
+		try {
+			PackedCaptureStore packedCaptureStore = new PackedCaptureStore();
+			packedCaptureStore.setPackedStorePath(corruptStoreFile.getPath());
+			packedCaptureStore.afterPropertiesSet();
+			fail("The corrupt header has not been rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private PackedCaptureStore createPackedCaptureStore() throws Exception {
+		PackedCaptureStore packedCaptureStore = new PackedCaptureStore();
+		packedCaptureStore.setPackedStorePath(packedStoreFile.getPath());
+		packedCaptureStore.afterPropertiesSet();
+		return packedCaptureStore;
+	}
+
+	private void writeCaptureFile(File directory, String fileName, String capturedText) throws IOException {
+		FileOutputStream outputStream = new FileOutputStream(new File(directory, fileName));
+		try {
+			String capture = String.format("{\"@class\":\"%s\",\"type\":\"java.lang.String\",\"object\":\"%s\"}", TypeWrapper.class.getName(), capturedText);
+			outputStream.write(capture.getBytes("UTF-8"));
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	public static class CapturedService {
+
+		public String getString() {
+			return "text";
+		}
+
+		public String getString(int index) {
+			return "text " + index;
+		}
+	}
+}
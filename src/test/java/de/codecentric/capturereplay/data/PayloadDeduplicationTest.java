@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadDeduplicationTest {
+
+	@Test
+	public void testEqualResultsAreStoredOnce() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, 16);
+		Method method = ReferenceDataService.class.getMethod("findCountries", int.class);
+
+		for (int i = 0; i < 10; i++) {
+			dataMapper.writeCapturedData(method, createCountries(), new Object[]{i}, i);
+		}
+		dataMapper.writeCapturedData(method, new ArrayList<String>(), new Object[]{10}, 0);
+
+		// Eleven captures refer to two payloads.
+		assertEquals(13, captureStore.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(createCountries(), dataMapper.getCapturedData(method, new Object[]{i}));
+		}
+		assertEquals(new ArrayList<String>(), dataMapper.getCapturedData(method, new Object[]{10}));
+	}
+
+	@Test
+	public void testMutablePayloadsAreCopiedOnRead() throws Exception {
+		assertMutablePayloadsAreCopied(16);
+	}
+
+	@Test
+	public void testMutablePayloadsAreCopiedWithoutPayloadCache() throws Exception {
+		assertMutablePayloadsAreCopied(0);
+	}
+
+	@Test
+	public void testImmutablePayloadsAreShared() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), 16);
+		Method method = ReferenceDataService.class.getMethod("findCapital", int.class);
+		dataMapper.writeCapturedData(method, new String("Berlin"), new Object[]{1});
+		dataMapper.writeCapturedData(method, new String("Berlin"), new Object[]{2});
+
+		Object first = dataMapper.getCapturedData(method, new Object[]{1});
+		assertEquals("Berlin", first);
+		assertSame(first, dataMapper.getCapturedData(method, new Object[]{2}));
+	}
+
+	@Test
+	public void testExceptionsAreDeduplicated() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, 16);
+		Method method = ReferenceDataService.class.getMethod("findCapital", int.class);
+		IOException exception = new IOException("remote failure");
+		dataMapper.writeCapturedException(method, exception, new Object[]{1}, 0);
+		dataMapper.writeCapturedException(method, exception, new Object[]{2}, 0);
+
+		assertEquals(3, captureStore.size());
+		try {
+			dataMapper.getCapturedData(method, new Object[]{2});
+			fail("Expected the captured exception to be replayed.");
+		} catch (ReplayedThrowableException e) {
+			assertTrue(e.getReplayedThrowable() instanceof IOException);
+			assertEquals("remote failure", e.getReplayedThrowable().getMessage());
+		}
+	}
+
+	@Test
+	public void testDurationsAreKeptPerCapture() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore, 16);
+		Method method = ReferenceDataService.class.getMethod("findCapital", int.class);
+		dataMapper.writeCapturedData(method, "Berlin", new Object[]{1}, 1000);
+		dataMapper.writeCapturedData(method, "Berlin", new Object[]{2}, 2000);
+
+		String firstCapture = captureStore.getCapture(new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{1}));
+		String secondCapture = captureStore.getCapture(new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{2}));
+		assertTrue(firstCapture.contains("\"duration\":1000"));
+		assertTrue(secondCapture.contains("\"duration\":2000"));
+		assertEquals(3, captureStore.size());
+	}
+
+	@Test
+	public void testCapturesWaitForPayloadWrittenByOtherThread() throws Exception {
+		final CountDownLatch payloadWriteStarted = new CountDownLatch(1);
+		final CountDownLatch payloadWriteAllowed = new CountDownLatch(1);
+		final AtomicBoolean failPayloadWrite = new AtomicBoolean(true);
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore() {
+			@Override
+			public OutputStream openCaptureOutput(String captureKey) throws IOException {
+				if (PayloadStore.isPayloadKey(captureKey) && failPayloadWrite.get()) {
+					payloadWriteStarted.countDown();
+					try {
+						payloadWriteAllowed.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					throw new IOException("The store is not available.");
+				}
+				return super.openCaptureOutput(captureKey);
+			}
+		};
+		final JsonDataMapper dataMapper = createDataMapper(captureStore, 16);
+		final Method method = ReferenceDataService.class.getMethod("findCapital", int.class);
+		final AtomicReference<Exception> firstFailure = new AtomicReference<Exception>();
+		Thread firstCapture = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dataMapper.writeCapturedData(method, "Berlin", new Object[]{1});
+				} catch (Exception e) {
+					firstFailure.set(e);
+				}
+			}
+		});
+		firstCapture.start();
+		payloadWriteStarted.await();
+		final AtomicReference<Exception> secondFailure = new AtomicReference<Exception>();
+		Thread secondCapture = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					dataMapper.writeCapturedData(method, "Berlin", new Object[]{2});
+				} catch (Exception e) {
+					secondFailure.set(e);
+				}
+			}
+		});
+		secondCapture.start();
+		while (secondCapture.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+
+		// The second capture has waited for the payload and does not refer to the payload that could not be written.
+		payloadWriteAllowed.countDown();
+		firstCapture.join();
+		secondCapture.join();
+		assertTrue(firstFailure.get() instanceof DataMappingException);
+		assertTrue(secondFailure.get() instanceof DataMappingException);
+		assertEquals(0, captureStore.size());
+
+		// The failed payload is written again by the next capture.
+		failPayloadWrite.set(false);
+		dataMapper.writeCapturedData(method, "Berlin", new Object[]{3});
+		assertEquals("Berlin", dataMapper.getCapturedData(method, new Object[]{3}));
+		assertEquals(2, captureStore.size());
+	}
+
+	private void assertMutablePayloadsAreCopied(int payloadCacheSize) throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore(), payloadCacheSize);
+		Method method = ReferenceDataService.class.getMethod("findCountries", int.class);
+		dataMapper.writeCapturedData(method, createCountries(), new Object[]{1});
+		dataMapper.writeCapturedData(method, createCountries(), new Object[]{2});
+
+		@SuppressWarnings("unchecked")
+		List<String> first = (List<String>) dataMapper.getCapturedData(method, new Object[]{1});
+		first.clear();
+		Object second = dataMapper.getCapturedData(method, new Object[]{2});
+		assertNotSame(first, second);
+		assertEquals(createCountries(), second);
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore, int payloadCacheSize) throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.setDeduplicatePayloads(true);
+		dataMapper.setPayloadCacheSize(payloadCacheSize);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	private static List<String> createCountries() {
+		return new ArrayList<String>(Arrays.asList("Germany", "France", "Italy"));
+	}
+
+	public static class ReferenceDataService {
+
+		public List<String> findCountries(int page) {
+			return null;
+		}
+
+		public String findCapital(int countryId) {
+			return null;
+		}
+	}
+}
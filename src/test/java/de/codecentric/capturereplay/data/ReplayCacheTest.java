@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayCacheTest {
+
+	private static final JsonNode DATA = new TextNode("captured text");
+
+	@Test
+	public void testLruEviction() {
+		ReplayCache replayCache = new ReplayCache(2, EvictionPolicy.LRU);
+		replayCache.put("a", DATA);
+		replayCache.put("b", DATA);
+
+		// Accessing "a" makes "b" the least recently used entry.
+		replayCache.get("a");
+		replayCache.put("c", DATA);
+
+		assertEquals(2, replayCache.size());
+		assertNotNull(replayCache.get("a"));
+		assertNull(replayCache.get("b"));
+		assertNotNull(replayCache.get("c"));
+	}
+
+	@Test
+	public void testFifoEviction() {
+		ReplayCache replayCache = new ReplayCache(2, EvictionPolicy.FIFO);
+		replayCache.put("a", DATA);
+		replayCache.put("b", DATA);
+
+		// Accessing "a" does not matter, it has been inserted first.
+		replayCache.get("a");
+		replayCache.put("c", DATA);
+
+		assertEquals(2, replayCache.size());
+		assertNull(replayCache.get("a"));
+		assertNotNull(replayCache.get("b"));
+		assertNotNull(replayCache.get("c"));
+	}
+
+	@Test
+	public void testReplayInstanceBelongsToItsTree() {
+		ReplayCache replayCache = new ReplayCache(2, EvictionPolicy.LRU);
+		TypeWrapper replayInstance = new TypeWrapper("java.lang.String", "captured text");
+		replayCache.put("a", DATA);
+		replayCache.putReplayInstance("a", DATA, replayInstance);
+		assertSame(replayInstance, replayCache.getReplayInstance("a"));
+
+		// An instance deserialized from a tree that has been replaced in the meantime is not kept.
+		JsonNode replacedData = new TextNode("replaced text");
+		replayCache.put("a", replacedData);
+		assertNull(replayCache.getReplayInstance("a"));
+		replayCache.putReplayInstance("a", DATA, replayInstance);
+		assertNull(replayCache.getReplayInstance("a"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		ReplayCache replayCache = new ReplayCache(2, EvictionPolicy.LRU);
+		replayCache.put("a", DATA);
+		replayCache.invalidate("a");
+
+		assertNull(replayCache.get("a"));
+		assertEquals(0, replayCache.size());
+	}
+
+	@Test
+	public void testHeapBudgetEviction() {
+		ReplayCache replayCache = new ReplayCache(100, 10, EvictionPolicy.LRU, 0);
+		replayCache.put("a", DATA, new byte[6]);
+		replayCache.put("b", DATA, new byte[6]);
+
+		assertNull(replayCache.get("a"));
+		assertNotNull(replayCache.get("b"));
+		assertEquals(6, replayCache.getHeapWeight());
+	}
+
+	@Test
+	public void testEvictedCaptureIsKeptOffHeap() {
+		ReplayCache replayCache = new ReplayCache(1, 0, EvictionPolicy.LRU, 1024);
+		replayCache.put("a", DATA, "captured a".getBytes());
+		replayCache.put("b", DATA, "captured b".getBytes());
+
+		assertNull(replayCache.get("a"));
+		assertArrayEquals("captured a".getBytes(), replayCache.getSerializedData("a"));
+		assertEquals(2, replayCache.getOffHeapSize());
+		assertEquals(20, replayCache.getOffHeapBytes());
+	}
+
+	@Test
+	public void testInvalidateRemovesOffHeapCapture() {
+		ReplayCache replayCache = new ReplayCache(1, 0, EvictionPolicy.LRU, 1024);
+		replayCache.put("a", DATA, "captured a".getBytes());
+		replayCache.invalidate("a");
+
+		assertNull(replayCache.get("a"));
+		assertNull(replayCache.getSerializedData("a"));
+		assertEquals(0, replayCache.getOffHeapBytes());
+	}
+
+	@Test
+	public void testOnlyBudgetsNeedSerializedData() {
+		assertFalse(new ReplayCache(1, EvictionPolicy.LRU).needsSerializedData());
+		assertTrue(new ReplayCache(1, 10, EvictionPolicy.LRU, 0).needsSerializedData());
+		assertTrue(new ReplayCache(1, 0, EvictionPolicy.LRU, 1024).needsSerializedData());
+	}
+
+	@Test
+	public void testClearRemovesOffHeapCaptures() {
+		OffHeapCaptureCache offHeapCache = new OffHeapCaptureCache(160);
+		offHeapCache.put("a", "captured a".getBytes());
+		offHeapCache.clear();
+
+		assertNull(offHeapCache.get("a"));
+		assertEquals(0, offHeapCache.getUsedBytes());
+		offHeapCache.put("b", "captured b".getBytes());
+		assertArrayEquals("captured b".getBytes(), offHeapCache.get("b"));
+	}
+
+	@Test
+	public void testOffHeapSegmentsAreReused() {
+		// 16 segments of 10 bytes each hold one capture each.
+		OffHeapCaptureCache offHeapCache = new OffHeapCaptureCache(160);
+		for (int i = 0; i < 20; i++) {
+			offHeapCache.put(String.valueOf(i), String.format("capture %02d", i).getBytes());
+		}
+
+		assertEquals(16, offHeapCache.size());
+		assertNull(offHeapCache.get("3"));
+		assertArrayEquals("capture 04".getBytes(), offHeapCache.get("4"));
+		assertArrayEquals("capture 19".getBytes(), offHeapCache.get("19"));
+	}
+
+	@Test
+	public void testReplacedCapturesOccupySegmentsUntilReused() {
+		// 16 segments of 20 bytes each.
+		OffHeapCaptureCache offHeapCache = new OffHeapCaptureCache(320);
+		offHeapCache.put("a", "capture a1".getBytes());
+		offHeapCache.put("a", "capture a2".getBytes());
+
+		assertEquals(10, offHeapCache.getUsedBytes());
+		assertEquals(20, offHeapCache.getOccupiedBytes());
+		for (int i = 0; i < 16; i++) {
+			offHeapCache.put(String.valueOf(i), "capture 20 bytes....".getBytes());
+		}
+		// The first segment has been reused, which released the replaced capture.
+		assertNull(offHeapCache.get("a"));
+		assertEquals(320, offHeapCache.getUsedBytes());
+		assertEquals(320, offHeapCache.getOccupiedBytes());
+		offHeapCache.remove("0");
+		assertEquals(300, offHeapCache.getUsedBytes());
+		assertEquals(320, offHeapCache.getOccupiedBytes());
+	}
+
+	@Test
+	public void testCaptureLargerThanSegmentIsNotKeptOffHeap() {
+		OffHeapCaptureCache offHeapCache = new OffHeapCaptureCache(160);
+		offHeapCache.put("a", new byte[11]);
+
+		assertNull(offHeapCache.get("a"));
+		assertEquals(0, offHeapCache.getUsedBytes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaximumSizeMustBePositive() {
+		new ReplayCache(0, EvictionPolicy.LRU);
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import de.codecentric.capturereplay.Capturable;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayInstancesTest {
+
+	@Test
+	public void testCopiesAreIndependentOfEachOther() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = OrderService.class.getMethod("findOrderCopied", int.class);
+		dataMapper.writeCapturedData(method, createOrder(), new Object[]{1});
+
+		Order first = (Order) dataMapper.getCapturedData(method, new Object[]{1});
+		first.getItems().add("modified");
+		first.setTotal(new Money(BigDecimal.ZERO));
+		Order second = (Order) dataMapper.getCapturedData(method, new Object[]{1});
+
+		assertNotSame(first, second);
+		assertEquals(Arrays.asList("apple", "pear"), second.getItems());
+		assertEquals(new BigDecimal("9.99"), second.getTotal().getAmount());
+		assertEquals(1, captureStore.getReads());
+	}
+
+	@Test
+	public void testSharedInstancesAreReplayedForAllCalls() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = OrderService.class.getMethod("findOrderShared", int.class);
+		dataMapper.writeCapturedData(method, createOrder(), new Object[]{1});
+
+		assertSame(dataMapper.getCapturedData(method, new Object[]{1}), dataMapper.getCapturedData(method, new Object[]{1}));
+		assertEquals(1, captureStore.getReads());
+	}
+
+	@Test
+	public void testImmutableTypesAreShared() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setImmutableTypes(Collections.<Class<?>>singleton(Money.class));
+		dataMapper.afterPropertiesSet();
+		Method method = OrderService.class.getMethod("findOrderCopied", int.class);
+		dataMapper.writeCapturedData(method, createOrder(), new Object[]{1});
+
+		Order first = (Order) dataMapper.getCapturedData(method, new Object[]{1});
+		Order second = (Order) dataMapper.getCapturedData(method, new Object[]{1});
+		assertNotSame(first.getItems(), second.getItems());
+		assertSame(first.getTotal(), second.getTotal());
+	}
+
+	@Test
+	public void testCaptureReplacesSharedInstance() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore());
+		Method method = OrderService.class.getMethod("findOrderShared", int.class);
+		dataMapper.writeCapturedData(method, createOrder(), new Object[]{1});
+		dataMapper.getCapturedData(method, new Object[]{1});
+
+		Order order = createOrder();
+		order.setItems(new ArrayList<String>(Arrays.asList("plum")));
+		dataMapper.writeCapturedData(method, order, new Object[]{1});
+
+		assertEquals(Arrays.asList("plum"), ((Order) dataMapper.getCapturedData(method, new Object[]{1})).getItems());
+	}
+
+	@Test
+	public void testValuesThatCannotBeCopiedAreDeserialized() throws Exception {
+		InMemoryCaptureStore captureStore = new InMemoryCaptureStore();
+		JsonDataMapper dataMapper = createDataMapper(captureStore);
+		Method method = OrderService.class.getMethod("findReceipt", int.class);
+		dataMapper.writeCapturedData(method, new Receipt("R-1"), new Object[]{1});
+
+		Receipt first = (Receipt) dataMapper.getCapturedData(method, new Object[]{1});
+		Receipt second = (Receipt) dataMapper.getCapturedData(method, new Object[]{1});
+		assertNotSame(first, second);
+		assertEquals("R-1", second.getNumber());
+		assertEquals(3, captureStore.getReads());
+	}
+
+	@Test
+	public void testReplayInstanceCacheIsOnlyCreatedForCopiedOrSharedInstances() throws Exception {
+		JsonDataMapper dataMapper = createDataMapper(new InMemoryCaptureStore());
+		dataMapper.warmUp(CapturedService.class.getMethod("findOrder", int.class));
+		assertFalse(dataMapper.hasReplayCaches());
+
+		dataMapper.warmUp(OrderService.class.getMethod("findOrderShared", int.class));
+		assertTrue(dataMapper.hasReplayCaches());
+	}
+
+	@Test
+	public void testCopyKeepsSharedReferencesAndCycles() {
+		StructuralCopier structuralCopier = new StructuralCopier(Collections.<Class<?>>emptySet());
+		Node node = new Node();
+		node.setNext(node);
+		Map<String, Object> graph = new HashMap<String, Object>();
+		graph.put("first", node);
+		graph.put("second", node);
+		graph.put("numbers", new int[]{1, 2, 3});
+		graph.put("sorted", new TreeSet<String>(Collections.reverseOrder()));
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> copy = (Map<String, Object>) structuralCopier.copy(graph);
+		Node copiedNode = (Node) copy.get("first");
+		assertNotSame(node, copiedNode);
+		assertSame(copiedNode, copy.get("second"));
+		assertSame(copiedNode, copiedNode.getNext());
+		assertArrayEquals(new int[]{1, 2, 3}, (int[]) copy.get("numbers"));
+		@SuppressWarnings("unchecked")
+		TreeSet<String> sorted = (TreeSet<String>) copy.get("sorted");
+		sorted.addAll(Arrays.asList("a", "b"));
+		assertEquals("b", sorted.first());
+	}
+
+	@Test
+	public void testEnumSetsAndEnumMapsKeepTheirType() {
+		StructuralCopier structuralCopier = new StructuralCopier(Collections.<Class<?>>emptySet());
+		EnumSet<TimeUnit> units = EnumSet.of(TimeUnit.SECONDS, TimeUnit.MINUTES);
+		EnumMap<TimeUnit, List<String>> names = new EnumMap<TimeUnit, List<String>>(TimeUnit.class);
+		names.put(TimeUnit.SECONDS, new ArrayList<String>(Arrays.asList("s", "sec")));
+
+		@SuppressWarnings("unchecked")
+		EnumSet<TimeUnit> copiedUnits = (EnumSet<TimeUnit>) structuralCopier.copy(units);
+		assertNotSame(units, copiedUnits);
+		assertEquals(units, copiedUnits);
+		@SuppressWarnings("unchecked")
+		EnumMap<TimeUnit, List<String>> copiedNames = (EnumMap<TimeUnit, List<String>>) structuralCopier.copy(names);
+		assertEquals(names, copiedNames);
+		assertNotSame(names.get(TimeUnit.SECONDS), copiedNames.get(TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCollectionsWithoutDefaultConstructorCannotBeCopied() {
+		new StructuralCopier(Collections.<Class<?>>emptySet()).copy(Collections.unmodifiableList(Arrays.asList("apple")));
+	}
+
+	private static JsonDataMapper createDataMapper(CaptureStore captureStore) throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(captureStore);
+		dataMapper.afterPropertiesSet();
+		return dataMapper;
+	}
+
+	private static Order createOrder() {
+		Order order = new Order();
+		order.setItems(new ArrayList<String>(Arrays.asList("apple", "pear")));
+		order.setTotal(new Money(new BigDecimal("9.99")));
+		return order;
+	}
+
+	public static class OrderService {
+
+		@Capturable(replayInstances = ReplayInstances.COPY)
+		public Order findOrderCopied(int id) {
+			return null;
+		}
+
+		@Capturable(replayInstances = ReplayInstances.SHARE)
+		public Order findOrderShared(int id) {
+			return null;
+		}
+
+		@Capturable(replayInstances = ReplayInstances.COPY)
+		public Receipt findReceipt(int id) {
+			return null;
+		}
+	}
+
+	public static class CapturedService {
+
+		@Capturable
+		public Order findOrder(int id) {
+			return null;
+		}
+	}
+
+	public static class Order {
+
+		private List<String> items;
+
+		private Money total;
+
+		public List<String> getItems() {
+			return items;
+		}
+
+		public void setItems(List<String> items) {
+			this.items = items;
+		}
+
+		public Money getTotal() {
+			return total;
+		}
+
+		public void setTotal(Money total) {
+			this.total = total;
+		}
+	}
+
+	public static class Money {
+
+		private BigDecimal amount;
+
+		public Money() {
+		}
+
+		public Money(BigDecimal amount) {
+			this.amount = amount;
+		}
+
+		public BigDecimal getAmount() {
+			return amount;
+		}
+
+		public void setAmount(BigDecimal amount) {
+			this.amount = amount;
+		}
+	}
+
+	// Has no default constructor, so it cannot be copied.
+	public static class Receipt {
+
+		private String number;
+
+		@JsonCreator
+		public Receipt(@JsonProperty("number") String number) {
+			this.number = number;
+		}
+
+		public String getNumber() {
+			return number;
+		}
+
+		public void setNumber(String number) {
+			this.number = number;
+		}
+	}
+
+	public static class Node {
+
+		private Node next;
+
+		public Node getNext() {
+			return next;
+		}
+
+		public void setNext(Node next) {
+			this.next = next;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.data;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructuralHashCaptureKeyStrategyTest {
+
+	private final StructuralHashCaptureKeyStrategy captureKeyStrategy = new StructuralHashCaptureKeyStrategy();
+
+	@Test
+	public void testMurmurHash() throws Exception {
+		// Reference value of MurmurHash3 x64 128 for "hello" with seed 0.
+		HashingOutputStream hashingOutputStream = new HashingOutputStream();
+		hashingOutputStream.write("hello".getBytes("UTF-8"));
+		hashingOutputStream.finish();
+		assertEquals(0xcbd8a7b341bd9b02L, hashingOutputStream.getHash1());
+		assertEquals(0x5b1e906a48ae1d19L, hashingOutputStream.getHash2());
+	}
+
+	@Test
+	public void testCaptureKeyIsStable() throws Exception {
+		Method method = Service.class.getMethod("find", String.class, Map.class);
+		String captureKey = captureKeyStrategy.getCaptureKey(method, new Object[]{"text", null});
+
+		assertTrue(captureKey.matches("Service\\.find-[0-9a-f]{8}-[0-9a-f]{16}"));
+		assertEquals(captureKey, new StructuralHashCaptureKeyStrategy().getCaptureKey(method, new Object[]{"text", null}));
+	}
+
+	@Test
+	public void testCaptureKeyDoesNotDependOnMapOrder() throws Exception {
+		Method method = Service.class.getMethod("find", String.class, Map.class);
+		Map<String, Object> first = new LinkedHashMap<String, Object>();
+		first.put("a", 1);
+		first.put("b", Arrays.asList("x", "y"));
+		Map<String, Object> second = new LinkedHashMap<String, Object>();
+		second.put("b", Arrays.asList("x", "y"));
+		second.put("a", 1);
+
+		assertEquals(captureKeyStrategy.getCaptureKey(method, new Object[]{"text", first}),
+				captureKeyStrategy.getCaptureKey(method, new Object[]{"text", second}));
+	}
+
+	@Test
+	public void testCaptureKeyDependsOnArgumentTypes() throws Exception {
+		Method method = Service.class.getMethod("find", Object.class);
+
+		assertNotEquals(captureKeyStrategy.getCaptureKey(method, new Object[]{1}),
+				captureKeyStrategy.getCaptureKey(method, new Object[]{1L}));
+	}
+
+	@Test
+	public void testCaptureKeyDependsOnMethod() throws Exception {
+		Method findObject = Service.class.getMethod("find", Object.class);
+		Method findString = Service.class.getMethod("find", String.class);
+
+		assertNotEquals(captureKeyStrategy.getCaptureKey(findObject, new Object[]{"text"}),
+				captureKeyStrategy.getCaptureKey(findString, new Object[]{"text"}));
+	}
+
+	@Test
+	public void testBeansWithoutPropertiesFallBackToTheirHashCode() throws Exception {
+		Method method = Service.class.getMethod("find", Object.class);
+
+		assertEquals(captureKeyStrategy.getCaptureKeyForCapture(method, new Object[]{new Token(1)}),
+				captureKeyStrategy.getCaptureKeyForCapture(method, new Object[]{new Token(1)}));
+		assertNotEquals(captureKeyStrategy.getCaptureKeyForCapture(method, new Object[]{new Token(1)}),
+				captureKeyStrategy.getCaptureKeyForCapture(method, new Object[]{new Token(2)}));
+	}
+
+	@Test
+	public void testReplayAndCaptureResultInTheSameCaptureKey() throws Exception {
+		Method method = Service.class.getMethod("find", String.class);
+
+		assertEquals(captureKeyStrategy.getCaptureKeyForCapture(method, new Object[]{"text"}),
+				captureKeyStrategy.getCaptureKey(method, new Object[]{"text"}));
+	}
+
+	public static class Token {
+
+		private final int value;
+
+		public Token(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Token && ((Token) other).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return value;
+		}
+	}
+
+	public static class Service {
+
+		public Object find(Object object) {
+			return object;
+		}
+
+		public Object find(String string) {
+			return string;
+		}
+
+		public Object find(String string, Map<String, Object> options) {
+			return string;
+		}
+	}
+}
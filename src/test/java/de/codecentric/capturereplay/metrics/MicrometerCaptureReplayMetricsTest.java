@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.metrics;
+
+import de.codecentric.capturereplay.CaptureReplayAdvice;
+import de.codecentric.capturereplay.Mode;
+import de.codecentric.capturereplay.data.DataMappingException;
+import de.codecentric.capturereplay.data.InMemoryCaptureStore;
+import de.codecentric.capturereplay.data.JsonDataMapper;
+import de.codecentric.capturereplay.data.ReplayLatency;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MicrometerCaptureReplayMetricsTest {
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private JsonDataMapper dataMapper;
+
+	private Method method;
+
+	@Before
+	public void setUp() throws Exception {
+		meterRegistry = new SimpleMeterRegistry();
+		dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setMetrics(new MicrometerCaptureReplayMetrics(meterRegistry));
+		dataMapper.afterPropertiesSet();
+		method = MeasuredService.class.getMethod("greet", String.class);
+	}
+
+	@Test
+	public void testCaptureAndReplayAreMeasured() throws Exception {
+		dataMapper.writeCapturedData(method, "Hello Alice", new Object[]{"Alice"});
+		assertEquals("Hello Alice", dataMapper.getCapturedData(method, new Object[]{"Alice"}));
+
+		assertEquals(1, meterRegistry.get("capture.replay.serialization").tag("method", "greet").timer().count());
+		assertEquals(1, meterRegistry.get("capture.replay.deserialization").tag("method", "greet").timer().count());
+		assertEquals(1, meterRegistry.get("capture.replay.io").tag("operation", "write").timer().count());
+		assertEquals(1, meterRegistry.get("capture.replay.io").tag("operation", "read").timer().count());
+		assertEquals(2, meterRegistry.get("capture.replay.payload.size").summary().count());
+		assertEquals(1.0, meterRegistry.get("capture.replay.replay").tag("result", "hit").counter().count(), 0.0);
+		assertEquals(0.0, meterRegistry.get("capture.replay.replay").tag("result", "miss").counter().count(), 0.0);
+	}
+
+	@Test
+	public void testMissesAreCountedSeparatelyFromErrors() throws Exception {
+		try {
+			dataMapper.getCapturedData(method, new Object[]{"Bob"});
+			fail("Replaying a call that has never been captured must fail.");
+		} catch (DataMappingException e) {
+			// expected
+		}
+
+		assertEquals(1.0, meterRegistry.get("capture.replay.replay").tag("result", "miss").counter().count(), 0.0);
+		assertEquals(0.0, meterRegistry.get("capture.replay.errors").counter().count(), 0.0);
+	}
+
+	@Test
+	public void testReplayOverheadDoesNotIncludeSimulatedLatency() throws Exception {
+		JsonDataMapper dataMapper = new JsonDataMapper(new InMemoryCaptureStore());
+		dataMapper.setReplayLatency(ReplayLatency.RECORDED);
+		dataMapper.afterPropertiesSet();
+		dataMapper.writeCapturedData(method, "Hello Alice", new Object[]{"Alice"}, TimeUnit.MILLISECONDS.toNanos(200));
+		CaptureReplayAdvice captureReplayAdvice = new CaptureReplayAdvice();
+		captureReplayAdvice.setMode(Mode.REPLAY);
+		captureReplayAdvice.setDataMapper(dataMapper);
+		captureReplayAdvice.setMetrics(new MicrometerCaptureReplayMetrics(meterRegistry));
+		captureReplayAdvice.afterPropertiesSet();
+		ProxyFactory proxyFactory = new ProxyFactory(new MeasuredService());
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAdvice(captureReplayAdvice);
+		MeasuredService measuredService = (MeasuredService) proxyFactory.getProxy();
+
+		long start = System.nanoTime();
+		assertEquals("Hello Alice", measuredService.greet("Alice"));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+		Timer replayOverhead = meterRegistry.get("capture.replay.advice").tag("mode", "replay").timer();
+		assertEquals(1, replayOverhead.count());
+		assertTrue(replayOverhead.totalTime(TimeUnit.MILLISECONDS) < 200);
+	}
+
+	public static class MeasuredService {
+		public String greet(String name) {
+			return "Hello " + name;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.codecentric.capturereplay.ns;
+
+import de.codecentric.capturereplay.CaptureReplayWarmUp;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class CaptureReplayNamespaceHandlerWarmUpTest {
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Test
+	public void testCaptureReplayWarmUpIsRegistered() {
+		CaptureReplayWarmUp warmUp = applicationContext.getBean(CaptureReplayWarmUp.class);
+		assertTrue(warmUp.isRunning());
+		assertEquals(2, warmUp.getPreloadThreads());
+	}
+
+}